@@ -15,24 +15,50 @@
  */
 package io.gravitee.service.geoip;
 
+import static io.gravitee.service.geoip.service.DatabaseReaderService.ASN_DB_TYPE;
+import static io.gravitee.service.geoip.service.DatabaseReaderService.CITY_DB_TYPE;
+import static io.gravitee.service.geoip.service.DatabaseReaderService.COUNTRY_DB_TYPE;
 import static java.util.Objects.isNull;
 
-import com.maxmind.geoip2.DatabaseReader;
 import com.maxmind.geoip2.exception.AddressNotFoundException;
 import com.maxmind.geoip2.exception.GeoIp2Exception;
 import io.gravitee.common.service.AbstractService;
 import io.gravitee.service.geoip.cache.GeoIpCache;
+import io.gravitee.service.geoip.codec.GeoDataMessageCodec;
+import io.gravitee.service.geoip.metrics.GeoIpMetrics;
+import io.gravitee.service.geoip.model.GeoData;
+import io.gravitee.service.geoip.model.GeoProjection;
+import io.gravitee.service.geoip.model.NetworkGeoData;
+import io.gravitee.service.geoip.service.DatabaseGeneration;
+import io.gravitee.service.geoip.service.DatabaseLoadingPolicy;
 import io.gravitee.service.geoip.service.DatabaseReaderService;
 import io.gravitee.service.geoip.service.DatabaseReaderWatcherService;
+import io.gravitee.service.geoip.service.GeoIpDatabases;
 import io.gravitee.service.geoip.service.GeoIpFinderService;
-import io.gravitee.service.geoip.utils.InetAddresses;
+import io.gravitee.service.geoip.service.GeoIpLookupExecutor;
+import io.gravitee.service.geoip.service.GeoIpResolver;
+import io.gravitee.service.geoip.utils.IpAddressParser;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Context;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
 import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
-import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 /**
  * @author David BRASSELY (david.brassely at graviteesource.com)
@@ -45,29 +71,55 @@ public class GeoIPService extends AbstractService<GeoIPService> {
     private final Logger logger = LoggerFactory.getLogger(GeoIPService.class);
 
     public static final String GEOIP_SERVICE = "service:geoip";
-    private static final String CITY_DB_TYPE = "GeoLite2-City";
+    public static final String GEOIP_BATCH_SERVICE = "service:geoip:batch";
+    public static final String GEOIP_COUNTRY_SERVICE = "service:geoip:country";
+    public static final String GEOIP_COUNTRY_CODE_SERVICE = "service:geoip:country-code";
+    public static final String GEOIP_ASN_SERVICE = "service:geoip:asn";
+    public static final String GEOIP_STATS_SERVICE = "service:geoip:stats";
+    public static final String GEOIP_READINESS_SERVICE = "service:geoip:readiness";
+    public static final String PROPERTIES_HEADER = "properties";
 
     private final DatabaseReaderService databaseReaderService;
     private final GeoIpFinderService geoIPFinderService;
     private final GeoIpCache cache;
     private final DatabaseReaderWatcherService databaseReaderWatcherService;
+    private final GeoIpLookupExecutor lookupExecutor;
+    private final GeoIpResolver resolver;
+    private final GeoIpDatabases databases;
+    private final DatabaseLoadingPolicy loadingPolicy;
 
-    private MessageConsumer<String> consumer;
+    private final int instances;
+
+    private String deploymentId;
+    private MessageConsumer<Object> statsConsumer;
+    private MessageConsumer<Object> readinessConsumer;
 
     private final Vertx vertx;
 
+    /**
+     * @param instances the number of instances of the lookup consumers, each one running on its own event loop
+     */
     @Autowired
     public GeoIPService(
         Vertx vertx,
         DatabaseReaderService databaseReaderService,
         GeoIpFinderService geoIPFinderService,
-        GeoIpCache cache,
-        DatabaseReaderWatcherService databaseReaderWatcherService
+        GeoIpResolver resolver,
+        DatabaseReaderWatcherService databaseReaderWatcherService,
+        GeoIpLookupExecutor lookupExecutor,
+        GeoIpDatabases databases,
+        DatabaseLoadingPolicy loadingPolicy,
+        @Value("${geoip.lookup.instances:1}") int instances
     ) {
         this.vertx = vertx;
+        this.instances = Math.max(1, instances);
+        this.databases = databases;
+        this.loadingPolicy = loadingPolicy;
+        this.lookupExecutor = lookupExecutor;
+        this.resolver = resolver;
         this.geoIPFinderService = geoIPFinderService;
         this.databaseReaderService = databaseReaderService;
-        this.cache = cache;
+        this.cache = resolver.getCache();
         this.databaseReaderWatcherService = databaseReaderWatcherService;
     }
 
@@ -80,45 +132,400 @@ public class GeoIPService extends AbstractService<GeoIPService> {
     protected void doStart() throws Exception {
         super.doStart();
 
-        consumer =
+        vertx.eventBus().registerDefaultCodec(GeoData.class, new GeoDataMessageCodec());
+        deploymentId =
             vertx
-                .eventBus()
-                .consumer(
-                    GEOIP_SERVICE,
-                    message -> {
-                        try {
-                            InetAddress ipAddress = InetAddresses.forString(message.body());
-                            final DatabaseReader databaseReader = databaseReaderService.get(CITY_DB_TYPE);
-
-                            if (isNull(databaseReader)) {
-                                throw new GeoIp2Exception("Database " + CITY_DB_TYPE + " not loaded");
-                            }
-
-                            JsonObject geoData = cache.get(ipAddress);
-                            if (geoData == null) {
-                                geoData = geoIPFinderService.retrieveCityGeoData(ipAddress, databaseReader);
-                                cache.put(ipAddress, geoData);
-                            }
-
-                            message.reply(geoData);
-                        } catch (AddressNotFoundException anfe) {
-                            // Silent exception to avoid unnecessary logs
-                            message.fail(-1, anfe.getMessage());
-                        } catch (Exception ex) {
-                            logger.error("Unexpected error while resolving IP: {}", message.body(), ex);
-                            message.fail(-1, "Unexpected error while resolving IP {" + message.body() + "}");
-                        }
+                .deployVerticle(LookupVerticle::new, new DeploymentOptions().setInstances(instances))
+                .toCompletionStage()
+                .toCompletableFuture()
+                .get();
+        statsConsumer = vertx.eventBus().consumer(GEOIP_STATS_SERVICE, message -> message.reply(stats()));
+        readinessConsumer = vertx.eventBus().consumer(GEOIP_READINESS_SERVICE, message -> message.reply(readiness()));
+    }
+
+    /**
+     * Registers the lookup consumers on the event loop of one instance. Messages sent to an address are dispatched in
+     * turn to the consumers of every instance, which share the resolvers, caches and databases but each own their
+     * handlers (and the buffers these reuse), so lookups spread over as many event loops as there are instances.
+     */
+    private class LookupVerticle extends AbstractVerticle {
+
+        // Only ever used from this instance's event-loop thread
+        private final long[] batchAddressKey = new long[2];
+
+        @Override
+        public void start() {
+            final EventBus eventBus = vertx.eventBus();
+            eventBus.consumer(GEOIP_SERVICE, new SingleIpHandler(resolver));
+            eventBus.consumer(GEOIP_BATCH_SERVICE, message -> resolveBatch(message, batchAddressKey));
+            if (databases.contains(COUNTRY_DB_TYPE)) {
+                eventBus.consumer(GEOIP_COUNTRY_SERVICE, new SingleIpHandler(databases.getResolver(COUNTRY_DB_TYPE)));
+            }
+            if (databases.contains(ASN_DB_TYPE)) {
+                eventBus.consumer(GEOIP_ASN_SERVICE, new SingleIpHandler(databases.getResolver(ASN_DB_TYPE)));
+            }
+            // The country database, when served, is smaller than the city one and locates addresses just as well
+            eventBus.consumer(
+                GEOIP_COUNTRY_CODE_SERVICE,
+                new CountryCodeHandler(databases.contains(COUNTRY_DB_TYPE) ? databases.getResolver(COUNTRY_DB_TYPE) : resolver)
+            );
+        }
+    }
+
+    /**
+     * The databases are loaded in the background, this service is started (and its addresses registered) before they
+     * are loaded.
+     *
+     * @return a future completed once every served database has been loaded
+     */
+    public Future<Void> whenReady() {
+        // The loads are all under way already, composing them only waits for each of them in turn
+        Future<Void> ready = databaseReaderService.whenLoaded(CITY_DB_TYPE);
+        for (String databaseType : databases.getDatabaseTypes()) {
+            final Future<Void> loaded = databaseReaderService.whenLoaded(databaseType);
+            ready = ready.compose(v -> loaded);
+        }
+        return ready;
+    }
+
+    /**
+     * @return whether every served database has been loaded, along with the state of each of them
+     */
+    private JsonObject readiness() {
+        final JsonObject loaded = new JsonObject().put(CITY_DB_TYPE, databaseReaderService.get(CITY_DB_TYPE) != null);
+        for (String databaseType : databases.getDatabaseTypes()) {
+            loaded.put(databaseType, databases.getResolver(databaseType).isLoaded());
+        }
+        return new JsonObject().put("ready", !loaded.getMap().containsValue(false)).put("databases", loaded);
+    }
+
+    /**
+     * Handles a message received while its database is not loaded yet, by failing it or, depending on the
+     * {@link DatabaseLoadingPolicy}, by handling it again on the current context once the database is loaded. Waiting
+     * messages are failed when the database is not loaded in time.
+     */
+    private void whileLoading(Message<?> message, String databaseType, Runnable handler) {
+        final String notLoaded = "Database " + databaseType + " not loaded";
+        if (!loadingPolicy.isWaiting()) {
+            logger.debug("{}, failing the lookup", notLoaded);
+            message.fail(-1, notLoaded);
+            return;
+        }
+        final Context context = vertx.getOrCreateContext();
+        final Promise<Void> loaded = Promise.promise();
+        final long timer = vertx.setTimer(loadingPolicy.getTimeout(), id -> loaded.tryFail(notLoaded));
+        databaseReaderService.whenLoaded(databaseType).onSuccess(v -> loaded.tryComplete());
+        loaded
+            .future()
+            .onComplete(result ->
+                context.runOnContext(v -> {
+                    vertx.cancelTimer(timer);
+                    // Closed in the meantime, the message must not wait again
+                    if (result.failed() || isNull(databaseReaderService.get(databaseType))) {
+                        message.fail(-1, notLoaded);
+                    } else {
+                        handler.run();
+                    }
+                })
+            );
+    }
+
+    /**
+     * Fails a message whose IP is not a valid IP string literal. This is a client error, only logged at debug level.
+     */
+    private void failInvalidAddress(Message<?> message, String ip) {
+        logger.debug("'{}' is not an IP string literal, rejecting it", ip);
+        message.fail(-1, "Unexpected error while resolving IP {" + ip + "}");
+    }
+
+    /**
+     * Replies to a single IP message with the result of its lookup, or fails it with the reason of the failure.
+     */
+    private <T> void reply(Message<?> message, String ip, Future<T> result) {
+        result
+            .onSuccess(message::reply)
+            .onFailure(throwable -> {
+                if (throwable instanceof AddressNotFoundException) {
+                    // Silent exception to avoid unnecessary logs
+                    message.fail(-1, throwable.getMessage());
+                } else if (throwable instanceof RejectedExecutionException) {
+                    logger.debug("GeoIP lookup queue is full, rejecting IP: {}", ip);
+                    message.fail(-1, "GeoIP lookup queue is full, rejecting IP {" + ip + "}");
+                } else {
+                    logger.error("Unexpected error while resolving IP: {}", ip, throwable);
+                    message.fail(-1, "Unexpected error while resolving IP {" + ip + "}");
+                }
+            });
+    }
+
+    /**
+     * Resolves single IPs against one database, sent either as a string literal or as
+     * <code>{"ip": ..., "properties": [...]}</code>. The properties to return can also be given as a comma separated
+     * {@link #PROPERTIES_HEADER} header, all of them being returned otherwise.
+     */
+    private class SingleIpHandler implements Handler<Message<Object>> {
+
+        private final GeoIpResolver resolver;
+        private final GeoIpMetrics metrics;
+
+        // Only ever used from the consumer's event-loop thread
+        private final long[] addressKey = new long[2];
+
+        private SingleIpHandler(GeoIpResolver resolver) {
+            this.resolver = resolver;
+            this.metrics = resolver.getCache().getMetrics();
+        }
+
+        @Override
+        public void handle(Message<Object> message) {
+            if (!resolver.isLoaded()) {
+                whileLoading(message, resolver.getDatabaseType(), () -> handle(message));
+                return;
+            }
+            final Object body = message.body();
+            final String ip;
+            final GeoProjection projection;
+            try {
+                if (body instanceof JsonObject) {
+                    ip = ((JsonObject) body).getString("ip");
+                    projection = GeoProjection.of(((JsonObject) body).getJsonArray("properties", new JsonArray()).getList());
+                } else {
+                    ip = body == null ? null : body.toString();
+                    projection = GeoProjection.parse(message.headers().get(PROPERTIES_HEADER));
+                }
+            } catch (IllegalArgumentException | ClassCastException ex) {
+                message.fail(-1, ex.getMessage());
+                return;
+            }
+
+            final long start = System.nanoTime();
+            if (!IpAddressParser.parse(ip, addressKey)) {
+                failInvalidAddress(message, ip);
+                return;
+            }
+            final long parsed = System.nanoTime();
+            metrics.recordParse(parsed - start);
+
+            final GeoData geoData = resolver.getCached(addressKey[0], addressKey[1], projection);
+            metrics.recordCacheLookup(System.nanoTime() - parsed);
+            if (geoData != null) {
+                if (geoData.isNotFound()) {
+                    // Known not to be in the database, replied without walking it nor throwing
+                    message.fail(-1, GeoIpFinderService.notFoundMessage(addressKey[0], addressKey[1]));
+                } else {
+                    message.reply(geoData);
+                }
+                return;
+            }
+
+            reply(message, ip, resolver.resolve(addressKey[0], addressKey[1], projection));
+        }
+    }
+
+    /**
+     * Resolves only the country of single IPs, sent as string literals, replying with its ISO code. IPv4 addresses are
+     * resolved from the country table of the database when one has been built.
+     */
+    private class CountryCodeHandler implements Handler<Message<Object>> {
+
+        private final GeoIpResolver resolver;
+
+        // Only ever used from the consumer's event-loop thread
+        private final long[] addressKey = new long[2];
+
+        private CountryCodeHandler(GeoIpResolver resolver) {
+            this.resolver = resolver;
+        }
+
+        @Override
+        public void handle(Message<Object> message) {
+            if (!resolver.isLoaded()) {
+                whileLoading(message, resolver.getDatabaseType(), () -> handle(message));
+                return;
+            }
+            final Object body = message.body();
+            final String ip = body == null ? null : body.toString();
+            if (!IpAddressParser.parse(ip, addressKey)) {
+                failInvalidAddress(message, ip);
+                return;
+            }
+
+            reply(message, ip, resolver.resolveCountryIsoCode(addressKey[0], addressKey[1]));
+        }
+    }
+
+    /**
+     * Resolves a batch of IPs in a single message. The reply holds one entry per input, in the same order, each being
+     * either <code>{"ip": ..., "geo": {...}}</code> or <code>{"ip": ..., "error": "..."}</code>.
+     *
+     * <p>Duplicated inputs are resolved only once, the cache is checked for every distinct address first and the misses
+     * are then resolved in one pass against the same database reader. As for single IPs, the properties to return can
+     * be given as a {@link #PROPERTIES_HEADER} header.
+     */
+    private void resolveBatch(Message<Object> message, long[] batchAddressKey) {
+        final Object body = message.body();
+        try {
+            final GeoProjection projection = GeoProjection.parse(message.headers().get(PROPERTIES_HEADER));
+            if (!(body instanceof JsonArray)) {
+                throw new IllegalArgumentException("Batch body must be a JSON array of IP string literals.");
+            }
+            final JsonArray ips = (JsonArray) body;
+            if (isNull(databaseReaderService.get(CITY_DB_TYPE))) {
+                whileLoading(message, CITY_DB_TYPE, () -> resolveBatch(message, batchAddressKey));
+                return;
+            }
+
+            final Map<Object, JsonObject> results = new LinkedHashMap<>();
+            final List<JsonObject> misses = new ArrayList<>();
+            final List<long[]> missKeys = new ArrayList<>();
+
+            for (Object ip : ips) {
+                if (results.containsKey(ip)) {
+                    continue;
+                }
+                final JsonObject result = new JsonObject().put("ip", ip);
+                results.put(ip, result);
+
+                if (!(ip instanceof String) || !IpAddressParser.parse((String) ip, batchAddressKey)) {
+                    result.put("error", "'" + ip + "' is not an IP string literal.");
+                    continue;
+                }
+                final GeoData geoData = resolver.getCached(batchAddressKey[0], batchAddressKey[1], projection);
+                if (geoData != null && geoData.isNotFound()) {
+                    result.put("error", GeoIpFinderService.notFoundMessage(batchAddressKey[0], batchAddressKey[1]));
+                } else if (geoData != null) {
+                    result.put("geo", geoData.asJson());
+                } else {
+                    misses.add(result);
+                    missKeys.add(new long[] { batchAddressKey[0], batchAddressKey[1] });
+                }
+            }
+
+            if (misses.isEmpty()) {
+                replyBatch(message, ips, results);
+            } else {
+                final DatabaseGeneration generation = databaseReaderService.acquire(CITY_DB_TYPE);
+                if (isNull(generation)) {
+                    throw new GeoIp2Exception("Database " + CITY_DB_TYPE + " not loaded");
+                }
+                try {
+                    lookupExecutor.execute(() -> resolveBatchMisses(message, ips, results, misses, missKeys, generation, projection));
+                } catch (RejectedExecutionException ree) {
+                    generation.release();
+                    throw ree;
+                }
+            }
+        } catch (RejectedExecutionException ree) {
+            cache.getMetrics().rejected();
+            logger.debug("GeoIP lookup queue is full, rejecting IP batch: {}", body);
+            message.fail(-1, "GeoIP lookup queue is full, rejecting IP batch");
+        } catch (Exception ex) {
+            logger.error("Unexpected error while resolving IP batch: {}", body, ex);
+            message.fail(-1, "Unexpected error while resolving IP batch");
+        }
+    }
+
+    private void resolveBatchMisses(
+        Message<Object> message,
+        JsonArray ips,
+        Map<Object, JsonObject> results,
+        List<JsonObject> misses,
+        List<long[]> missKeys,
+        DatabaseGeneration generation,
+        GeoProjection projection
+    ) {
+        try {
+            resolveMisses(misses, missKeys, generation, projection);
+        } finally {
+            generation.release();
+        }
+        replyBatch(message, ips, results);
+    }
+
+    private void resolveMisses(List<JsonObject> misses, List<long[]> missKeys, DatabaseGeneration generation, GeoProjection projection) {
+        final GeoIpMetrics metrics = cache.getMetrics();
+        for (int i = 0; i < misses.size(); i++) {
+            final JsonObject result = misses.get(i);
+            final long high = missKeys.get(i)[0];
+            final long low = missKeys.get(i)[1];
+            try {
+                // Another notation of the same address may have been resolved earlier in this pass
+                final GeoData cached = cache.get(high, low);
+                GeoData geoData = cached;
+                if (cached == null || !cached.getProjection().covers(projection)) {
+                    // The cached entry is widened rather than replaced by a narrower one
+                    final GeoProjection resolvedProjection = cached == null ? projection : projection.union(cached.getProjection());
+                    final long start = System.nanoTime();
+                    final NetworkGeoData found;
+                    try {
+                        found = geoIPFinderService.findNetworkGeoData(CITY_DB_TYPE, high, low, generation, resolvedProjection);
+                    } finally {
+                        metrics.recordDecode(System.nanoTime() - start);
+                    }
+                    geoData = found.getGeoData();
+                    if (generation.isCurrent()) {
+                        cache.put(generation, high, low, found.getPrefixLength(), geoData);
                     }
-                );
+                    if (geoData.isNotFound()) {
+                        metrics.addressNotFound();
+                    }
+                }
+                if (geoData.isNotFound()) {
+                    result.put("error", GeoIpFinderService.notFoundMessage(high, low));
+                } else {
+                    result.put("geo", geoData.project(projection).asJson());
+                }
+            } catch (Exception ex) {
+                metrics.error();
+                logger.error("Unexpected error while resolving IP: {}", result.getValue("ip"), ex);
+                result.put("error", "Unexpected error while resolving IP {" + result.getValue("ip") + "}");
+            }
+        }
+    }
+
+    /**
+     * @return the cache statistics and the lookup and reload metrics of each served database, keyed by database type
+     */
+    private JsonObject stats() {
+        final JsonObject stats = new JsonObject().put(CITY_DB_TYPE, stats(cache));
+        for (String databaseType : databases.getDatabaseTypes()) {
+            stats.put(databaseType, stats(databases.getResolver(databaseType).getCache()));
+        }
+        return stats;
+    }
+
+    private static JsonObject stats(GeoIpCache cache) {
+        return cache.getMetrics().toJson().put("cache", cache.getStats());
+    }
+
+    private static void replyBatch(Message<Object> message, JsonArray ips, Map<Object, JsonObject> results) {
+        final JsonArray reply = new JsonArray(new ArrayList<>(ips.size()));
+        for (Object ip : ips) {
+            reply.add(results.get(ip));
+        }
+        message.reply(reply);
     }
 
     @Override
     protected void doStop() throws Exception {
         super.doStop();
-        if (consumer != null) {
-            consumer.unregister();
+        if (deploymentId != null) {
+            // Unregisters the lookup consumers of every instance
+            vertx.undeploy(deploymentId).toCompletionStage().toCompletableFuture().get();
+            deploymentId = null;
+        }
+        if (statsConsumer != null) {
+            statsConsumer.unregister();
+        }
+        if (readinessConsumer != null) {
+            readinessConsumer.unregister();
         }
+        vertx.eventBus().unregisterDefaultCodec(GeoData.class);
+        databaseReaderWatcherService.saveCacheSnapshot();
+        databases.saveCacheSnapshots();
         databaseReaderService.close();
         databaseReaderWatcherService.close();
+        databases.close();
+        lookupExecutor.close();
     }
 }
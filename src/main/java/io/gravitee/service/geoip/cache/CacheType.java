@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.gravitee.service.geoip.cache;
+
+/**
+ * @author GraviteeSource Team
+ */
+public enum CacheType {
+    /**
+     * Guava LRU cache keyed by address objects
+     */
+    GUAVA,
+    /**
+     * Open-addressing table keyed by primitive address bits with CLOCK eviction
+     */
+    PRIMITIVE,
+    /**
+     * Binary trie keyed by the networks addresses have been found in, with CLOCK eviction
+     */
+    NETWORK,
+    /**
+     * Window TinyLFU cache, only admitting addresses hit more often than the ones they would evict
+     */
+    TINYLFU;
+
+    public static CacheType fromValue(String value) {
+        if (value != null) {
+            for (CacheType type : values()) {
+                if (type.name().equalsIgnoreCase(value.trim())) {
+                    return type;
+                }
+            }
+        }
+        return GUAVA;
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.gravitee.service.geoip.cache;
+
+import io.gravitee.service.geoip.model.GeoData;
+import io.netty.util.concurrent.FastThreadLocal;
+import io.vertx.core.Context;
+import java.util.Arrays;
+
+/**
+ * Small direct-mapped cache confined to each event-loop thread, sitting in front of a shared {@link GeoIpCacheEngine}.
+ *
+ * <p>Hot addresses are served by a plain array probe, without the locks, access-order bookkeeping nor memory barriers
+ * of the shared engine. Each slot holds the last address which has been hit in it, colliding addresses simply replace
+ * each other. The table of a thread remembers the generation of the entries it has been filled from, a counter bumped
+ * each time the entries of the shared cache are replaced, and is cleared as soon as that generation is no longer the
+ * current one, so that entries of a replaced database are never served. Tables do not reference the shared engine, a
+ * replaced engine can be collected right away, even while some event loops stay idle.
+ *
+ * @author GraviteeSource Team
+ */
+final class EventLoopCache {
+
+    private final int size;
+    private final long expireAfterNanos;
+    private final FastThreadLocal<Table> tables = new FastThreadLocal<>() {
+        @Override
+        protected Table initialValue() {
+            return new Table(size, expireAfterNanos);
+        }
+    };
+
+    /**
+     * @param size the number of entries of the table of each event loop, rounded up to a power of two
+     */
+    EventLoopCache(int size) {
+        this(size, 0L);
+    }
+
+    /**
+     * @param expireAfterMillis how long an entry is served once copied in a table, or <code>0</code> to serve it until
+     * the entries of the shared cache are replaced
+     */
+    EventLoopCache(int size, long expireAfterMillis) {
+        this.size = Integer.highestOneBit(Math.max(1, size * 2 - 1));
+        this.expireAfterNanos = expireAfterMillis * 1_000_000L;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the table of the calling thread, or <code>null</code> if it is not an event-loop thread
+     */
+    Table table() {
+        return Context.isOnEventLoopThread() ? tables.get() : null;
+    }
+
+    static final class Table {
+
+        private final int mask;
+        private final long[] highs;
+        private final long[] lows;
+        private final GeoData[] values;
+        private final long[] copyTimes;
+        private final long expireAfterNanos;
+        private long generation;
+
+        private Table(int size, long expireAfterNanos) {
+            this.mask = size - 1;
+            this.highs = new long[size];
+            this.lows = new long[size];
+            this.values = new GeoData[size];
+            this.expireAfterNanos = expireAfterNanos;
+            this.copyTimes = expireAfterNanos > 0 ? new long[size] : null;
+        }
+
+        GeoData get(long current, long high, long low) {
+            if (generation != current) {
+                clear(current);
+                return null;
+            }
+            final int slot = slot(high, low);
+            final GeoData value = values[slot];
+            if (value == null || highs[slot] != high || lows[slot] != low) {
+                return null;
+            }
+            return copyTimes == null || System.nanoTime() - copyTimes[slot] < expireAfterNanos ? value : null;
+        }
+
+        void put(long current, long high, long low, GeoData value) {
+            if (generation != current) {
+                clear(current);
+            }
+            final int slot = slot(high, low);
+            highs[slot] = high;
+            lows[slot] = low;
+            values[slot] = value;
+            if (copyTimes != null) {
+                copyTimes[slot] = System.nanoTime();
+            }
+        }
+
+        private void clear(long current) {
+            Arrays.fill(values, null);
+            generation = current;
+        }
+
+        private int slot(long high, long low) {
+            final long hash = (high * 0x9E3779B97F4A7C15L) ^ (low * 0xC2B2AE3D27D4EB4FL);
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+    }
+}
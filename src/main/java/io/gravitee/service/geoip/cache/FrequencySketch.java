@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.gravitee.service.geoip.cache;
+
+/**
+ * Count-Min sketch estimating how often each address has recently been seen, with four 4-bit counters per address.
+ *
+ * <p>Once as many additions as ten times the capacity have been recorded, every counter is halved so that the
+ * estimates follow the recent popularity of the addresses rather than their whole history. Not thread-safe.
+ *
+ * @author GraviteeSource Team
+ */
+final class FrequencySketch {
+
+    private static final long[] SEEDS = { 0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int counterMask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int capacity) {
+        final int length = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.table = new long[length];
+        // 16 counters per long
+        this.counterMask = length * 16 - 1;
+        this.sampleSize = 10 * Math.max(1, capacity);
+    }
+
+    int frequency(long high, long low) {
+        final long hash = hash(high, low);
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            final int counter = counter(hash, i);
+            frequency = Math.min(frequency, (int) ((table[counter >>> 4] >>> ((counter & 15) << 2)) & MAX_COUNT));
+        }
+        return frequency;
+    }
+
+    void increment(long high, long low) {
+        final long hash = hash(high, low);
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            final int counter = counter(hash, i);
+            final int shift = (counter & 15) << 2;
+            if (((table[counter >>> 4] >>> shift) & MAX_COUNT) < MAX_COUNT) {
+                table[counter >>> 4] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions >>>= 1;
+    }
+
+    private int counter(long hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h ^= h >>> 32;
+        return (int) h & counterMask;
+    }
+
+    private static long hash(long high, long low) {
+        long hash = high * 0x9E3779B97F4A7C15L + low;
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        return hash ^ (hash >>> 33);
+    }
+}
@@ -16,12 +16,20 @@
 
 package io.gravitee.service.geoip.cache;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import io.gravitee.service.geoip.metrics.GeoIpMetrics;
+import io.gravitee.service.geoip.model.GeoData;
+import io.gravitee.service.geoip.model.GeoProjection;
+import io.gravitee.service.geoip.utils.IpAddressKeys;
+import io.vertx.core.Future;
 import io.vertx.core.json.JsonObject;
 import java.net.InetAddress;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author Rémi SULTAN (remi.sultan at graviteesource.com)
@@ -29,21 +37,318 @@ import java.util.concurrent.TimeUnit;
  */
 public class GeoIpCache {
 
-    private final Cache<InetAddress, JsonObject> cache;
+    private static final Logger LOG = LoggerFactory.getLogger(GeoIpCache.class);
+
+    /**
+     * Estimated heap retained by a cache entry besides its data: its address key and the map entry or node holding it.
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    /**
+     * How long entries are kept once written unless configured otherwise.
+     */
+    public static final long DEFAULT_EXPIRE_AFTER_MILLIS = TimeUnit.HOURS.toMillis(10);
+
+    private final int capacity;
+    private final CacheType type;
+    private final long expireAfterMillis;
+    private final long maxBytes;
+    private final EventLoopCache eventLoopCache;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final GeoIpMetrics metrics = new GeoIpMetrics();
+    private final Map<AddressKey, InFlightLookup> inFlight = new ConcurrentHashMap<>();
+    private volatile Entries entries;
 
     public GeoIpCache(int capacity) {
-        cache = CacheBuilder.newBuilder().expireAfterWrite(10, TimeUnit.HOURS).maximumSize(capacity).build();
+        this(capacity, CacheType.GUAVA, 0, DEFAULT_EXPIRE_AFTER_MILLIS, 0L);
+    }
+
+    /**
+     * @param eventLoopCacheSize the number of entries cached by each event loop in front of the shared cache, or
+     * <code>0</code> to only rely on the shared cache
+     * @param expireAfterMillis how long entries are kept once written, {@link #DEFAULT_EXPIRE_AFTER_MILLIS} by default,
+     * or <code>0</code> to keep them as long as the database they have been resolved from, which is the only time their
+     * data can change. Only the
+     * {@link CacheType#GUAVA} and {@link CacheType#TINYLFU} caches (and the event-loop caches in front of them) expire
+     * entries.
+     * @param maxBytes the maximum sum of the weights of the entries (see {@link #weigh(GeoData)}) bounding the
+     * {@link CacheType#GUAVA} and {@link CacheType#TINYLFU} caches instead of the capacity, or <code>0</code> to bound
+     * them by the capacity. The other types allocate their tables upfront from the capacity, which keeps bounding them.
+     */
+    public GeoIpCache(int capacity, CacheType type, int eventLoopCacheSize, long expireAfterMillis, long maxBytes) {
+        this.capacity = capacity;
+        this.type = type;
+        this.expireAfterMillis = Math.max(0L, expireAfterMillis);
+        this.maxBytes = Math.max(0L, maxBytes);
+        if (this.maxBytes > 0 && (type == CacheType.PRIMITIVE || type == CacheType.NETWORK)) {
+            LOG.warn("The {} cache is bounded by its capacity of {} entries, its maximum size in bytes is ignored", type, capacity);
+        }
+        this.eventLoopCache = eventLoopCacheSize > 0 ? new EventLoopCache(eventLoopCacheSize, this.expireAfterMillis) : null;
+        this.entries = new Entries(newEngine(), null, 0L);
+    }
+
+    private GeoIpCacheEngine newEngine() {
+        switch (type) {
+            case PRIMITIVE:
+                return new PrimitiveCacheEngine(capacity, evictions);
+            case NETWORK:
+                return new NetworkCacheEngine(capacity, evictions);
+            case TINYLFU:
+                return new TinyLfuCacheEngine(capacity, maxBytes, expireAfterMillis, evictions);
+            default:
+                return new GuavaCacheEngine(capacity, maxBytes, expireAfterMillis, evictions);
+        }
+    }
+
+    public GeoData get(InetAddress ip) {
+        return entries.engine.get(IpAddressKeys.high(ip), IpAddressKeys.low(ip));
+    }
+
+    public GeoData get(long high, long low) {
+        return entries.engine.get(high, low);
     }
 
-    public JsonObject get(InetAddress ip) {
-        return cache.getIfPresent(ip);
+    /**
+     * Entries only hold the properties they have been resolved with, an entry is returned (restricted to the given
+     * properties) only if it holds them all. This is the lookup counted in the hit ratio.
+     *
+     * <p>On event-loop threads, the entries hit are also kept in a cache confined to the thread (when enabled), which
+     * is probed first.
+     *
+     * @return the cached data of the address, or <code>null</code> if it has not been cached with the given properties
+     */
+    public GeoData get(long high, long low, GeoProjection projection) {
+        final Entries current = entries;
+        final EventLoopCache.Table table = eventLoopCache == null ? null : eventLoopCache.table();
+        if (table != null) {
+            final GeoData local = table.get(current.generation, high, low);
+            if (local != null && local.getProjection().covers(projection)) {
+                hits.increment();
+                return local.project(projection);
+            }
+        }
+        final GeoData cached = current.engine.get(high, low);
+        if (cached == null || !cached.getProjection().covers(projection)) {
+            misses.increment();
+            return null;
+        }
+        if (table != null) {
+            table.put(current.generation, high, low, cached);
+        }
+        hits.increment();
+        return cached.project(projection);
     }
 
     public void put(InetAddress ip, JsonObject geoIp) {
-        cache.put(ip, geoIp);
+        put(ip, new GeoData(geoIp));
+    }
+
+    public void put(InetAddress ip, GeoData geoIp) {
+        entries.engine.put(IpAddressKeys.high(ip), IpAddressKeys.low(ip), geoIp);
+    }
+
+    public void put(long high, long low, GeoData geoIp) {
+        entries.engine.put(high, low, geoIp);
+    }
+
+    /**
+     * @param prefixLength the length (in bits of the IPv6 form of the address) of the prefix of the network the data
+     * has been found in, which the {@link CacheType#NETWORK} cache uses to answer for the whole network
+     */
+    public void put(long high, long low, int prefixLength, GeoData geoIp) {
+        entries.engine.put(high, low, prefixLength, geoIp);
+    }
+
+    /**
+     * Caches data resolved from the given database, unless the cached entries have been bound (see
+     * {@link #bind(Object)}) to another database in the meantime.
+     *
+     * @param database the database generation the data has been resolved from
+     * @return whether the data has been cached
+     */
+    public boolean put(Object database, long high, long low, int prefixLength, GeoData geoIp) {
+        final Entries current = entries;
+        if (current.database != null && current.database != database) {
+            return false;
+        }
+        current.engine.put(high, low, prefixLength, geoIp);
+        return true;
+    }
+
+    /**
+     * Binds the cached entries to the given database, typically the first one loaded, so that data resolved from any
+     * other database is no longer cached (see {@link #put(Object, long, long, int, GeoData)}).
+     */
+    public synchronized void bind(Object database) {
+        entries = new Entries(entries.engine, database, entries.generation);
+    }
+
+    /**
+     * Registers the given database lookup of an address which missed the cache, so that concurrent misses of the same
+     * address, from any thread, wait for it instead of decoding the same record again.
+     *
+     * @param projection the properties the given lookup resolves
+     * @return the lookup of the address already in flight, if it resolves all the given properties, or <code>null</code>
+     * if the caller has to run its own lookup (the given one being registered only if no other was in flight)
+     */
+    public Future<GeoData> joinInFlight(long high, long low, GeoProjection projection, Future<GeoData> lookup) {
+        final InFlightLookup running = inFlight.putIfAbsent(new AddressKey(high, low), new InFlightLookup(projection, lookup));
+        return running != null && running.projection.covers(projection) ? running.lookup : null;
+    }
+
+    /**
+     * Unregisters a lookup registered with {@link #joinInFlight(long, long, GeoProjection, Future)}, once its result
+     * has been cached.
+     */
+    public void leaveInFlight(long high, long low, Future<GeoData> lookup) {
+        inFlight.computeIfPresent(new AddressKey(high, low), (key, running) -> running.lookup == lookup ? null : running);
+    }
+
+    public void forEach(GeoIpCacheEngine.EntryConsumer consumer) {
+        entries.engine.forEach(consumer);
+    }
+
+    /**
+     * Atomically replaces every cached entry by the <code>count</code> first given ones, so that entries resolved from
+     * a previous database are never mixed with the ones of a newly loaded database. The event-loop caches are dropped
+     * along with the replaced entries.
+     */
+    public void replaceAll(long[] highs, long[] lows, GeoData[] values, int count) {
+        final GeoIpCacheEngine replacement = newEngine();
+        for (int i = 0; i < count; i++) {
+            replacement.put(highs[i], lows[i], values[i]);
+        }
+        replace(replacement, null);
+    }
+
+    /**
+     * Same as {@link #replaceAll(long[], long[], GeoData[], int)}, with the prefix lengths of the networks of the
+     * entries, the new entries being bound to the database they have been resolved from. This is to be called before
+     * the database is made visible to lookups: from then on, data resolved from the previous database is no longer
+     * cached, so the cache only holds entries of the new database by the time lookups use it.
+     *
+     * @param database the database generation the given entries have been resolved from
+     */
+    public void replaceAll(Object database, long[] highs, long[] lows, int[] prefixLengths, GeoData[] values, int count) {
+        final GeoIpCacheEngine replacement = newEngine();
+        for (int i = 0; i < count; i++) {
+            replacement.put(highs[i], lows[i], prefixLengths[i], values[i]);
+        }
+        replace(replacement, database);
     }
 
-    public Map<InetAddress, JsonObject> getCache() {
-        return cache.asMap();
+    private synchronized void replace(GeoIpCacheEngine replacement, Object database) {
+        entries = new Entries(replacement, database, entries.generation + 1);
+    }
+
+    /**
+     * @return the metrics of the database this cache is sitting in front of
+     */
+    public GeoIpMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getEventLoopCacheSize() {
+        return eventLoopCache == null ? 0 : eventLoopCache.getSize();
+    }
+
+    public long size() {
+        return entries.engine.size();
+    }
+
+    /**
+     * @return the estimated heap retained by the cached entries, in bytes
+     */
+    public long weight() {
+        return entries.engine.weight();
+    }
+
+    /**
+     * @return the maximum weight of the cache in bytes, or <code>0</code> if it is bounded by its capacity
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Estimates the heap retained by an entry: the estimated size of its data plus a fixed overhead for its key. Data
+     * shared by several entries (addresses of the same network) is counted for each of them, so the weight of a cache
+     * is an upper bound of the heap it retains.
+     */
+    public static int weigh(GeoData value) {
+        return value == null || value.isNotFound() ? ENTRY_OVERHEAD : ENTRY_OVERHEAD + value.getEstimatedSize();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of entries evicted to make room for new ones, entries dropped by a reload excluded
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public JsonObject getStats() {
+        final long hitCount = hits.sum();
+        final long missCount = misses.sum();
+        return new JsonObject()
+            .put("capacity", capacity)
+            .put("size", size())
+            .put("weight", weight())
+            .put("max_bytes", maxBytes)
+            .put("hits", hitCount)
+            .put("misses", missCount)
+            .put("hit_ratio", hitCount + missCount == 0 ? 0d : (double) hitCount / (hitCount + missCount))
+            .put("evictions", evictions.sum());
+    }
+
+    /**
+     * @return a point-in-time copy of the cached entries
+     */
+    public Map<InetAddress, GeoData> getCache() {
+        final Map<InetAddress, GeoData> copy = new HashMap<>();
+        entries.engine.forEach((high, low, prefixLength, value) -> copy.put(IpAddressKeys.toInetAddress(high, low), value));
+        return copy;
+    }
+
+    /**
+     * The cached entries along with the database they are bound to, published as a whole so that a put never checks
+     * the database of some entries and fills others. The generation, bumped each time the entries are replaced, tags
+     * the event-loop caches filled from them.
+     */
+    private static final class Entries {
+
+        private final GeoIpCacheEngine engine;
+        private final Object database;
+        private final long generation;
+
+        private Entries(GeoIpCacheEngine engine, Object database, long generation) {
+            this.engine = engine;
+            this.database = database;
+            this.generation = generation;
+        }
+    }
+
+    private static final class InFlightLookup {
+
+        private final GeoProjection projection;
+        private final Future<GeoData> lookup;
+
+        private InFlightLookup(GeoProjection projection, Future<GeoData> lookup) {
+            this.projection = projection;
+            this.lookup = lookup;
+        }
     }
 }
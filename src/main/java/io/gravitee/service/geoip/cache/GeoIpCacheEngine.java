@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.gravitee.service.geoip.cache;
+
+import io.gravitee.service.geoip.model.GeoData;
+
+/**
+ * Storage backing a {@link GeoIpCache}, keyed by the two longs of an IP address (see
+ * {@link io.gravitee.service.geoip.utils.IpAddressKeys}).
+ *
+ * @author GraviteeSource Team
+ */
+public interface GeoIpCacheEngine {
+    GeoData get(long high, long low);
+
+    void put(long high, long low, GeoData value);
+
+    /**
+     * Caches the value of an address along with the length of the prefix of the network it has been found in. Engines
+     * caching by address ignore the network.
+     */
+    default void put(long high, long low, int prefixLength, GeoData value) {
+        put(high, low, value);
+    }
+
+    long size();
+
+    /**
+     * @return the sum of the weights of the entries, see {@link GeoIpCache#weigh(GeoData)}
+     */
+    long weight();
+
+    /**
+     * Iterates over a point-in-time view of the entries, it is safe to update the cache from the consumer. The hottest
+     * entries come first, so that a caller only keeping the first ones drops the coldest: the most recently used ones
+     * for the LRU engine, the ones referenced since their last eviction pass for the others.
+     * Engines caching by address report a prefix covering the address only.
+     */
+    void forEach(EntryConsumer consumer);
+
+    void invalidateAll();
+
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(long high, long low, int prefixLength, GeoData value);
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.gravitee.service.geoip.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import io.gravitee.service.geoip.model.GeoData;
+import io.gravitee.service.geoip.model.NetworkGeoData;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Least recently used cache. Guava does not expose its access order, each entry is therefore stamped on access so that
+ * the entries can be iterated over the most recently used first.
+ *
+ * @author Rémi SULTAN (remi.sultan at graviteesource.com)
+ * @author GraviteeSource Team
+ */
+class GuavaCacheEngine implements GeoIpCacheEngine {
+
+    private final Cache<AddressKey, Entry> cache;
+
+    private final LongAdder weight = new LongAdder();
+
+    /**
+     * @param maxBytes the maximum sum of the weights of the entries, replacing the capacity when positive
+     * @param expireAfterMillis how long entries are kept once written, or <code>0</code> to keep them as long as the
+     * database they have been resolved from
+     */
+    GuavaCacheEngine(int capacity, long maxBytes, long expireAfterMillis, LongAdder evictions) {
+        final CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+        if (maxBytes > 0) {
+            builder.maximumWeight(maxBytes).<AddressKey, Entry>weigher((key, entry) -> GeoIpCache.weigh(entry.value));
+        } else {
+            builder.maximumSize(capacity);
+        }
+        if (expireAfterMillis > 0) {
+            builder.expireAfterWrite(expireAfterMillis, TimeUnit.MILLISECONDS);
+        }
+        cache =
+            builder
+                .<AddressKey, Entry>removalListener(notification -> {
+                    weight.add(-GeoIpCache.weigh(notification.getValue().value));
+                    if (notification.getCause() == RemovalCause.SIZE) {
+                        evictions.increment();
+                    }
+                })
+                .build();
+    }
+
+    @Override
+    public GeoData get(long high, long low) {
+        final Entry entry = cache.getIfPresent(new AddressKey(high, low));
+        if (entry == null) {
+            return null;
+        }
+        entry.accessed = System.nanoTime();
+        return entry.value;
+    }
+
+    @Override
+    public void put(long high, long low, GeoData value) {
+        weight.add(GeoIpCache.weigh(value));
+        cache.put(new AddressKey(high, low), new Entry(value));
+    }
+
+    @Override
+    public long size() {
+        return cache.size();
+    }
+
+    @Override
+    public long weight() {
+        return weight.sum();
+    }
+
+    /**
+     * Iterates over the entries, the most recently used first.
+     */
+    @Override
+    public void forEach(EntryConsumer consumer) {
+        final List<Map.Entry<AddressKey, Entry>> entries = new ArrayList<>(cache.asMap().entrySet());
+        final long[] accessed = new long[entries.size()];
+        final Integer[] order = new Integer[entries.size()];
+        for (int i = 0; i < order.length; i++) {
+            // Stamps are read once, as they keep changing while sorting
+            accessed[i] = entries.get(i).getValue().accessed;
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> accessed[i]).reversed());
+        for (int i : order) {
+            final Map.Entry<AddressKey, Entry> entry = entries.get(i);
+            consumer.accept(entry.getKey().high, entry.getKey().low, NetworkGeoData.ADDRESS_PREFIX_LENGTH, entry.getValue().value);
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    private static final class Entry {
+
+        private final GeoData value;
+        // Written without synchronization, a stale stamp only makes the order approximate
+        private long accessed;
+
+        private Entry(GeoData value) {
+            this.value = value;
+            this.accessed = System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.cache;
+
+import io.gravitee.service.geoip.model.GeoData;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Caches results by the network they have been found in rather than by address, so that a single entry answers for
+ * every address of its network (a carrier-grade NAT or a mobile operator block hitting the cache with thousands of
+ * addresses takes one entry instead of thousands).
+ *
+ * <p>Networks are stored in a path-compressed binary trie over the 128 bits of the keys, lookups returning the entry
+ * of the longest network containing the address. Networks of a database never overlap, but addresses cached without
+ * their network (stored as /128 networks) may sit inside a cached network, the longest match is then their own entry.
+ *
+ * <p>As in {@link PrimitiveCacheEngine}, lookups run as optimistic reads of a {@link StampedLock} and entries are
+ * evicted with the CLOCK algorithm once the capacity is reached.
+ *
+ * @author GraviteeSource Team
+ */
+class NetworkCacheEngine implements GeoIpCacheEngine {
+
+    private static final int ADDRESS_BITS = 128;
+
+    private final int capacity;
+    private final Node[] entries;
+    private final StampedLock lock = new StampedLock();
+    private final LongAdder evictions;
+
+    private Node root;
+    private int size;
+    private long weight;
+    private int hand;
+
+    NetworkCacheEngine(int capacity, LongAdder evictions) {
+        this.capacity = capacity;
+        this.entries = new Node[capacity];
+        this.evictions = evictions;
+    }
+
+    @Override
+    public GeoData get(long high, long low) {
+        long stamp = lock.tryOptimisticRead();
+        GeoData value = find(high, low);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                value = find(high, low);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public void put(long high, long low, GeoData value) {
+        put(high, low, ADDRESS_BITS, value);
+    }
+
+    @Override
+    public void put(long high, long low, int prefixLength, GeoData value) {
+        if (value == null || prefixLength < 0 || prefixLength > ADDRESS_BITS) {
+            return;
+        }
+        final long networkHigh = high & highMask(prefixLength);
+        final long networkLow = low & lowMask(prefixLength);
+        final long stamp = lock.writeLock();
+        try {
+            final Node existing = findExact(networkHigh, networkLow, prefixLength);
+            if (existing != null && existing.value != null) {
+                weight += GeoIpCache.weigh(value) - GeoIpCache.weigh(existing.value);
+                existing.value = value;
+                existing.referenced = true;
+                return;
+            }
+            final int slot = size < capacity ? size++ : evict();
+            final Node node = insert(networkHigh, networkLow, prefixLength);
+            node.value = value;
+            node.referenced = false;
+            node.slot = slot;
+            entries[slot] = node;
+            weight += GeoIpCache.weigh(value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public long size() {
+        final long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public long weight() {
+        final long stamp = lock.readLock();
+        try {
+            return weight;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Iterates over the cached networks, keyed by their network address, the referenced ones first.
+     */
+    @Override
+    public void forEach(EntryConsumer consumer) {
+        final long[] snapshotHighs;
+        final long[] snapshotLows;
+        final int[] snapshotPrefixes;
+        final GeoData[] snapshotValues;
+        final int count;
+        final long stamp = lock.readLock();
+        try {
+            count = size;
+            snapshotHighs = new long[count];
+            snapshotLows = new long[count];
+            snapshotPrefixes = new int[count];
+            snapshotValues = new GeoData[count];
+            // Referenced entries are laid out from the start and the others from the end
+            int hot = 0;
+            int cold = count;
+            for (int i = 0; i < count; i++) {
+                final Node node = entries[i];
+                final int index = node.referenced ? hot++ : --cold;
+                snapshotHighs[index] = node.high;
+                snapshotLows[index] = node.low;
+                snapshotPrefixes[index] = node.prefix;
+                snapshotValues[index] = node.value;
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        for (int i = 0; i < count; i++) {
+            consumer.accept(snapshotHighs[i], snapshotLows[i], snapshotPrefixes[i], snapshotValues[i]);
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        final long stamp = lock.writeLock();
+        try {
+            root = null;
+            for (int i = 0; i < size; i++) {
+                entries[i] = null;
+            }
+            size = 0;
+            weight = 0;
+            hand = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * May run without any lock: every step goes down to a longer prefix, so a walk racing with a writer terminates
+     * and only its result can be wrong, which the caller discards when the stamp does not validate.
+     */
+    private GeoData find(long high, long low) {
+        Node node = root;
+        Node match = null;
+        while (node != null) {
+            final int prefix = node.prefix;
+            if ((high & highMask(prefix)) != node.high || (low & lowMask(prefix)) != node.low) {
+                break;
+            }
+            if (node.value != null) {
+                match = node;
+            }
+            if (prefix == ADDRESS_BITS) {
+                break;
+            }
+            final Node child = bit(high, low, prefix) == 0 ? node.left : node.right;
+            if (child != null && child.prefix <= prefix) {
+                break;
+            }
+            node = child;
+        }
+        if (match == null) {
+            return null;
+        }
+        final GeoData value = match.value;
+        match.referenced = true;
+        return value;
+    }
+
+    private Node findExact(long high, long low, int prefixLength) {
+        Node node = root;
+        while (node != null && node.prefix <= prefixLength) {
+            if ((high & highMask(node.prefix)) != node.high || (low & lowMask(node.prefix)) != node.low) {
+                return null;
+            }
+            if (node.prefix == prefixLength) {
+                return node;
+            }
+            node = bit(high, low, node.prefix) == 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    /**
+     * @return the node of the given network, created (along with the node splitting the path to it, if any) when
+     * missing
+     */
+    private Node insert(long high, long low, int prefixLength) {
+        if (root == null) {
+            root = new Node(high, low, prefixLength);
+            return root;
+        }
+        Node parent = null;
+        Node node = root;
+        while (true) {
+            final int common = Math.min(Math.min(commonPrefixLength(high, low, node.high, node.low), node.prefix), prefixLength);
+            if (common < node.prefix) {
+                final Node inserted = new Node(high, low, prefixLength);
+                if (common == prefixLength) {
+                    // The new network contains the current node
+                    replace(parent, node, inserted);
+                    attach(inserted, node);
+                } else {
+                    final Node split = new Node(high & highMask(common), low & lowMask(common), common);
+                    replace(parent, node, split);
+                    attach(split, node);
+                    attach(split, inserted);
+                }
+                return inserted;
+            }
+            if (node.prefix == prefixLength) {
+                return node;
+            }
+            final Node child = bit(high, low, node.prefix) == 0 ? node.left : node.right;
+            if (child == null) {
+                final Node inserted = new Node(high, low, prefixLength);
+                attach(node, inserted);
+                return inserted;
+            }
+            parent = node;
+            node = child;
+        }
+    }
+
+    private int evict() {
+        // Terminates within two turns: the first one clears every reference bit
+        while (true) {
+            final Node node = entries[hand];
+            final int slot = hand;
+            hand = (hand + 1) % capacity;
+            if (node.referenced) {
+                node.referenced = false;
+            } else {
+                remove(node);
+                evictions.increment();
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Drops the value of the node, then the nodes left without value nor reason to split the path.
+     */
+    private void remove(Node node) {
+        weight -= GeoIpCache.weigh(node.value);
+        node.value = null;
+        entries[node.slot] = null;
+        Node current = node;
+        while (current != null && current.value == null) {
+            final Node parent = current.parent;
+            if (current.left != null && current.right != null) {
+                return;
+            }
+            final Node child = current.left != null ? current.left : current.right;
+            replace(parent, current, child);
+            if (child != null) {
+                return;
+            }
+            current = parent;
+        }
+    }
+
+    private void attach(Node parent, Node child) {
+        if (bit(child.high, child.low, parent.prefix) == 0) {
+            parent.left = child;
+        } else {
+            parent.right = child;
+        }
+        child.parent = parent;
+    }
+
+    private void replace(Node parent, Node node, Node replacement) {
+        if (replacement != null) {
+            replacement.parent = parent;
+        }
+        if (parent == null) {
+            root = replacement;
+        } else if (parent.left == node) {
+            parent.left = replacement;
+        } else {
+            parent.right = replacement;
+        }
+    }
+
+    private static int bit(long high, long low, int index) {
+        return (int) (index < 64 ? (high >>> (63 - index)) & 1 : (low >>> (127 - index)) & 1);
+    }
+
+    private static int commonPrefixLength(long high1, long low1, long high2, long low2) {
+        final long high = high1 ^ high2;
+        return high != 0 ? Long.numberOfLeadingZeros(high) : 64 + Long.numberOfLeadingZeros(low1 ^ low2);
+    }
+
+    private static long highMask(int prefixLength) {
+        if (prefixLength >= 64) {
+            return -1L;
+        }
+        return prefixLength == 0 ? 0L : -1L << (64 - prefixLength);
+    }
+
+    private static long lowMask(int prefixLength) {
+        if (prefixLength <= 64) {
+            return 0L;
+        }
+        return prefixLength == ADDRESS_BITS ? -1L : -1L << (128 - prefixLength);
+    }
+
+    private static final class Node {
+
+        private final long high;
+        private final long low;
+        private final int prefix;
+        private Node parent;
+        private Node left;
+        private Node right;
+        private GeoData value;
+        private boolean referenced;
+        private int slot;
+
+        private Node(long high, long low, int prefix) {
+            this.high = high;
+            this.low = low;
+            this.prefix = prefix;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.gravitee.service.geoip.cache;
+
+import io.gravitee.service.geoip.model.GeoData;
+import io.gravitee.service.geoip.model.NetworkGeoData;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Open-addressing (linear probing) table keyed by the primitive bits of an address, evicting with the CLOCK
+ * algorithm once the capacity is reached.
+ *
+ * <p>Lookups don't allocate: they run as optimistic reads of a {@link StampedLock} and only fall back to a read lock
+ * when a writer got in the way. Each hit flags its slot as referenced, and the clock hand evicts the first entry it
+ * finds which has not been referenced since its last pass, so one-hit entries are evicted before hot ones.
+ *
+ * @author GraviteeSource Team
+ */
+class PrimitiveCacheEngine implements GeoIpCacheEngine {
+
+    private final int capacity;
+    private final int mask;
+    private final long[] highs;
+    private final long[] lows;
+    private final GeoData[] values;
+    private final byte[] referenced;
+    private final StampedLock lock = new StampedLock();
+    private final LongAdder evictions;
+
+    private int size;
+    private long weight;
+    private int hand;
+
+    PrimitiveCacheEngine(int capacity, LongAdder evictions) {
+        this.capacity = capacity;
+        this.evictions = evictions;
+        // Keep the load factor under 0.5 so probe sequences stay short
+        final int length = Integer.highestOneBit(Math.max(8, capacity * 2 - 1)) << 1;
+        this.mask = length - 1;
+        this.highs = new long[length];
+        this.lows = new long[length];
+        this.values = new GeoData[length];
+        this.referenced = new byte[length];
+    }
+
+    @Override
+    public GeoData get(long high, long low) {
+        long stamp = lock.tryOptimisticRead();
+        GeoData value = find(high, low);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                value = find(high, low);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public void put(long high, long low, GeoData value) {
+        if (value == null) {
+            return;
+        }
+        final long stamp = lock.writeLock();
+        try {
+            int index = indexOf(high, low);
+            if (index >= 0) {
+                weight += GeoIpCache.weigh(value) - GeoIpCache.weigh(values[index]);
+                values[index] = value;
+                referenced[index] = 1;
+                return;
+            }
+            if (size >= capacity) {
+                evict();
+            }
+            index = slot(high, low);
+            while (values[index] != null) {
+                index = (index + 1) & mask;
+            }
+            highs[index] = high;
+            lows[index] = low;
+            values[index] = value;
+            referenced[index] = 0;
+            size++;
+            weight += GeoIpCache.weigh(value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public long size() {
+        final long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public long weight() {
+        final long stamp = lock.readLock();
+        try {
+            return weight;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void forEach(EntryConsumer consumer) {
+        final long[] snapshotHighs;
+        final long[] snapshotLows;
+        final GeoData[] snapshotValues;
+        int count = 0;
+        final long stamp = lock.readLock();
+        try {
+            snapshotHighs = new long[size];
+            snapshotLows = new long[size];
+            snapshotValues = new GeoData[size];
+            // Referenced entries are laid out from the start and the others from the end
+            int cold = size;
+            for (int i = 0; i < values.length && count < cold; i++) {
+                if (values[i] != null) {
+                    final int index = referenced[i] != 0 ? count++ : --cold;
+                    snapshotHighs[index] = highs[i];
+                    snapshotLows[index] = lows[i];
+                    snapshotValues[index] = values[i];
+                }
+            }
+            count = size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        for (int i = 0; i < count; i++) {
+            consumer.accept(snapshotHighs[i], snapshotLows[i], NetworkGeoData.ADDRESS_PREFIX_LENGTH, snapshotValues[i]);
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        final long stamp = lock.writeLock();
+        try {
+            Arrays.fill(values, null);
+            Arrays.fill(referenced, (byte) 0);
+            size = 0;
+            weight = 0;
+            hand = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * May run without any lock: the probe is bounded and masked so a concurrent writer can only make it return a wrong
+     * result, which the caller discards when the stamp does not validate.
+     */
+    private GeoData find(long high, long low) {
+        int index = slot(high, low);
+        for (int probe = 0; probe <= mask; probe++) {
+            final GeoData value = values[index];
+            if (value == null) {
+                return null;
+            }
+            if (highs[index] == high && lows[index] == low) {
+                referenced[index] = 1;
+                return value;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    private int indexOf(long high, long low) {
+        int index = slot(high, low);
+        while (values[index] != null) {
+            if (highs[index] == high && lows[index] == low) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void evict() {
+        // Terminates within two turns: the first one clears every reference bit
+        while (true) {
+            final int index = hand;
+            hand = (hand + 1) & mask;
+            if (values[index] != null) {
+                if (referenced[index] == 0) {
+                    delete(index);
+                    evictions.increment();
+                    return;
+                }
+                referenced[index] = 0;
+            }
+        }
+    }
+
+    /**
+     * Backward-shift deletion: entries following the removed one in its probe sequence are moved up so no tombstone
+     * is needed.
+     */
+    private void delete(int index) {
+        weight -= GeoIpCache.weigh(values[index]);
+        int gap = index;
+        int next = index;
+        while (true) {
+            next = (next + 1) & mask;
+            if (values[next] == null) {
+                break;
+            }
+            final int home = slot(highs[next], lows[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                highs[gap] = highs[next];
+                lows[gap] = lows[next];
+                values[gap] = values[next];
+                referenced[gap] = referenced[next];
+                gap = next;
+            }
+        }
+        values[gap] = null;
+        referenced[gap] = 0;
+        size--;
+    }
+
+    private int slot(long high, long low) {
+        long hash = high * 0x9E3779B97F4A7C15L + low;
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return (int) hash & mask;
+    }
+}
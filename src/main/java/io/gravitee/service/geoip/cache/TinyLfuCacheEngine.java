@@ -0,0 +1,362 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.gravitee.service.geoip.cache;
+
+import io.gravitee.service.geoip.model.GeoData;
+import io.gravitee.service.geoip.model.NetworkGeoData;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Window TinyLFU cache: new entries go through a small LRU window, then have to be estimated more popular than the
+ * least recently used entry of the main space by a {@link FrequencySketch} to be admitted in it. The main space is a
+ * segmented LRU, entries hit while in its probation segment being promoted to its protected one.
+ *
+ * <p>A sweep of one-hit addresses (a crawler, a scanner) only churns the window and the probation segment, instead of
+ * flushing the frequently hit addresses out of the cache as a plain LRU does.
+ *
+ * <p>Lookups don't lock: entries are read from a concurrent map, and their access is recorded only if the policy lock
+ * is free, dropping it otherwise rather than making lookups wait for each other.
+ *
+ * @author GraviteeSource Team
+ */
+class TinyLfuCacheEngine implements GeoIpCacheEngine {
+
+    private static final int NONE = 0;
+    private static final int WINDOW = 1;
+    private static final int PROBATION = 2;
+    private static final int PROTECTED = 3;
+
+    private final long maximum;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    private final boolean weighted;
+    private final long expireAfterNanos;
+    private final LongSupplier ticker;
+    private final LongAdder evictions;
+    private final Map<AddressKey, Node> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final AccessQueue window = new AccessQueue();
+    private final AccessQueue probation = new AccessQueue();
+    private final AccessQueue protectedQueue = new AccessQueue();
+    // Policy weight of the entries, their number unless weighted, and their weight in bytes
+    private volatile long weight;
+    private volatile long bytes;
+
+    /**
+     * @param maxBytes the maximum sum of the weights of the entries, replacing the capacity when positive
+     * @param expireAfterMillis how long entries are kept once written, or <code>0</code> to keep them as long as the
+     * database they have been resolved from
+     */
+    TinyLfuCacheEngine(int capacity, long maxBytes, long expireAfterMillis, LongAdder evictions) {
+        this(capacity, maxBytes, expireAfterMillis, evictions, System::nanoTime);
+    }
+
+    TinyLfuCacheEngine(int capacity, long maxBytes, long expireAfterMillis, LongAdder evictions, LongSupplier ticker) {
+        // Without a maximum weight, every entry weighs 1 against the capacity
+        this.weighted = maxBytes > 0;
+        this.maximum = weighted ? maxBytes : Math.max(1, capacity);
+        this.windowMaximum = Math.max(1, maximum / 100);
+        this.protectedMaximum = (long) ((maximum - windowMaximum) * 0.8);
+        this.expireAfterNanos = expireAfterMillis > 0 ? expireAfterMillis * 1_000_000L : 0L;
+        this.ticker = ticker;
+        this.evictions = evictions;
+        this.sketch = new FrequencySketch(Math.max(1, capacity));
+    }
+
+    @Override
+    public GeoData get(long high, long low) {
+        final Node node = entries.get(new AddressKey(high, low));
+        final boolean expired = node != null && isExpired(node, expireAfterNanos > 0 ? ticker.getAsLong() : 0L);
+        if (lock.tryLock()) {
+            try {
+                sketch.increment(high, low);
+                if (expired) {
+                    remove(node);
+                } else if (node != null) {
+                    onHit(node);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return node == null || expired ? null : node.value;
+    }
+
+    @Override
+    public void put(long high, long low, GeoData value) {
+        if (value == null) {
+            return;
+        }
+        final AddressKey key = new AddressKey(high, low);
+        final long now = expireAfterNanos > 0 ? ticker.getAsLong() : 0L;
+        lock.lock();
+        try {
+            Node node = entries.get(key);
+            if (node != null) {
+                final int nodeWeight = weigh(value);
+                weight += nodeWeight - node.weight;
+                queueOf(node).weight += nodeWeight - node.weight;
+                node.weight = nodeWeight;
+                bytes += GeoIpCache.weigh(value) - GeoIpCache.weigh(node.value);
+                node.value = value;
+                node.writeTime = now;
+                onHit(node);
+            } else {
+                node = new Node(key, value, weigh(value), now);
+                entries.put(key, node);
+                weight += node.weight;
+                bytes += GeoIpCache.weigh(value);
+                window.addFirst(node, WINDOW);
+            }
+            while (window.weight > windowMaximum && window.size > 1) {
+                // The least recently used entries of the window become candidates to the main space
+                probation.addFirst(window.removeLast(), PROBATION);
+            }
+            while (weight > maximum && !entries.isEmpty()) {
+                evict(now);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long size() {
+        return entries.size();
+    }
+
+    @Override
+    public void forEach(EntryConsumer consumer) {
+        final List<Node> snapshot = new ArrayList<>(entries.size());
+        final long now = expireAfterNanos > 0 ? ticker.getAsLong() : 0L;
+        lock.lock();
+        try {
+            // Hottest entries first
+            protectedQueue.collect(snapshot);
+            window.collect(snapshot);
+            probation.collect(snapshot);
+        } finally {
+            lock.unlock();
+        }
+        for (Node node : snapshot) {
+            if (!isExpired(node, now)) {
+                consumer.accept(node.key.high, node.key.low, NetworkGeoData.ADDRESS_PREFIX_LENGTH, node.value);
+            }
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            entries.clear();
+            weight = 0;
+            bytes = 0;
+            window.clear();
+            probation.clear();
+            protectedQueue.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long weight() {
+        return bytes;
+    }
+
+    /**
+     * Makes room for the candidates which have just left the window: either the latest candidate or the least recently
+     * used entry of the probation segment is evicted, whichever is the least frequently used.
+     */
+    private void evict(long now) {
+        final Node victim = probation.last();
+        if (victim == null) {
+            // Only the protected segment and the window are left
+            remove(protectedQueue.last() != null ? protectedQueue.last() : window.last());
+            evictions.increment();
+            return;
+        }
+        final Node candidate = probation.first();
+        if (victim != candidate && isExpired(victim, now)) {
+            remove(victim);
+            return;
+        }
+        final boolean admitted =
+            victim != candidate &&
+            sketch.frequency(candidate.key.high, candidate.key.low) > sketch.frequency(victim.key.high, victim.key.low);
+        remove(admitted ? victim : candidate);
+        evictions.increment();
+    }
+
+    private int weigh(GeoData value) {
+        return weighted ? GeoIpCache.weigh(value) : 1;
+    }
+
+    private void onHit(Node node) {
+        switch (node.queue) {
+            case WINDOW:
+                window.moveToFirst(node);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                protectedQueue.addFirst(node, PROTECTED);
+                while (protectedQueue.weight > protectedMaximum && protectedQueue.size > 1) {
+                    probation.addFirst(protectedQueue.removeLast(), PROBATION);
+                }
+                break;
+            case PROTECTED:
+                protectedQueue.moveToFirst(node);
+                break;
+            default:
+                // Removed concurrently
+                break;
+        }
+    }
+
+    private void remove(Node node) {
+        final AccessQueue queue = queueOf(node);
+        if (queue != null) {
+            queue.remove(node);
+            entries.remove(node.key, node);
+            weight -= node.weight;
+            bytes -= GeoIpCache.weigh(node.value);
+        }
+    }
+
+    /**
+     * @return the queue the node is linked in, or <code>null</code> if it has been removed
+     */
+    private AccessQueue queueOf(Node node) {
+        switch (node.queue) {
+            case WINDOW:
+                return window;
+            case PROBATION:
+                return probation;
+            case PROTECTED:
+                return protectedQueue;
+            default:
+                return null;
+        }
+    }
+
+    private boolean isExpired(Node node, long now) {
+        return expireAfterNanos > 0 && now - node.writeTime >= expireAfterNanos;
+    }
+
+    private static final class Node {
+
+        private final AddressKey key;
+        private volatile GeoData value;
+        private volatile long writeTime;
+        private int weight;
+        private int queue;
+        private Node previous;
+        private Node next;
+
+        private Node(AddressKey key, GeoData value, int weight, long writeTime) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.writeTime = writeTime;
+        }
+    }
+
+    /**
+     * Doubly linked list of nodes, from the most to the least recently used one.
+     */
+    private static final class AccessQueue {
+
+        private final Node head = new Node(null, null, 0, 0L);
+        private int size;
+        private long weight;
+
+        private AccessQueue() {
+            head.previous = head;
+            head.next = head;
+        }
+
+        private void addFirst(Node node, int queue) {
+            node.queue = queue;
+            node.previous = head;
+            node.next = head.next;
+            head.next.previous = node;
+            head.next = node;
+            size++;
+            weight += node.weight;
+        }
+
+        /**
+         * @return the most recently used node, or <code>null</code> if the queue is empty
+         */
+        private Node first() {
+            return head.next == head ? null : head.next;
+        }
+
+        /**
+         * @return the least recently used node, or <code>null</code> if the queue is empty
+         */
+        private Node last() {
+            return head.previous == head ? null : head.previous;
+        }
+
+        private Node removeLast() {
+            final Node last = head.previous;
+            remove(last);
+            return last;
+        }
+
+        private void moveToFirst(Node node) {
+            final int queue = node.queue;
+            remove(node);
+            addFirst(node, queue);
+        }
+
+        private void remove(Node node) {
+            node.previous.next = node.next;
+            node.next.previous = node.previous;
+            node.previous = null;
+            node.next = null;
+            node.queue = NONE;
+            size--;
+            weight -= node.weight;
+        }
+
+        private void collect(List<Node> nodes) {
+            for (Node node = head.next; node != head; node = node.next) {
+                nodes.add(node);
+            }
+        }
+
+        private void clear() {
+            for (Node node = head.next; node != head; node = node.next) {
+                node.queue = NONE;
+            }
+            head.previous = head;
+            head.next = head;
+            size = 0;
+            weight = 0;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.codec;
+
+import io.gravitee.service.geoip.model.GeoData;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageCodec;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Sends a {@link GeoData} as a {@link JsonObject}, writing its pre-encoded representation on the wire.
+ *
+ * <p>Local consumers receive the read-only view of the data rather than a copy of it.
+ *
+ * @author GraviteeSource Team
+ */
+public class GeoDataMessageCodec implements MessageCodec<GeoData, JsonObject> {
+
+    public static final String NAME = "geoip-data";
+
+    @Override
+    public void encodeToWire(Buffer buffer, GeoData geoData) {
+        final Buffer encoded = geoData.encoded();
+        buffer.appendInt(encoded.length());
+        buffer.appendBuffer(encoded);
+    }
+
+    @Override
+    public JsonObject decodeFromWire(int pos, Buffer buffer) {
+        final int length = buffer.getInt(pos);
+        pos += 4;
+        return new JsonObject(buffer.slice(pos, pos + length));
+    }
+
+    @Override
+    public JsonObject transform(GeoData geoData) {
+        return geoData.asJson();
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte systemCodecID() {
+        return -1;
+    }
+}
@@ -16,11 +16,26 @@
 
 package io.gravitee.service.geoip.configuration;
 
+import static io.gravitee.service.geoip.service.DatabaseReaderService.ASN_DB_TYPE;
+import static io.gravitee.service.geoip.service.DatabaseReaderService.CITY_DB_TYPE;
+import static io.gravitee.service.geoip.service.DatabaseReaderService.COUNTRY_DB_TYPE;
+
+import io.gravitee.service.geoip.cache.CacheType;
 import io.gravitee.service.geoip.cache.GeoIpCache;
+import io.gravitee.service.geoip.service.CacheRewarmPolicy;
+import io.gravitee.service.geoip.service.DatabaseLoadMode;
+import io.gravitee.service.geoip.service.DatabaseLoadingMode;
+import io.gravitee.service.geoip.service.DatabaseLoadingPolicy;
 import io.gravitee.service.geoip.service.DatabaseReaderService;
 import io.gravitee.service.geoip.service.DatabaseReaderServiceImpl;
 import io.gravitee.service.geoip.service.DatabaseReaderWatcherService;
+import io.gravitee.service.geoip.service.GeoIpCacheSnapshot;
+import io.gravitee.service.geoip.service.GeoIpDatabases;
 import io.gravitee.service.geoip.service.GeoIpFinderService;
+import io.gravitee.service.geoip.service.GeoIpLookupExecutor;
+import io.gravitee.service.geoip.service.GeoIpResolver;
+import io.gravitee.service.geoip.service.LookupMode;
+import java.nio.file.Paths;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -38,12 +53,117 @@ public class GeoIPServiceConfiguration {
     @Value("${geoip.database.city.watch:false}")
     private boolean watch;
 
+    @Value("${geoip.database.city.mode:heap}")
+    private String mode;
+
+    @Value("${geoip.database.city.index:false}")
+    private boolean rangeIndex;
+
+    @Value("${geoip.database.city.country-table:false}")
+    private boolean countryTable;
+
     @Value("${geoip.database.city.cache.capacity:4096}")
     private int cityCacheCapacity;
 
+    @Value("${geoip.database.city.cache.type:guava}")
+    private String cityCacheType;
+
+    @Value("${geoip.database.city.cache.event-loop-size:0}")
+    private int cityCacheEventLoopSize;
+
+    @Value("${geoip.database.city.cache.expire-after:36000000}")
+    private long cityCacheExpireAfter;
+
+    @Value("${geoip.database.city.cache.max-bytes:0}")
+    private long cityCacheMaxBytes;
+
+    @Value("${geoip.database.country.filename:#{null}}")
+    private String countryFilename;
+
+    @Value("${geoip.database.country.watch:false}")
+    private boolean countryWatch;
+
+    @Value("${geoip.database.country.mode:heap}")
+    private String countryMode;
+
+    @Value("${geoip.database.country.country-table:false}")
+    private boolean countryCountryTable;
+
+    @Value("${geoip.database.country.cache.capacity:4096}")
+    private int countryCacheCapacity;
+
+    @Value("${geoip.database.country.cache.type:guava}")
+    private String countryCacheType;
+
+    @Value("${geoip.database.country.cache.event-loop-size:0}")
+    private int countryCacheEventLoopSize;
+
+    @Value("${geoip.database.country.cache.expire-after:36000000}")
+    private long countryCacheExpireAfter;
+
+    @Value("${geoip.database.country.cache.max-bytes:0}")
+    private long countryCacheMaxBytes;
+
+    @Value("${geoip.database.asn.filename:#{null}}")
+    private String asnFilename;
+
+    @Value("${geoip.database.asn.watch:false}")
+    private boolean asnWatch;
+
+    @Value("${geoip.database.asn.mode:heap}")
+    private String asnMode;
+
+    @Value("${geoip.database.asn.cache.capacity:4096}")
+    private int asnCacheCapacity;
+
+    @Value("${geoip.database.asn.cache.type:guava}")
+    private String asnCacheType;
+
+    @Value("${geoip.database.asn.cache.event-loop-size:0}")
+    private int asnCacheEventLoopSize;
+
+    @Value("${geoip.database.asn.cache.expire-after:36000000}")
+    private long asnCacheExpireAfter;
+
+    @Value("${geoip.database.asn.cache.max-bytes:0}")
+    private long asnCacheMaxBytes;
+
+    @Value("${geoip.database.rewarm.parallelism:0}")
+    private int rewarmParallelism;
+
+    @Value("${geoip.database.rewarm.chunk-size:1024}")
+    private int rewarmChunkSize;
+
+    @Value("${geoip.database.rewarm.max-entries:-1}")
+    private int rewarmMaxEntries;
+
+    @Value("${geoip.database.snapshot.directory:#{null}}")
+    private String snapshotDirectory;
+
+    @Value("${geoip.database.snapshot.data:false}")
+    private boolean snapshotData;
+
+    @Value("${geoip.database.watch.debounce:1000}")
+    private long watchDebounce;
+
+    @Value("${geoip.database.loading.mode:fail}")
+    private String loadingMode;
+
+    @Value("${geoip.database.loading.timeout:10000}")
+    private long loadingTimeout;
+
+    @Value("${geoip.lookup.mode:event-loop}")
+    private String lookupMode;
+
+    @Value("${geoip.lookup.pool-size:0}")
+    private int lookupPoolSize;
+
+    @Value("${geoip.lookup.queue-size:1024}")
+    private int lookupQueueSize;
+
     @Bean
     public GeoIpCache geoIpCache() {
-        return new GeoIpCache(cityCacheCapacity < 1 ? 4096 : cityCacheCapacity);
+        return newCache(cityCacheCapacity, cityCacheType, cityCacheEventLoopSize, cityCacheExpireAfter, cityCacheMaxBytes);
     }
 
     @Bean
@@ -51,17 +171,136 @@ public class GeoIPServiceConfiguration {
         return new DatabaseReaderServiceImpl();
     }
 
+    @Bean
+    public DatabaseLoadingPolicy databaseLoadingPolicy() {
+        return new DatabaseLoadingPolicy(DatabaseLoadingMode.fromValue(loadingMode), loadingTimeout);
+    }
+
     @Bean
     public GeoIpFinderService geoIpFinderService() {
         return new GeoIpFinderService();
     }
 
+    @Bean
+    public GeoIpLookupExecutor geoIpLookupExecutor() {
+        return new GeoIpLookupExecutor(
+            LookupMode.fromValue(lookupMode),
+            lookupPoolSize < 1 ? Runtime.getRuntime().availableProcessors() : lookupPoolSize,
+            lookupQueueSize < 1 ? 1024 : lookupQueueSize
+        );
+    }
+
+    @Bean
+    public GeoIpResolver geoIpResolver(
+        DatabaseReaderService databaseReaderService,
+        GeoIpFinderService geoIpFinderService,
+        GeoIpCache geoIpCache,
+        GeoIpLookupExecutor geoIpLookupExecutor
+    ) {
+        return new GeoIpResolver(CITY_DB_TYPE, databaseReaderService, geoIpFinderService, geoIpCache, geoIpLookupExecutor);
+    }
+
+    /**
+     * The Country and ASN databases are not bundled: they are only served when their file has been configured.
+     */
+    @Bean
+    public GeoIpDatabases geoIpDatabases(
+        DatabaseReaderService databaseReaderService,
+        GeoIpFinderService geoIpFinderService,
+        GeoIpLookupExecutor geoIpLookupExecutor,
+        DatabaseLoadingPolicy databaseLoadingPolicy
+    ) {
+        final GeoIpDatabases databases = new GeoIpDatabases();
+        if (countryFilename != null) {
+            register(
+                databases,
+                databaseLoadingPolicy,
+                COUNTRY_DB_TYPE,
+                countryFilename,
+                countryWatch,
+                countryMode,
+                countryCountryTable,
+                newCache(countryCacheCapacity, countryCacheType, countryCacheEventLoopSize, countryCacheExpireAfter, countryCacheMaxBytes),
+                databaseReaderService,
+                geoIpFinderService,
+                geoIpLookupExecutor
+            );
+        }
+        if (asnFilename != null) {
+            register(
+                databases,
+                databaseLoadingPolicy,
+                ASN_DB_TYPE,
+                asnFilename,
+                asnWatch,
+                asnMode,
+                false,
+                newCache(asnCacheCapacity, asnCacheType, asnCacheEventLoopSize, asnCacheExpireAfter, asnCacheMaxBytes),
+                databaseReaderService,
+                geoIpFinderService,
+                geoIpLookupExecutor
+            );
+        }
+        return databases;
+    }
+
+    private void register(
+        GeoIpDatabases databases,
+        DatabaseLoadingPolicy loadingPolicy,
+        String databaseType,
+        String filename,
+        boolean watch,
+        String mode,
+        boolean countryTable,
+        GeoIpCache cache,
+        DatabaseReaderService databaseReaderService,
+        GeoIpFinderService geoIpFinderService,
+        GeoIpLookupExecutor geoIpLookupExecutor
+    ) {
+        databases.register(
+            new GeoIpResolver(databaseType, databaseReaderService, geoIpFinderService, cache, geoIpLookupExecutor),
+            new DatabaseReaderWatcherService(databaseReaderService, geoIpFinderService, cache, filename)
+                .database(databaseType, null)
+                .loadMode(DatabaseLoadMode.fromValue(mode))
+                .rewarmPolicy(rewarmPolicy())
+                .cacheSnapshot(cacheSnapshot())
+                .loadingPolicy(loadingPolicy)
+                .watchDebounce(watchDebounce)
+                .countryTable(countryTable)
+                .start(watch)
+        );
+    }
+
+    private CacheRewarmPolicy rewarmPolicy() {
+        return new CacheRewarmPolicy(rewarmParallelism, rewarmChunkSize, rewarmMaxEntries);
+    }
+
+    /**
+     * @return where the caches are persisted across restarts, or {@code null} if they are not
+     */
+    private GeoIpCacheSnapshot cacheSnapshot() {
+        return snapshotDirectory == null ? null : new GeoIpCacheSnapshot(Paths.get(snapshotDirectory), snapshotData);
+    }
+
+    private static GeoIpCache newCache(int capacity, String type, int eventLoopSize, long expireAfter, long maxBytes) {
+        return new GeoIpCache(capacity < 1 ? 4096 : capacity, CacheType.fromValue(type), Math.max(0, eventLoopSize), expireAfter, maxBytes);
+    }
+
     @Bean
     public DatabaseReaderWatcherService databaseReaderCronService(
         GeoIpCache geoIpCache,
         GeoIpFinderService geoIpFinderService,
-        DatabaseReaderService databaseReaderService
+        DatabaseReaderService databaseReaderService,
+        DatabaseLoadingPolicy databaseLoadingPolicy
     ) {
-        return new DatabaseReaderWatcherService(databaseReaderService, geoIpFinderService, geoIpCache, filename).start(watch);
+        return new DatabaseReaderWatcherService(databaseReaderService, geoIpFinderService, geoIpCache, filename)
+            .loadMode(DatabaseLoadMode.fromValue(mode))
+            .rangeIndex(rangeIndex)
+            .rewarmPolicy(rewarmPolicy())
+            .cacheSnapshot(cacheSnapshot())
+            .loadingPolicy(databaseLoadingPolicy)
+            .watchDebounce(watchDebounce)
+            .countryTable(countryTable)
+            .start(watch);
     }
 }
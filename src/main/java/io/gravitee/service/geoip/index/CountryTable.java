@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.index;
+
+import com.maxmind.db.DatabaseRecord;
+import com.maxmind.db.Reader;
+import io.gravitee.service.geoip.model.CityRecord;
+import io.gravitee.service.geoip.utils.IpAddressKeys;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Direct-indexed table of the country of every IPv4 /24 block, for country-only lookups.
+ *
+ * <p>The table holds one byte per block (16 MiB, allocated off-heap) identifying the country shared by every address
+ * of the block, so that resolving the country of an address is a single read. Blocks split between several countries
+ * (or partly outside of the database), as well as IPv6 addresses, are not indexed and must be resolved by the database
+ * reader (see {@link #NOT_INDEXED}).
+ *
+ * @author GraviteeSource Team
+ */
+public final class CountryTable {
+
+    /**
+     * Returned by {@link #find(long, long)} for addresses which are not in the database.
+     */
+    public static final int NOT_FOUND = 0;
+
+    /**
+     * Returned by {@link #find(long, long)} for addresses which must be resolved by the database reader.
+     */
+    public static final int NOT_INDEXED = -1;
+
+    private static final int BLOCKS = 1 << 24;
+    private static final byte SPLIT = (byte) 0xFE;
+    private static final byte UNSET = (byte) 0xFF;
+    // Ids from 1 to 253, the others being reserved to NOT_FOUND, SPLIT and UNSET
+    private static final int MAX_COUNTRIES = 253;
+
+    private final ByteBuffer blocks;
+    private final String[] isoCodes;
+    private final int splitBlocks;
+
+    private CountryTable(ByteBuffer blocks, String[] isoCodes, int splitBlocks) {
+        this.blocks = blocks;
+        this.isoCodes = isoCodes;
+        this.splitBlocks = splitBlocks;
+    }
+
+    /**
+     * @return the id of the country of the address (see {@link #isoCode(int)}), {@link #NOT_FOUND} if the address is
+     * not in the database, or {@link #NOT_INDEXED} if it must be resolved by the database reader
+     */
+    public int find(long high, long low) {
+        if (high != 0L || ((low >>> 32) != 0L && (low >>> 32) != 0xFFFFL)) {
+            return NOT_INDEXED;
+        }
+        final byte block = blocks.get((int) ((low & 0xFFFFFFFFL) >>> 8));
+        return block == SPLIT ? NOT_INDEXED : block & 0xFF;
+    }
+
+    /**
+     * @return the ISO code of the country with the given id
+     */
+    public String isoCode(int id) {
+        return isoCodes[id];
+    }
+
+    public int countryCount() {
+        return isoCodes.length - 1;
+    }
+
+    public int splitBlockCount() {
+        return splitBlocks;
+    }
+
+    /**
+     * Walks the IPv4 address space of the database, one network at a time, decoding only the country ISO code of its
+     * records.
+     */
+    public static CountryTable build(Reader reader) throws IOException {
+        final ByteBuffer blocks = ByteBuffer.allocateDirect(BLOCKS);
+        for (int i = 0; i < BLOCKS; i++) {
+            blocks.put(i, UNSET);
+        }
+        final List<String> isoCodes = new ArrayList<>();
+        isoCodes.add(null);
+        final Map<String, Byte> ids = new HashMap<>();
+
+        long address = 0L;
+        while (address <= 0xFFFFFFFFL) {
+            final DatabaseRecord<CityRecord.CountryIsoCode> record = reader.getRecord(
+                IpAddressKeys.toInetAddress(0L, IpAddressKeys.ipv4((int) address)),
+                CityRecord.CountryIsoCode.class
+            );
+            final long size = 1L << (32 - record.getNetwork().getPrefixLength());
+            final long start = address & -size;
+            final byte id = idOf(record.getData(), isoCodes, ids);
+            if (size >= 256) {
+                for (long block = start >>> 8; block < (start + size) >>> 8; block++) {
+                    blocks.put((int) block, id);
+                }
+            } else {
+                // Networks smaller than a block: the block keeps its id only if all of them share it
+                final int block = (int) (start >>> 8);
+                final byte current = blocks.get(block);
+                if (current == UNSET) {
+                    blocks.put(block, id);
+                } else if (current != id) {
+                    blocks.put(block, SPLIT);
+                }
+            }
+            address = start + size;
+        }
+
+        int splitBlocks = 0;
+        for (int i = 0; i < BLOCKS; i++) {
+            if (blocks.get(i) == SPLIT) {
+                splitBlocks++;
+            }
+        }
+        return new CountryTable(blocks, isoCodes.toArray(new String[0]), splitBlocks);
+    }
+
+    private static byte idOf(CityRecord.CountryIsoCode record, List<String> isoCodes, Map<String, Byte> ids) {
+        final String isoCode = record == null || record.country == null ? null : record.country.isoCode;
+        if (isoCode == null) {
+            // Not in the database, or located no finer than a continent: left to the reader when in a split block
+            return record == null ? (byte) NOT_FOUND : SPLIT;
+        }
+        Byte id = ids.get(isoCode);
+        if (id == null) {
+            if (isoCodes.size() > MAX_COUNTRIES) {
+                return SPLIT;
+            }
+            id = (byte) isoCodes.size();
+            isoCodes.add(isoCode);
+            ids.put(isoCode, id);
+        }
+        return id;
+    }
+}
@@ -0,0 +1,310 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.gravitee.service.geoip.index;
+
+import com.maxmind.db.DatabaseRecord;
+import com.maxmind.db.Reader;
+import com.maxmind.geoip2.model.CityResponse;
+import io.gravitee.service.geoip.model.GeoData;
+import io.gravitee.service.geoip.utils.IpAddressKeys;
+import io.vertx.core.json.JsonObject;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Flattened view of a city database: the address space is split into sorted ranges, each one pointing to a
+ * pre-rendered geo record shared by all the ranges resolving to the same data.
+ *
+ * <p>A lookup is a binary search over primitive arrays, with neither a search tree walk nor any decoding. The IPv4
+ * aliases of an IPv6 database (IPv4-compatible and IPv4-mapped addresses) are resolved against the IPv4 ranges, while
+ * the 6to4 alias (2002::/16) is not flattened and left to the database reader (see {@link #NOT_INDEXED}).
+ *
+ * @author GraviteeSource Team
+ */
+public final class GeoIpRangeIndex {
+
+    /**
+     * Returned by {@link #find(long, long)} for addresses which must be resolved by the database reader.
+     */
+    public static final GeoData NOT_INDEXED = new GeoData(new JsonObject());
+
+    // Default locales of the DatabaseReader, applied when the raw records are rendered
+    private static final List<String> LOCALES = Collections.singletonList("en");
+
+    private static final int NOT_FOUND_ID = -1;
+    private static final int NOT_INDEXED_ID = -2;
+
+    // Range starts are stored with their sign bit flipped so that signed comparisons order them as unsigned values
+    private final int[] ipv4Starts;
+    private final int[] ipv4Records;
+    private final long[] ipv6StartHighs;
+    private final long[] ipv6StartLows;
+    private final int[] ipv6Records;
+    private final GeoData[] records;
+
+    private GeoIpRangeIndex(
+        int[] ipv4Starts,
+        int[] ipv4Records,
+        long[] ipv6StartHighs,
+        long[] ipv6StartLows,
+        int[] ipv6Records,
+        GeoData[] records
+    ) {
+        this.ipv4Starts = ipv4Starts;
+        this.ipv4Records = ipv4Records;
+        this.ipv6StartHighs = ipv6StartHighs;
+        this.ipv6StartLows = ipv6StartLows;
+        this.ipv6Records = ipv6Records;
+        this.records = records;
+    }
+
+    /**
+     * @return the geo record of the address, {@code null} if the address is not in the database, or
+     * {@link #NOT_INDEXED} if it must be resolved by the database reader
+     */
+    public GeoData find(long high, long low) {
+        if (high == 0L && ((low >>> 32) == 0L || (low >>> 32) == 0xFFFFL)) {
+            return record(ipv4Records[ipv4Range((int) low)]);
+        }
+        if (ipv6Records.length == 0) {
+            return NOT_INDEXED;
+        }
+        return record(ipv6Records[ipv6Range(high, low)]);
+    }
+
+    public int ipv4RangeCount() {
+        return ipv4Starts.length;
+    }
+
+    public int ipv6RangeCount() {
+        return ipv6Records.length;
+    }
+
+    public int recordCount() {
+        return records.length;
+    }
+
+    private GeoData record(int id) {
+        if (id == NOT_INDEXED_ID) {
+            return NOT_INDEXED;
+        }
+        return id == NOT_FOUND_ID ? null : records[id];
+    }
+
+    private int ipv4Range(int address) {
+        final int index = Arrays.binarySearch(ipv4Starts, address ^ Integer.MIN_VALUE);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private int ipv6Range(long high, long low) {
+        // Last range starting at or before the address, the first range always starts at ::
+        int from = 0;
+        int to = ipv6Records.length - 1;
+        while (from < to) {
+            final int middle = (from + to + 1) >>> 1;
+            int comparison = Long.compareUnsigned(ipv6StartHighs[middle], high);
+            if (comparison == 0) {
+                comparison = Long.compareUnsigned(ipv6StartLows[middle], low);
+            }
+            if (comparison <= 0) {
+                from = middle;
+            } else {
+                to = middle - 1;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Walks the whole address space of the database, one network at a time.
+     *
+     * <p>The reader should be created with a {@link com.maxmind.db.NodeCache} so that the records shared by many
+     * networks are decoded (and rendered) only once.
+     */
+    public static GeoIpRangeIndex build(Reader reader, Function<CityResponse, JsonObject> renderer) throws IOException {
+        final RecordTable recordTable = new RecordTable(renderer);
+
+        final IntList ipv4Starts = new IntList();
+        final IntList ipv4Records = new IntList();
+        long address = 0L;
+        while (address <= 0xFFFFFFFFL) {
+            final DatabaseRecord<CityResponse> record = reader.getRecord(ipv4(address), CityResponse.class);
+            final long size = 1L << (32 - record.getNetwork().getPrefixLength());
+            final int id = recordTable.idOf(record.getData());
+            if (ipv4Records.size == 0 || ipv4Records.last() != id) {
+                ipv4Starts.add((int) address ^ Integer.MIN_VALUE);
+                ipv4Records.add(id);
+            }
+            address = (address & -size) + size;
+        }
+
+        final LongList ipv6StartHighs = new LongList();
+        final LongList ipv6StartLows = new LongList();
+        final IntList ipv6Records = new IntList();
+        if (reader.getMetadata().getIpVersion() == 6) {
+            long high = 0L;
+            long low = 0L;
+            while (true) {
+                final int prefixLength;
+                final int id;
+                final int aliasPrefixLength = aliasPrefixLength(high, low);
+                if (aliasPrefixLength > 0) {
+                    prefixLength = aliasPrefixLength;
+                    id = NOT_INDEXED_ID;
+                } else {
+                    final DatabaseRecord<CityResponse> record = reader.getRecord(
+                        IpAddressKeys.toInetAddress(high, low),
+                        CityResponse.class
+                    );
+                    prefixLength = record.getNetwork().getPrefixLength();
+                    id = recordTable.idOf(record.getData());
+                }
+                if (ipv6Records.size == 0 || ipv6Records.last() != id) {
+                    ipv6StartHighs.add(high);
+                    ipv6StartLows.add(low);
+                    ipv6Records.add(id);
+                }
+
+                // Move to the first address following the network
+                if (prefixLength == 0) {
+                    break;
+                } else if (prefixLength <= 64) {
+                    final long size = prefixLength == 64 ? 1L : 1L << (64 - prefixLength);
+                    high = (high & -size) + size;
+                    low = 0L;
+                    if (high == 0L) {
+                        break;
+                    }
+                } else {
+                    final long size = prefixLength == 128 ? 1L : 1L << (128 - prefixLength);
+                    low = (low & -size) + size;
+                    if (low == 0L && ++high == 0L) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        return new GeoIpRangeIndex(
+            ipv4Starts.toArray(),
+            ipv4Records.toArray(),
+            ipv6StartHighs.toArray(),
+            ipv6StartLows.toArray(),
+            ipv6Records.toArray(),
+            recordTable.records.toArray(new GeoData[0])
+        );
+    }
+
+    /**
+     * @return the prefix length of the IPv4 alias network starting at the address, or 0 if there is none
+     */
+    private static int aliasPrefixLength(long high, long low) {
+        if (high == 0L && ((low >>> 32) == 0L || (low >>> 32) == 0xFFFFL) && (int) low == 0) {
+            // IPv4-compatible (::/96) and IPv4-mapped (::ffff:0:0/96) addresses
+            return 96;
+        }
+        if ((high >>> 48) == 0x2002L && (high & 0xFFFFFFFFFFFFL) == 0L && low == 0L) {
+            // 6to4 (2002::/16)
+            return 16;
+        }
+        return 0;
+    }
+
+    private static InetAddress ipv4(long address) {
+        return IpAddressKeys.toInetAddress(0L, IpAddressKeys.ipv4((int) address));
+    }
+
+    /**
+     * Assigns an id to each distinct rendered record.
+     */
+    private static final class RecordTable {
+
+        private final Function<CityResponse, JsonObject> renderer;
+        // Records decoded through the reader cache are the same instances, which saves rendering them again
+        private final Map<CityResponse, Integer> idsByResponse = new IdentityHashMap<>();
+        private final Map<JsonObject, Integer> idsByRecord = new HashMap<>();
+        private final List<GeoData> records = new ArrayList<>();
+
+        private RecordTable(Function<CityResponse, JsonObject> renderer) {
+            this.renderer = renderer;
+        }
+
+        private int idOf(CityResponse response) {
+            if (response == null) {
+                return NOT_FOUND_ID;
+            }
+            Integer id = idsByResponse.get(response);
+            if (id == null) {
+                final JsonObject record = renderer.apply(new CityResponse(response, null, null, LOCALES));
+                id = idsByRecord.get(record);
+                if (id == null) {
+                    id = records.size();
+                    records.add(new GeoData(record));
+                    idsByRecord.put(record, id);
+                }
+                idsByResponse.put(response, id);
+            }
+            return id;
+        }
+    }
+
+    private static final class IntList {
+
+        private int[] values = new int[1024];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private int last() {
+            return values[size - 1];
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static final class LongList {
+
+        private long[] values = new long[1024];
+        private int size;
+
+        private void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
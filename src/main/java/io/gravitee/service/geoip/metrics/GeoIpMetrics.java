@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.metrics;
+
+import io.vertx.core.json.JsonObject;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lookup and reload metrics of one database, recorded on the hot path without locking nor allocating.
+ *
+ * <ul>
+ *     <li>lookups: time spent parsing the IP literal, looking it up in the cache and decoding it from the database on
+ *     cache misses, along with the addresses not found in the database, the addresses of reserved ranges (answered
+ *     without any lookup), the lookups rejected by a full queue and the unexpected errors</li>
+ *     <li>reloads: duration of the reloads of a watched database, number of cache entries re-resolved by them or
+ *     dropped as they were over the re-warm cap, and number of entries the running re-warm has still to resolve</li>
+ * </ul>
+ *
+ * @author GraviteeSource Team
+ */
+public class GeoIpMetrics {
+
+    private final LatencyHistogram parse = new LatencyHistogram();
+    private final LatencyHistogram cacheLookup = new LatencyHistogram();
+    private final LatencyHistogram decode = new LatencyHistogram();
+    private final LatencyHistogram reload = new LatencyHistogram();
+    private final LongAdder notFound = new LongAdder();
+    private final LongAdder reserved = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder reloadFailures = new LongAdder();
+    private final LongAdder rewarmed = new LongAdder();
+    private final LongAdder rewarmDropped = new LongAdder();
+    private final AtomicLong rewarmPending = new AtomicLong();
+
+    public void recordParse(long nanos) {
+        parse.record(nanos);
+    }
+
+    public void recordCacheLookup(long nanos) {
+        cacheLookup.record(nanos);
+    }
+
+    public void recordDecode(long nanos) {
+        decode.record(nanos);
+    }
+
+    public void addressNotFound() {
+        notFound.increment();
+    }
+
+    public void reserved() {
+        reserved.increment();
+    }
+
+    public void coalesced() {
+        coalesced.increment();
+    }
+
+    public void rejected() {
+        rejected.increment();
+    }
+
+    public void error() {
+        errors.increment();
+    }
+
+    public void reloaded(long nanos, int rewarmedEntries) {
+        reload.record(nanos);
+        rewarmed.add(rewarmedEntries);
+    }
+
+    /**
+     * @param entries the number of entries the re-warm is about to resolve
+     * @param dropped the number of entries dropped instead of being resolved
+     */
+    public void rewarmStarted(int entries, int dropped) {
+        rewarmPending.set(entries);
+        rewarmDropped.add(dropped);
+    }
+
+    public void rewarmProgressed(int entries) {
+        rewarmPending.addAndGet(-entries);
+    }
+
+    public void rewarmEnded() {
+        rewarmPending.set(0);
+    }
+
+    public void reloadFailed() {
+        reloadFailures.increment();
+    }
+
+    public LatencyHistogram getDecode() {
+        return decode;
+    }
+
+    public long getNotFound() {
+        return notFound.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public LatencyHistogram getReload() {
+        return reload;
+    }
+
+    public long getReloadFailures() {
+        return reloadFailures.sum();
+    }
+
+    public long getRewarmed() {
+        return rewarmed.sum();
+    }
+
+    public long getRewarmDropped() {
+        return rewarmDropped.sum();
+    }
+
+    public long getRewarmPending() {
+        return rewarmPending.get();
+    }
+
+    public JsonObject toJson() {
+        return new JsonObject()
+            .put(
+                "lookup",
+                new JsonObject()
+                    .put("parse", parse.toJson())
+                    .put("cache", cacheLookup.toJson())
+                    .put("decode", decode.toJson())
+                    .put("not_found", notFound.sum())
+                    .put("reserved", reserved.sum())
+                    .put("coalesced", coalesced.sum())
+                    .put("rejected", rejected.sum())
+                    .put("errors", errors.sum())
+            )
+            .put(
+                "reload",
+                new JsonObject()
+                    .put("duration", reload.toJson())
+                    .put("failures", reloadFailures.sum())
+                    .put("rewarmed", rewarmed.sum())
+                    .put("rewarm_dropped", rewarmDropped.sum())
+                    .put("rewarm_pending", rewarmPending.get())
+            );
+    }
+}
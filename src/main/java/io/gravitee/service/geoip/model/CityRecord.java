@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.model;
+
+import com.maxmind.db.MaxMindDbConstructor;
+import com.maxmind.db.MaxMindDbParameter;
+import java.util.List;
+
+/**
+ * Minimal mapping of a city database record, holding only what {@link GeoProperty} needs.
+ *
+ * <p>The MaxMind decoder skips the keys a mapped class does not ask for, so decoding this record is much cheaper than
+ * decoding a full <code>CityResponse</code>: names are only decoded in english, and geoname ids, postal codes,
+ * registered countries or traits are not decoded at all. {@link CountryIsoCode} goes further for the most common
+ * country-only lookups.
+ *
+ * @author GraviteeSource Team
+ */
+public class CityRecord {
+
+    public final Country country;
+    public final Named continent;
+    public final List<Named> subdivisions;
+    public final Named city;
+    public final Location location;
+
+    @MaxMindDbConstructor
+    public CityRecord(
+        @MaxMindDbParameter(name = "country") Country country,
+        @MaxMindDbParameter(name = "continent") Named continent,
+        @MaxMindDbParameter(name = "subdivisions") List<Named> subdivisions,
+        @MaxMindDbParameter(name = "city") Named city,
+        @MaxMindDbParameter(name = "location") Location location
+    ) {
+        this.country = country;
+        this.continent = continent;
+        this.subdivisions = subdivisions;
+        this.city = city;
+        this.location = location;
+    }
+
+    public static class CountryIsoCode {
+
+        public final Country country;
+
+        @MaxMindDbConstructor
+        public CountryIsoCode(@MaxMindDbParameter(name = "country") IsoCode country) {
+            this.country = country == null ? null : new Country(country.isoCode, null);
+        }
+    }
+
+    public static class IsoCode {
+
+        public final String isoCode;
+
+        @MaxMindDbConstructor
+        public IsoCode(@MaxMindDbParameter(name = "iso_code") String isoCode) {
+            this.isoCode = isoCode;
+        }
+    }
+
+    public static class Country extends Named {
+
+        public final String isoCode;
+
+        @MaxMindDbConstructor
+        public Country(@MaxMindDbParameter(name = "iso_code") String isoCode, @MaxMindDbParameter(name = "names") Names names) {
+            super(names);
+            this.isoCode = isoCode;
+        }
+    }
+
+    public static class Named {
+
+        public final String name;
+
+        @MaxMindDbConstructor
+        public Named(@MaxMindDbParameter(name = "names") Names names) {
+            this.name = names == null ? null : names.en;
+        }
+    }
+
+    public static class Names {
+
+        public final String en;
+
+        @MaxMindDbConstructor
+        public Names(@MaxMindDbParameter(name = "en") String en) {
+            this.en = en;
+        }
+    }
+
+    public static class Location {
+
+        public final Double latitude;
+        public final Double longitude;
+        public final String timeZone;
+
+        @MaxMindDbConstructor
+        public Location(
+            @MaxMindDbParameter(name = "latitude") Double latitude,
+            @MaxMindDbParameter(name = "longitude") Double longitude,
+            @MaxMindDbParameter(name = "time_zone") String timeZone
+        ) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.timeZone = timeZone;
+        }
+    }
+}
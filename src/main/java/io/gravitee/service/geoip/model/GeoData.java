@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.model;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Immutable result of a lookup, shared by every address resolving to the same database record.
+ *
+ * <p>The JSON representation is encoded once, when the record is first resolved, so replies don't need to encode it
+ * again for each message. The data is flat (only scalar values), so a read-only view of it can be handed over to local
+ * consumers without being copied.
+ *
+ * @author GraviteeSource Team
+ */
+public final class GeoData {
+
+    /**
+     * Cached in place of the data of the addresses which are not in the database, so that looking them up again
+     * neither walks the database nor throws. It covers every projection, projecting it returns itself.
+     */
+    public static final GeoData NOT_FOUND = new GeoData(new JsonObject());
+
+    private final JsonObject json;
+    private final Buffer encoded;
+    private final GeoProjection projection;
+    private final int estimatedSize;
+
+    // Narrower views of this data, built on demand and indexed by projection mask
+    private volatile GeoData[] projections;
+
+    public GeoData(JsonObject json) {
+        this(json, GeoProjection.ALL);
+    }
+
+    /**
+     * @param projection the properties the given data has been rendered with
+     */
+    public GeoData(JsonObject json, GeoProjection projection) {
+        this.json = new JsonObject(Collections.unmodifiableMap(json.copy().getMap()));
+        this.encoded = json.toBuffer();
+        this.projection = projection;
+        this.estimatedSize = estimateSize(this.json, encoded);
+    }
+
+    public GeoProjection getProjection() {
+        return projection;
+    }
+
+    /**
+     * @return this data restricted to the given properties, which must all be part of its own projection
+     */
+    public GeoData project(GeoProjection target) {
+        if (target == projection || this == NOT_FOUND) {
+            return this;
+        }
+        if (!projection.covers(target)) {
+            throw new IllegalArgumentException("Can not project " + projection + " data on " + target);
+        }
+        GeoData[] views = projections;
+        if (views == null) {
+            views = new GeoData[GeoProjection.ALL.mask() + 1];
+            projections = views;
+        }
+        GeoData view = views[target.mask()];
+        if (view == null) {
+            final JsonObject projected = new JsonObject();
+            for (GeoProperty property : target.properties()) {
+                for (String key : property.keys()) {
+                    projected.put(key, json.getValue(key));
+                }
+            }
+            view = new GeoData(projected, target);
+            // Racing threads build equal views, keeping either one is fine
+            views[target.mask()] = view;
+        }
+        return view;
+    }
+
+    /**
+     * @return an estimation, in bytes, of the heap retained by this data: its JSON map, values and encoded form. Keys
+     * are constants shared by every data and the narrower views are built on demand, neither is counted.
+     */
+    public int getEstimatedSize() {
+        return estimatedSize;
+    }
+
+    public boolean isNotFound() {
+        return this == NOT_FOUND;
+    }
+
+    public Object getValue(String key) {
+        return json.getValue(key);
+    }
+
+    /**
+     * @return a read-only view of the data, throwing {@link UnsupportedOperationException} when modified
+     */
+    public JsonObject asJson() {
+        return json;
+    }
+
+    /**
+     * @return a copy of the data, free to be modified by the caller
+     */
+    public JsonObject toJson() {
+        return json.copy();
+    }
+
+    /**
+     * @return the encoded JSON representation, which must not be modified
+     */
+    public Buffer encoded() {
+        return encoded;
+    }
+
+    private static int estimateSize(JsonObject json, Buffer encoded) {
+        // This object, the JSON object, the unmodifiable view and the map with its table
+        int size = 24 + 16 + 24 + 56 + 16 + 4 * Integer.highestOneBit(Math.max(1, json.size() * 4 / 3) * 2 - 1);
+        for (Map.Entry<String, Object> entry : json) {
+            // Map entry
+            size += 40 + estimateSize(entry.getValue());
+        }
+        // Buffer and its backing byte array
+        return size + 96 + 16 + encoded.length();
+    }
+
+    private static int estimateSize(Object value) {
+        if (value instanceof String) {
+            final String string = (String) value;
+            int length = string.length();
+            for (int i = 0; i < string.length(); i++) {
+                if (string.charAt(i) > 0xFF) {
+                    // Not compacted to one byte per character
+                    length = string.length() * 2;
+                    break;
+                }
+            }
+            return 24 + 16 + length;
+        }
+        if (value instanceof Long || value instanceof Double) {
+            return 24;
+        }
+        // Booleans are shared instances
+        return value instanceof Boolean || value == null ? 0 : 16;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof GeoData)) {
+            return false;
+        }
+        return json.equals(((GeoData) o).json);
+    }
+
+    @Override
+    public int hashCode() {
+        return json.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return json.encode();
+    }
+}
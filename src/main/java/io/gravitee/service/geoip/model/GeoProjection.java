@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The set of {@link GeoProperty} a caller is interested in, so that lookups only decode, cache and return those.
+ *
+ * <p>Projections are interned: there is a single instance per set of properties, which can be compared by identity.
+ *
+ * @author GraviteeSource Team
+ */
+public final class GeoProjection {
+
+    private static final GeoProperty[] PROPERTIES = GeoProperty.values();
+    private static final int ALL_MASK = (1 << PROPERTIES.length) - 1;
+    private static final GeoProjection[] PROJECTIONS = new GeoProjection[ALL_MASK + 1];
+
+    // Parsed header values, callers usually send the same few ones over and over
+    private static final int MAX_PARSED_VALUES = 256;
+    private static final Map<String, GeoProjection> PARSED_VALUES = new ConcurrentHashMap<>();
+
+    static {
+        for (int mask = 0; mask <= ALL_MASK; mask++) {
+            PROJECTIONS[mask] = new GeoProjection(mask);
+        }
+    }
+
+    public static final GeoProjection ALL = PROJECTIONS[ALL_MASK];
+
+    private final int mask;
+
+    private GeoProjection(int mask) {
+        this.mask = mask;
+    }
+
+    public static GeoProjection of(GeoProperty... properties) {
+        int mask = 0;
+        for (GeoProperty property : properties) {
+            mask |= property.bit();
+        }
+        return PROJECTIONS[mask];
+    }
+
+    /**
+     * @param properties JSON keys or names of {@link GeoProperty}
+     * @return the projection of the given properties, {@link #ALL} if there are none
+     * @throws IllegalArgumentException if one of the properties is unknown
+     */
+    public static GeoProjection of(Collection<?> properties) {
+        int mask = 0;
+        for (Object value : properties) {
+            final GeoProperty property = GeoProperty.fromValue(value == null ? null : value.toString());
+            if (property == null) {
+                throw new IllegalArgumentException("Unknown GeoIP property '" + value + "'");
+            }
+            mask |= property.bit();
+        }
+        return mask == 0 ? ALL : PROJECTIONS[mask];
+    }
+
+    /**
+     * @param properties a comma separated list of JSON keys or names of {@link GeoProperty}
+     * @return the projection of the given properties, {@link #ALL} if there are none
+     * @throws IllegalArgumentException if one of the properties is unknown
+     */
+    public static GeoProjection parse(String properties) {
+        if (properties == null || properties.isBlank()) {
+            return ALL;
+        }
+        final GeoProjection parsed = PARSED_VALUES.get(properties);
+        if (parsed != null) {
+            return parsed;
+        }
+        final GeoProjection projection = of(Arrays.asList(properties.split(",")));
+        if (PARSED_VALUES.size() < MAX_PARSED_VALUES) {
+            PARSED_VALUES.put(properties, projection);
+        }
+        return projection;
+    }
+
+    public boolean includes(GeoProperty property) {
+        return (mask & property.bit()) != 0;
+    }
+
+    public boolean covers(GeoProjection other) {
+        return (mask & other.mask) == other.mask;
+    }
+
+    public GeoProjection union(GeoProjection other) {
+        return PROJECTIONS[mask | other.mask];
+    }
+
+    public Set<GeoProperty> properties() {
+        final EnumSet<GeoProperty> properties = EnumSet.noneOf(GeoProperty.class);
+        for (GeoProperty property : PROPERTIES) {
+            if (includes(property)) {
+                properties.add(property);
+            }
+        }
+        return properties;
+    }
+
+    int mask() {
+        return mask;
+    }
+
+    @Override
+    public String toString() {
+        return properties().toString();
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.model;
+
+/**
+ * The properties a lookup can return, each one rendered under one or more JSON keys.
+ *
+ * @author GraviteeSource Team
+ */
+public enum GeoProperty {
+    COUNTRY_ISO_CODE("country_iso_code"),
+    COUNTRY_NAME("country_name"),
+    CONTINENT_NAME("continent_name"),
+    REGION_NAME("region_name"),
+    CITY_NAME("city_name"),
+    TIMEZONE("timezone"),
+    LOCATION("lat", "lon");
+
+    private final String[] keys;
+
+    GeoProperty(String... keys) {
+        this.keys = keys;
+    }
+
+    public String[] keys() {
+        return keys.clone();
+    }
+
+    int bit() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * @return the property rendered under the given JSON key, or named after the given value (case-insensitive),
+     * <code>null</code> if there is none
+     */
+    public static GeoProperty fromValue(String value) {
+        if (value != null) {
+            final String trimmed = value.trim();
+            for (GeoProperty property : values()) {
+                if (property.name().equalsIgnoreCase(trimmed)) {
+                    return property;
+                }
+                for (String key : property.keys) {
+                    if (key.equals(trimmed)) {
+                        return property;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.model;
+
+/**
+ * The data of an address along with the network it has been found in, so that it can be cached for the whole network.
+ *
+ * @author GraviteeSource Team
+ */
+public final class NetworkGeoData {
+
+    /**
+     * The length of a prefix covering the address only, used when the network is not known.
+     */
+    public static final int ADDRESS_PREFIX_LENGTH = 128;
+
+    private final GeoData geoData;
+    private final int prefixLength;
+
+    public NetworkGeoData(GeoData geoData, int prefixLength) {
+        this.geoData = geoData;
+        this.prefixLength = prefixLength;
+    }
+
+    public GeoData getGeoData() {
+        return geoData;
+    }
+
+    /**
+     * @return the length of the prefix of the network, in bits of the IPv6 form of the address (an IPv4 /24 network
+     * has a 120 bits prefix)
+     */
+    public int getPrefixLength() {
+        return prefixLength;
+    }
+}
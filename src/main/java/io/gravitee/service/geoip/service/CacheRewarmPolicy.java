@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.gravitee.service.geoip.service;
+
+/**
+ * How the cached entries are re-resolved against a reloaded database before it is swapped in.
+ *
+ * <ul>
+ *     <li>parallelism: number of threads re-resolving the entries</li>
+ *     <li>chunk size: number of entries re-resolved by each task, hot entries being submitted first</li>
+ *     <li>max entries: number of entries re-resolved at most, the remaining (coldest) ones are dropped from the cache,
+ *     a negative value re-resolving them all</li>
+ * </ul>
+ *
+ * @author GraviteeSource Team
+ */
+public final class CacheRewarmPolicy {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    private final int parallelism;
+    private final int chunkSize;
+    private final int maxEntries;
+
+    public CacheRewarmPolicy(int parallelism, int chunkSize, int maxEntries) {
+        this.parallelism = parallelism < 1 ? Runtime.getRuntime().availableProcessors() : parallelism;
+        this.chunkSize = chunkSize < 1 ? DEFAULT_CHUNK_SIZE : chunkSize;
+        this.maxEntries = maxEntries;
+    }
+
+    public static CacheRewarmPolicy defaults() {
+        return new CacheRewarmPolicy(0, DEFAULT_CHUNK_SIZE, -1);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return the number of the given cached entries to re-resolve
+     */
+    public int entriesToRewarm(int cachedEntries) {
+        return maxEntries < 0 ? cachedEntries : Math.min(maxEntries, cachedEntries);
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.service;
+
+import com.maxmind.db.Reader;
+import com.maxmind.geoip2.DatabaseReader;
+import io.gravitee.service.geoip.index.CountryTable;
+import io.gravitee.service.geoip.index.GeoIpRangeIndex;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A loaded database, that is its reader, its optional range index, record reader and country table, swapped as a
+ * whole when the database is reloaded.
+ *
+ * <p>Generations are reference counted: the {@link DatabaseReaderService} holds one reference while the generation is
+ * the current one, and each lookup holds one between {@link DatabaseReaderService#acquire(String)} and
+ * {@link #release()}. The reader is closed once the generation has been replaced and the last in-flight lookup has
+ * released it.
+ *
+ * @author GraviteeSource Team
+ */
+public final class DatabaseGeneration {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DatabaseGeneration.class);
+
+    private final DatabaseReader reader;
+    private final GeoIpRangeIndex rangeIndex;
+    private final Reader recordReader;
+    private final CountryTable countryTable;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private volatile boolean retired;
+
+    /**
+     * @param rangeIndex the range index of the database, or {@code null} to resolve lookups from the reader only
+     * @param recordReader a raw reader over the same database, used to decode only parts of its records, or
+     * {@code null}
+     * @param countryTable the country table of the database, or {@code null}
+     */
+    public DatabaseGeneration(DatabaseReader reader, GeoIpRangeIndex rangeIndex, Reader recordReader, CountryTable countryTable) {
+        this.reader = reader;
+        this.rangeIndex = rangeIndex;
+        this.recordReader = recordReader;
+        this.countryTable = countryTable;
+    }
+
+    public DatabaseReader getReader() {
+        return reader;
+    }
+
+    /**
+     * @return the range index of the database, or {@code null} if lookups must go through the reader
+     */
+    public GeoIpRangeIndex getRangeIndex() {
+        return rangeIndex;
+    }
+
+    /**
+     * @return the raw reader to decode {@link io.gravitee.service.geoip.model.CityRecord} with, or {@code null} if
+     * records must be decoded through {@link #getReader()}
+     */
+    public Reader getRecordReader() {
+        return recordReader;
+    }
+
+    /**
+     * @return the country table of the database, or {@code null} if country lookups must go through the reader
+     */
+    public CountryTable getCountryTable() {
+        return countryTable;
+    }
+
+    /**
+     * @return {@code false} once a newer generation has replaced this one, results resolved from it should then no
+     * longer be cached
+     */
+    public boolean isCurrent() {
+        return !retired;
+    }
+
+    /**
+     * @return {@code false} if the generation has already been closed and can not be used anymore
+     */
+    boolean acquire() {
+        for (;;) {
+            final int count = references.get();
+            if (count == 0) {
+                return false;
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases a reference obtained from {@link DatabaseReaderService#acquire(String)}.
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            try {
+                reader.close();
+                if (recordReader != null) {
+                    recordReader.close();
+                }
+            } catch (IOException e) {
+                LOG.warn("Unable to close the database reader", e);
+            }
+        }
+    }
+
+    /**
+     * Releases the reference held by the service, once the generation has been replaced or the service closed.
+     */
+    void retire() {
+        retired = true;
+        release();
+    }
+}
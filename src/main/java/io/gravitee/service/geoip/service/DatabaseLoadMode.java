@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.gravitee.service.geoip.service;
+
+/**
+ * How a database file is handed over to the MaxMind reader.
+ *
+ * <ul>
+ *     <li>{@link #HEAP}: the whole database is copied onto the heap (default)</li>
+ *     <li>{@link #MMAP}: the database file is memory mapped, keeping it off-heap</li>
+ * </ul>
+ *
+ * @author GraviteeSource Team
+ */
+public enum DatabaseLoadMode {
+    HEAP,
+    MMAP;
+
+    public static DatabaseLoadMode fromValue(String value) {
+        if (value != null) {
+            for (DatabaseLoadMode mode : values()) {
+                if (mode.name().equalsIgnoreCase(value.trim())) {
+                    return mode;
+                }
+            }
+        }
+        return HEAP;
+    }
+}
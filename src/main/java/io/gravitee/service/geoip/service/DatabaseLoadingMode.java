@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.gravitee.service.geoip.service;
+
+/**
+ * How lookups are handled while no database has been loaded yet.
+ *
+ * <ul>
+ *     <li>{@link #FAIL}: lookups fail right away (default)</li>
+ *     <li>{@link #WAIT}: lookups wait for the database to be loaded, for a bounded time</li>
+ *     <li>{@link #EMBEDDED_FIRST}: the embedded database is loaded next to the configured one and serves lookups until
+ *     the configured one is swapped in, lookups waiting as with {@link #WAIT} until either one is loaded</li>
+ * </ul>
+ *
+ * @author GraviteeSource Team
+ */
+public enum DatabaseLoadingMode {
+    FAIL,
+    WAIT,
+    EMBEDDED_FIRST;
+
+    public static DatabaseLoadingMode fromValue(String value) {
+        if (value != null) {
+            final String normalized = value.trim().replace('-', '_');
+            for (DatabaseLoadingMode mode : values()) {
+                if (mode.name().equalsIgnoreCase(normalized)) {
+                    return mode;
+                }
+            }
+        }
+        return FAIL;
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.gravitee.service.geoip.service;
+
+/**
+ * How lookups received while the databases are being loaded are handled, see {@link DatabaseLoadingMode}.
+ *
+ * @author GraviteeSource Team
+ */
+public final class DatabaseLoadingPolicy {
+
+    public static final long DEFAULT_TIMEOUT = 10_000L;
+
+    private final DatabaseLoadingMode mode;
+    private final long timeout;
+
+    /**
+     * @param timeout how long a lookup waits for its database to be loaded, in milliseconds
+     */
+    public DatabaseLoadingPolicy(DatabaseLoadingMode mode, long timeout) {
+        this.mode = mode;
+        this.timeout = timeout < 1 ? DEFAULT_TIMEOUT : timeout;
+    }
+
+    public static DatabaseLoadingPolicy defaults() {
+        return new DatabaseLoadingPolicy(DatabaseLoadingMode.FAIL, DEFAULT_TIMEOUT);
+    }
+
+    public DatabaseLoadingMode getMode() {
+        return mode;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return whether lookups wait for their database rather than failing while it is being loaded
+     */
+    public boolean isWaiting() {
+        return mode != DatabaseLoadingMode.FAIL;
+    }
+}
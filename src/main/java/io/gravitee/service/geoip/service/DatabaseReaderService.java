@@ -17,6 +17,9 @@
 package io.gravitee.service.geoip.service;
 
 import com.maxmind.geoip2.DatabaseReader;
+import io.gravitee.service.geoip.index.CountryTable;
+import io.gravitee.service.geoip.index.GeoIpRangeIndex;
+import io.vertx.core.Future;
 import java.io.IOException;
 
 /**
@@ -25,11 +28,36 @@ import java.io.IOException;
  */
 public interface DatabaseReaderService {
     String CITY_DB_TYPE = "GeoLite2-City";
+    String COUNTRY_DB_TYPE = "GeoLite2-Country";
+    String ASN_DB_TYPE = "GeoLite2-ASN";
     String DATABASES_GEO_LITE_2_CITY_MMDB = "/databases/GeoLite2-City.mmdb";
 
-    void put(String key, DatabaseReader value);
+    /**
+     * Atomically replaces the database, the previous one being closed once the lookups using it are done.
+     */
+    void put(String key, DatabaseGeneration generation);
 
     DatabaseReader get(String key);
 
+    GeoIpRangeIndex getRangeIndex(String key);
+
+    /**
+     * @return the country table of the current database, or {@code null} if none has been built
+     */
+    CountryTable getCountryTable(String key);
+
+    /**
+     * Pins the current database until {@link DatabaseGeneration#release()} is called, so that it is not closed while
+     * being looked up.
+     *
+     * @return the current database, or {@code null} if none is loaded
+     */
+    DatabaseGeneration acquire(String key);
+
+    /**
+     * @return a future completed once a database has been put under the given key, right away if there already is one
+     */
+    Future<Void> whenLoaded(String key);
+
     void close() throws IOException;
 }
@@ -17,7 +17,10 @@
 package io.gravitee.service.geoip.service;
 
 import com.maxmind.geoip2.DatabaseReader;
-import java.io.IOException;
+import io.gravitee.service.geoip.index.CountryTable;
+import io.gravitee.service.geoip.index.GeoIpRangeIndex;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -27,21 +30,65 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class DatabaseReaderServiceImpl implements DatabaseReaderService {
 
-    private final Map<String, DatabaseReader> readers = new ConcurrentHashMap<>();
+    private final Map<String, DatabaseGeneration> generations = new ConcurrentHashMap<>();
+    private final Map<String, Promise<Void>> loaded = new ConcurrentHashMap<>();
 
     @Override
     public DatabaseReader get(String key) {
-        return readers.get(key);
+        final DatabaseGeneration generation = generations.get(key);
+        return generation == null ? null : generation.getReader();
     }
 
     @Override
-    public void put(String key, DatabaseReader value) {
-        readers.put(key, value);
+    public void put(String key, DatabaseGeneration generation) {
+        final DatabaseGeneration previous = generations.put(key, generation);
+        if (previous != null) {
+            previous.retire();
+        }
+        loaded(key).tryComplete();
+    }
+
+    @Override
+    public Future<Void> whenLoaded(String key) {
+        return loaded(key).future();
+    }
+
+    private Promise<Void> loaded(String key) {
+        return loaded.computeIfAbsent(key, k -> Promise.promise());
+    }
+
+    @Override
+    public GeoIpRangeIndex getRangeIndex(String key) {
+        final DatabaseGeneration generation = generations.get(key);
+        return generation == null ? null : generation.getRangeIndex();
+    }
+
+    @Override
+    public CountryTable getCountryTable(String key) {
+        final DatabaseGeneration generation = generations.get(key);
+        return generation == null ? null : generation.getCountryTable();
     }
 
-    public void close() throws IOException {
-        for (DatabaseReader databaseReader : readers.values()) {
-            databaseReader.close();
+    @Override
+    public DatabaseGeneration acquire(String key) {
+        for (;;) {
+            final DatabaseGeneration generation = generations.get(key);
+            if (generation == null || generation.acquire()) {
+                return generation;
+            }
+            // Replaced and closed in the meantime, the new one is already visible
         }
     }
+
+    @Override
+    public void close() {
+        generations
+            .keySet()
+            .forEach(key -> {
+                final DatabaseGeneration generation = generations.remove(key);
+                if (generation != null) {
+                    generation.retire();
+                }
+            });
+    }
 }
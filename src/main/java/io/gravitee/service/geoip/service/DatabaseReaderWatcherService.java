@@ -17,30 +17,59 @@
 package io.gravitee.service.geoip.service;
 
 import static com.sun.nio.file.SensitivityWatchEventModifier.HIGH;
+import static io.gravitee.service.geoip.service.DatabaseReaderService.ASN_DB_TYPE;
 import static io.gravitee.service.geoip.service.DatabaseReaderService.CITY_DB_TYPE;
+import static io.gravitee.service.geoip.service.DatabaseReaderService.COUNTRY_DB_TYPE;
 import static io.gravitee.service.geoip.service.DatabaseReaderService.DATABASES_GEO_LITE_2_CITY_MMDB;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 import static java.util.Objects.isNull;
 import static java.util.Objects.nonNull;
 
+import com.maxmind.db.CHMCache;
+import com.maxmind.db.Metadata;
+import com.maxmind.db.Reader;
+import com.maxmind.db.Reader.FileMode;
 import com.maxmind.geoip2.DatabaseReader;
 import com.maxmind.geoip2.DatabaseReader.Builder;
 import io.gravitee.service.geoip.cache.GeoIpCache;
+import io.gravitee.service.geoip.index.CountryTable;
+import io.gravitee.service.geoip.index.GeoIpRangeIndex;
+import io.gravitee.service.geoip.metrics.GeoIpMetrics;
+import io.gravitee.service.geoip.model.GeoData;
+import io.gravitee.service.geoip.model.GeoProjection;
+import io.gravitee.service.geoip.model.NetworkGeoData;
+import io.gravitee.service.geoip.utils.IpAddressKeys;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchEvent.Kind;
+import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
-import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.zip.CRC32C;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,130 +80,931 @@ import org.slf4j.LoggerFactory;
 public class DatabaseReaderWatcherService implements Runnable {
 
     private static final Logger LOG = LoggerFactory.getLogger(DatabaseReaderWatcherService.class);
+    private static final int RANGE_INDEX_DECODER_CACHE_SIZE = 1 << 18;
+    private static final String REWARM_THREAD_NAME_PREFIX = "gravitee-geoip-rewarm-";
+    public static final long DEFAULT_WATCH_DEBOUNCE = 1000L;
 
-    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    // Loads the embedded and the configured databases, and watches the configured one
+    private final ExecutorService executor = Executors.newFixedThreadPool(3);
     private final DatabaseReaderService databaseReaderService;
-    private final String cityNameDatabase;
+    private final String databaseFilename;
     private final GeoIpFinderService geoIpFinderService;
     private final GeoIpCache cache;
-    private boolean started;
+    private String databaseType = CITY_DB_TYPE;
+    private String embeddedDatabase = DATABASES_GEO_LITE_2_CITY_MMDB;
+    private DatabaseLoadMode loadMode = DatabaseLoadMode.HEAP;
+    private boolean rangeIndexEnabled;
+    private CacheRewarmPolicy rewarmPolicy = CacheRewarmPolicy.defaults();
+    private GeoIpCacheSnapshot cacheSnapshot;
+    private boolean embeddedFirst;
+    private boolean countryTableEnabled;
+    private long watchDebounce = DEFAULT_WATCH_DEBOUNCE;
+    private WatchService watchService;
+    private volatile DatabaseFingerprint loadedFingerprint;
+    // Loads of the configured database are numbered in the order they start, the embedded database being load 0
+    private final AtomicLong loadSequence = new AtomicLong();
+    private long publishedSequence;
+    private volatile boolean started;
 
+    // Files mapped by the readers when running in MMAP mode: the embedded database, extracted once, and the copy of
+    // the configured database mapped by the current generation
+    private volatile File embeddedDatabaseFile;
+    private volatile File databaseSnapshotFile;
+
+    /**
+     * Watches a city database, falling back to the embedded one, loaded on heap. The other settings are set through
+     * the fluent setters, before {@link #start(boolean)} is called.
+     */
     public DatabaseReaderWatcherService(
         DatabaseReaderService databaseReaderService,
         GeoIpFinderService geoIpFinderService,
         GeoIpCache cache,
-        String cityNameDatabase
+        String databaseFilename
     ) {
         this.cache = cache;
         this.databaseReaderService = databaseReaderService;
         this.geoIpFinderService = geoIpFinderService;
-        this.cityNameDatabase = cityNameDatabase;
+        this.databaseFilename = databaseFilename;
     }
 
+    /**
+     * Reloads the database once per update of its file. Updates are detected from the modification of the file as
+     * well as from its creation, which is what an atomic rename over it looks like. As copying a database in emits
+     * many events, the file is only loaded once it has neither been touched nor changed size or modification time
+     * for the debounce period, and only if its content differs from the loaded one.
+     */
     @Override
     public void run() {
+        final Path path = Paths.get(databaseFilename).toAbsolutePath();
         try {
-            WatchService watcherService = FileSystems.getDefault().newWatchService();
-            final File file = new File(cityNameDatabase);
-            Path path = file.toPath();
-            Path directory = path.getParent();
-            directory.register(watcherService, new Kind[] { ENTRY_MODIFY }, HIGH);
             while (started) {
-                var watchKey = watcherService.poll(200, TimeUnit.MILLISECONDS);
-                if (nonNull(watchKey)) {
-                    watchKey
-                        .pollEvents()
-                        .stream()
-                        .map(watchEvent -> ((WatchEvent<Path>) watchEvent).context().getFileName())
-                        .filter(path.getFileName()::equals)
-                        .findAny()
-                        .ifPresent(__ -> loadDatabase(cityNameDatabase, CITY_DB_TYPE, DATABASES_GEO_LITE_2_CITY_MMDB));
-                    if (!watchKey.reset()) {
-                        throw new InterruptedException("watchKey could not reset");
-                    }
+                if (awaitChange(path, 200)) {
+                    awaitQuietPeriod(path);
+                    reloadIfChanged(path);
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Closed on stop
+            LOG.debug("{} database watcher stopped", databaseType);
         } catch (Exception e) {
-            LOG.error("Password dictionary watcher stopped. Reason:", e);
+            if (started) {
+                LOG.error("{} database watcher stopped. Reason:", databaseType, e);
+            } else {
+                LOG.debug("{} database watcher stopped", databaseType, e);
+            }
+        }
+    }
+
+    /**
+     * @return whether the database file has been touched in the given period
+     */
+    private boolean awaitChange(Path path, long timeout) throws InterruptedException {
+        final WatchKey watchKey = watchService.poll(timeout, TimeUnit.MILLISECONDS);
+        if (isNull(watchKey)) {
+            return false;
+        }
+        final boolean changed = watchKey
+            .pollEvents()
+            .stream()
+            .map(watchEvent -> ((WatchEvent<Path>) watchEvent).context())
+            .anyMatch(path.getFileName()::equals);
+        if (!watchKey.reset()) {
+            throw new IllegalStateException("The watched directory " + path.getParent() + " is no longer accessible");
         }
+        return changed;
+    }
+
+    private void awaitQuietPeriod(Path path) throws InterruptedException {
+        FileState previous = FileState.of(path);
+        while (started) {
+            if (awaitChange(path, watchDebounce)) {
+                previous = FileState.of(path);
+                continue;
+            }
+            final FileState current = FileState.of(path);
+            if (current.equals(previous)) {
+                return;
+            }
+            previous = current;
+        }
+    }
+
+    private void reloadIfChanged(Path path) {
+        if (!Files.isRegularFile(path)) {
+            LOG.warn("The {} database {} has been removed, keeping the current one", databaseType, path);
+            return;
+        }
+        final DatabaseFingerprint fingerprint = DatabaseFingerprint.of(path);
+        if (nonNull(fingerprint) && fingerprint.equals(loadedFingerprint)) {
+            LOG.debug("The {} database {} has been touched but not changed, it is not reloaded", databaseType, path);
+            return;
+        }
+        loadDatabase(databaseFilename, databaseType, embeddedDatabase, fingerprint);
+    }
+
+    /**
+     * Sets the database watched, to be called before {@link #start(boolean)}.
+     *
+     * @param databaseType the key of the database in the {@link DatabaseReaderService}
+     * @param embeddedDatabase the classpath location of the database to fall back to, or {@code null} if there is none
+     */
+    public DatabaseReaderWatcherService database(String databaseType, String embeddedDatabase) {
+        this.databaseType = databaseType;
+        this.embeddedDatabase = embeddedDatabase;
+        return this;
+    }
+
+    /**
+     * Sets how the database is loaded, to be called before {@link #start(boolean)}.
+     */
+    public DatabaseReaderWatcherService loadMode(DatabaseLoadMode loadMode) {
+        this.loadMode = loadMode;
+        return this;
+    }
+
+    /**
+     * Sets whether a {@link GeoIpRangeIndex} is built along with each loaded database, to be called before
+     * {@link #start(boolean)}. Only city databases are indexed.
+     */
+    public DatabaseReaderWatcherService rangeIndex(boolean rangeIndexEnabled) {
+        this.rangeIndexEnabled = rangeIndexEnabled;
+        return this;
+    }
+
+    /**
+     * Sets how the cache is re-warmed when the database is reloaded, to be called before {@link #start(boolean)}.
+     */
+    public DatabaseReaderWatcherService rewarmPolicy(CacheRewarmPolicy rewarmPolicy) {
+        this.rewarmPolicy = rewarmPolicy;
+        return this;
+    }
+
+    /**
+     * Sets whether a {@link CountryTable} is built along with each loaded database, to be called before
+     * {@link #start(boolean)}. Only city and country databases locate addresses by country.
+     */
+    public DatabaseReaderWatcherService countryTable(boolean countryTableEnabled) {
+        this.countryTableEnabled = countryTableEnabled;
+        return this;
+    }
+
+    /**
+     * Sets where the cache is persisted on stop and restored from once the database is loaded, to be called before
+     * {@link #start(boolean)}.
+     */
+    public DatabaseReaderWatcherService cacheSnapshot(GeoIpCacheSnapshot cacheSnapshot) {
+        this.cacheSnapshot = cacheSnapshot;
+        return this;
+    }
+
+    /**
+     * Sets whether the embedded database is loaded along with the configured one to serve lookups until the
+     * configured one is swapped in (see {@link DatabaseLoadingMode#EMBEDDED_FIRST}), to be called before
+     * {@link #start(boolean)}.
+     */
+    public DatabaseReaderWatcherService loadingPolicy(DatabaseLoadingPolicy loadingPolicy) {
+        this.embeddedFirst = loadingPolicy.getMode() == DatabaseLoadingMode.EMBEDDED_FIRST;
+        return this;
+    }
+
+    /**
+     * Sets how long the watched file must stay untouched before being loaded, in milliseconds, to be called before
+     * {@link #start(boolean)}.
+     */
+    public DatabaseReaderWatcherService watchDebounce(long watchDebounce) {
+        this.watchDebounce = watchDebounce < 1 ? DEFAULT_WATCH_DEBOUNCE : watchDebounce;
+        return this;
     }
 
     public DatabaseReaderWatcherService start(boolean watch) {
         started = true;
-        if (nonNull(cityNameDatabase)) {
-            executor.submit(() -> loadDatabase(cityNameDatabase, CITY_DB_TYPE, DATABASES_GEO_LITE_2_CITY_MMDB));
-            if (watch) {
+        if (nonNull(databaseFilename)) {
+            if (embeddedFirst && nonNull(embeddedDatabase)) {
+                // Both are loaded concurrently, the configured database replacing the embedded one if it is slower
+                executor.submit(this.loadEmbeddedDefaultReader(databaseType, embeddedDatabase));
+            }
+            executor.submit(() ->
+                loadDatabase(databaseFilename, databaseType, embeddedDatabase, DatabaseFingerprint.of(Paths.get(databaseFilename)))
+            );
+            // The directory is watched right away so that no update is missed while the database is being loaded
+            if (watch && registerWatchService()) {
                 executor.submit(this);
             }
         } else {
-            executor.submit(this.loadEmbeddedDefaultReader(CITY_DB_TYPE, DATABASES_GEO_LITE_2_CITY_MMDB));
+            executor.submit(this.loadEmbeddedDefaultReader(databaseType, embeddedDatabase));
         }
         return this;
     }
 
-    private void loadDatabase(String databaseName, String cityDbType, String databaseClasspathName) {
-        LOG.info("Loading {} database", cityDbType);
-        var optionalReader = loadReader(databaseName, false);
+    private boolean registerWatchService() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            Paths
+                .get(databaseFilename)
+                .toAbsolutePath()
+                .getParent()
+                .register(watchService, new Kind[] { ENTRY_CREATE, ENTRY_MODIFY }, HIGH);
+            return true;
+        } catch (IOException e) {
+            LOG.error("Unable to watch the {} database {}, it will not be reloaded", databaseType, databaseFilename, e);
+            return false;
+        }
+    }
+
+    /**
+     * @param fingerprint the fingerprint of the file about to be loaded, recorded once it has been swapped in
+     */
+    private void loadDatabase(String databaseName, String dbType, String databaseClasspathName, DatabaseFingerprint fingerprint) {
+        LOG.info("Loading {} database", dbType);
+        final long start = System.nanoTime();
+        final long sequence = loadSequence.incrementAndGet();
+        final File mappedFile = mappedFile(databaseName, false);
+        var optionalReader = loadReader(databaseName, false, mappedFile);
         optionalReader.ifPresentOrElse(
             // If present we load the new reader
-            refreshAndLoadDatabase(cityDbType),
+            refreshAndLoadDatabase(dbType, start, new Load(sequence, mappedFile, fingerprint)),
             // Unless there is no reader present (we might have a working reader before) we load the embedded db
-            loadEmbeddedDefaultReader(cityDbType, databaseClasspathName)
+            () -> {
+                deleteQuietly(mappedFile);
+                cache.getMetrics().reloadFailed();
+                loadEmbeddedDefaultReader(dbType, databaseClasspathName).run();
+            }
         );
     }
 
-    private Consumer<DatabaseReader> refreshAndLoadDatabase(String cityDbType) {
+    /**
+     * Swaps the new database in without pausing lookups: it is validated and the cached entries are re-resolved
+     * against it (in parallel) before the cache and the reader are replaced. Lookups still running against the
+     * previous reader complete normally, the reader being closed once they are done, but their results are no longer
+     * cached.
+     */
+    private Consumer<DatabaseReader> refreshAndLoadDatabase(String dbType, long start, Load load) {
         return reader -> {
-            databaseReaderService.put(cityDbType, reader);
+            if (!isValid(dbType, reader)) {
+                closeQuietly(reader);
+                deleteQuietly(load.mappedFile);
+                cache.getMetrics().reloadFailed();
+                return;
+            }
+            final DatabaseGeneration generation = newGeneration(dbType, reader, load.mappedFile);
             // We refresh only if there was data before
-            var oldReader = databaseReaderService.get(cityDbType);
-            if (nonNull(oldReader)) {
-                refreshDataIfNecessary(reader);
+            int rewarmed = 0;
+            if (putIfAbsent(dbType, generation, load)) {
+                restoreCacheSnapshot(generation);
+            } else {
+                geoIpFinderService.clearInternedRecords(dbType);
+                final Rewarm rewarm = rewarm(generation);
+                if (!swap(dbType, generation, rewarm, load)) {
+                    LOG.info("A more recent {} database has been loaded meanwhile, this one is dropped", dbType);
+                    generation.retire();
+                    deleteQuietly(load.mappedFile);
+                    return;
+                }
+                rewarmed = rewarm.count;
             }
-            LOG.info("{} database loaded", cityDbType);
+            cache.getMetrics().reloaded(System.nanoTime() - start, rewarmed);
+            LOG.info("{} database loaded, its cache holds {} entries weighing {} bytes", dbType, cache.size(), cache.weight());
         };
     }
 
-    private void refreshDataIfNecessary(DatabaseReader reader) {
-        final Set<InetAddress> inetAddresses = this.cache.getCache().keySet();
-        inetAddresses.forEach(ip -> {
+    private boolean isValid(String dbType, DatabaseReader reader) {
+        try {
+            final Metadata metadata = reader.getMetadata();
+            if (metadata.getBinaryFormatMajorVersion() != 2 || (metadata.getIpVersion() != 4 && metadata.getIpVersion() != 6)) {
+                LOG.error("The new {} database is not a valid MaxMind DB (metadata {}), keeping the current one", dbType, metadata);
+                return false;
+            }
+            final DatabaseReader current = databaseReaderService.get(dbType);
+            if (nonNull(current) && metadata.getBuildDate().before(current.getMetadata().getBuildDate())) {
+                LOG.warn(
+                    "The new {} database has been built on {}, before the current one ({})",
+                    dbType,
+                    metadata.getBuildDate(),
+                    current.getMetadata().getBuildDate()
+                );
+            }
+            // Fails on databases of another type, and on corrupted search trees
+            final InetAddress probe = InetAddress.getByAddress(new byte[] { 8, 8, 8, 8 });
+            switch (dbType) {
+                case CITY_DB_TYPE:
+                    reader.tryCity(probe);
+                    break;
+                case COUNTRY_DB_TYPE:
+                    reader.tryCountry(probe);
+                    break;
+                case ASN_DB_TYPE:
+                    reader.tryAsn(probe);
+                    break;
+                default:
+                    reader.getMetadata();
+            }
+            return true;
+        } catch (Exception e) {
+            LOG.error("The new {} database is invalid, keeping the current one", dbType, e);
+            return false;
+        }
+    }
+
+    /**
+     * Re-resolves the cached entries against the new database on a pool sized by the {@link CacheRewarmPolicy}. The
+     * entries are split in chunks submitted hottest first, and the coldest entries over the cap of the policy are
+     * dropped instead of being re-resolved.
+     */
+    private Rewarm rewarm(DatabaseGeneration generation) {
+        final long start = System.currentTimeMillis();
+        final Rewarm rewarm = new Rewarm(cache, rewarmPolicy);
+        final int entries = rewarm.highs.length;
+        final GeoIpMetrics metrics = cache.getMetrics();
+        metrics.rewarmStarted(entries, rewarm.dropped);
+        LOG.info(
+            "Re-resolving {} {} cache entries with {} threads ({} entries dropped)",
+            entries,
+            databaseType,
+            rewarmPolicy.getParallelism(),
+            rewarm.dropped
+        );
+        final ExecutorService rewarmExecutor = newRewarmExecutor();
+        final AtomicInteger resolved = new AtomicInteger();
+        try {
+            // The queue of the pool being FIFO, the chunks of hot entries are resolved first
+            final List<Future<?>> chunks = new ArrayList<>();
+            for (int from = 0; from < entries; from += rewarmPolicy.getChunkSize()) {
+                final int chunkStart = from;
+                final int chunkEnd = Math.min(entries, from + rewarmPolicy.getChunkSize());
+                chunks.add(
+                    rewarmExecutor.submit(() -> {
+                        rewarmChunk(rewarm, generation, chunkStart, chunkEnd);
+                        logRewarmProgress(resolved.addAndGet(chunkEnd - chunkStart), chunkEnd - chunkStart, entries);
+                    })
+                );
+            }
+            for (Future<?> chunk : chunks) {
+                chunk.get();
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("{} cache re-warm interrupted, the entries not re-resolved yet are dropped", databaseType);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOG.error("{} cache re-warm failed, the entries not re-resolved yet are dropped", databaseType, e.getCause());
+        } finally {
+            rewarmExecutor.shutdownNow();
+            metrics.rewarmEnded();
+        }
+        rewarm.compact();
+        LOG.info("{} cache entries re-resolved in {} ms", rewarm.count, System.currentTimeMillis() - start);
+        return rewarm;
+    }
+
+    private void rewarmChunk(Rewarm rewarm, DatabaseGeneration generation, int from, int to) {
+        for (int i = from; i < to && !Thread.currentThread().isInterrupted(); i++) {
             try {
-                this.cache.put(ip, this.geoIpFinderService.retrieveCityGeoData(ip, reader));
+                // Addresses no longer in the database are kept as negative entries
+                final NetworkGeoData found = geoIpFinderService.findNetworkGeoData(
+                    databaseType,
+                    rewarm.highs[i],
+                    rewarm.lows[i],
+                    generation,
+                    rewarm.projections[i]
+                );
+                rewarm.prefixLengths[i] = found.getPrefixLength();
+                rewarm.values[i] = found.getGeoData();
             } catch (Exception e) {
-                LOG.error("Could not refresh entry {}, reason:", ip, e);
+                LOG.error("Could not refresh entry {}, reason:", IpAddressKeys.toInetAddress(rewarm.highs[i], rewarm.lows[i]), e);
+            }
+        }
+        cache.getMetrics().rewarmProgressed(to - from);
+    }
+
+    private void logRewarmProgress(int resolved, int chunk, int entries) {
+        // Logs every tenth of the entries
+        if (chunk < entries && (resolved * 10L) / entries > ((resolved - chunk) * 10L) / entries) {
+            LOG.info("{} cache re-warm: {}/{} entries re-resolved", databaseType, resolved, entries);
+        }
+    }
+
+    private ExecutorService newRewarmExecutor() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(
+            rewarmPolicy.getParallelism(),
+            runnable -> {
+                final Thread thread = new Thread(runnable, REWARM_THREAD_NAME_PREFIX + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        );
+    }
+
+    /**
+     * A load of the database, with what is recorded once its generation is published.
+     */
+    private static final class Load {
+
+        private static final Load EMBEDDED = new Load(0L, null, null);
+
+        private final long sequence;
+        // The copy of the configured database mapped by the generation, or null
+        private final File mappedFile;
+        // The fingerprint of the configured file, or null
+        private final DatabaseFingerprint fingerprint;
+
+        private Load(long sequence, File mappedFile, DatabaseFingerprint fingerprint) {
+            this.sequence = sequence;
+            this.mappedFile = mappedFile;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * The cached addresses, hottest first, with the properties they were cached with, and their data once resolved
+     * against the new database.
+     */
+    private static final class Rewarm {
+
+        private final long[] highs;
+        private final long[] lows;
+        private final GeoProjection[] projections;
+        private final int[] prefixLengths;
+        private final GeoData[] values;
+        private final int dropped;
+        private int count;
+
+        private Rewarm(GeoIpCache cache, CacheRewarmPolicy policy) {
+            final List<GeoData> cached = new ArrayList<>();
+            final List<long[]> keys = new ArrayList<>();
+            cache.forEach((high, low, prefixLength, value) -> {
+                keys.add(new long[] { high, low });
+                cached.add(value);
+            });
+            final int length = policy.entriesToRewarm(keys.size());
+            dropped = keys.size() - length;
+            highs = new long[length];
+            lows = new long[length];
+            projections = new GeoProjection[length];
+            prefixLengths = new int[length];
+            values = new GeoData[length];
+            for (int i = 0; i < length; i++) {
+                highs[i] = keys.get(i)[0];
+                lows[i] = keys.get(i)[1];
+                projections[i] = cached.get(i).getProjection();
             }
-        });
+        }
+
+        private void compact() {
+            count = 0;
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    highs[count] = highs[i];
+                    lows[count] = lows[i];
+                    prefixLengths[count] = prefixLengths[i];
+                    values[count++] = values[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills the cache with the entries of the snapshot taken on the last stop. It runs once the database has been
+     * loaded, on the loading thread, so it never delays the start of the service: lookups are served meanwhile, and
+     * addresses they have already cached are skipped.
+     */
+    private void restoreCacheSnapshot(DatabaseGeneration generation) {
+        if (isNull(cacheSnapshot)) {
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        final int[] resolved = new int[1];
+        try {
+            final int restored = cacheSnapshot.restore(
+                databaseType,
+                generation.getReader().getMetadata(),
+                geoIpFinderService,
+                (high, low, prefixLength, projection, data) -> {
+                    // Stops filling the cache once the database has been reloaded, the reload re-warming it
+                    if (databaseReaderService.get(databaseType) != generation.getReader() || nonNull(cache.get(high, low))) {
+                        return;
+                    }
+                    if (nonNull(data)) {
+                        cache.put(generation, high, low, prefixLength, data);
+                        return;
+                    }
+                    try {
+                        final NetworkGeoData found = geoIpFinderService.findNetworkGeoData(databaseType, high, low, generation, projection);
+                        cache.put(generation, high, low, found.getPrefixLength(), found.getGeoData());
+                        resolved[0]++;
+                    } catch (Exception e) {
+                        LOG.debug("Could not restore entry {}", IpAddressKeys.toInetAddress(high, low), e);
+                    }
+                }
+            );
+            LOG.info(
+                "{} {} cache entries restored from {} in {} ms ({} re-resolved), the cache weighs {} bytes",
+                restored,
+                databaseType,
+                cacheSnapshot.getFile(databaseType),
+                System.currentTimeMillis() - start,
+                resolved[0],
+                cache.weight()
+            );
+        } catch (IOException e) {
+            LOG.warn("Unable to restore the {} cache snapshot", databaseType, e);
+        }
     }
 
-    private Runnable loadEmbeddedDefaultReader(String cityDbType, String databaseClasspathName) {
+    /**
+     * Persists the cache along with the type and build of the current database, if a snapshot has been configured.
+     */
+    public void saveCacheSnapshot() {
+        final DatabaseReader reader = databaseReaderService.get(databaseType);
+        if (isNull(cacheSnapshot) || isNull(reader)) {
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        try {
+            final int saved = cacheSnapshot.save(databaseType, reader.getMetadata(), cache);
+            LOG.info(
+                "{} {} cache entries saved to {} in {} ms",
+                saved,
+                databaseType,
+                cacheSnapshot.getFile(databaseType),
+                System.currentTimeMillis() - start
+            );
+        } catch (IOException e) {
+            LOG.warn("Unable to save the {} cache snapshot", databaseType, e);
+        }
+    }
+
+    /**
+     * Size and modification time of a file, which keep changing while it is being written.
+     */
+    private static final class FileState {
+
+        private static final FileState ABSENT = new FileState(-1L, -1L);
+
+        private final long size;
+        private final long lastModified;
+
+        private FileState(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        private static FileState of(Path path) {
+            try {
+                return new FileState(Files.size(path), Files.getLastModifiedTime(path).toMillis());
+            } catch (IOException e) {
+                return ABSENT;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof FileState)) {
+                return false;
+            }
+            final FileState that = (FileState) o;
+            return size == that.size && lastModified == that.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(size) * 31 + Long.hashCode(lastModified);
+        }
+    }
+
+    /**
+     * Size and CRC32C checksum of the content of a database file, telling a rewritten database from a touched one.
+     */
+    private static final class DatabaseFingerprint {
+
+        private static final int BUFFER_SIZE = 1 << 20;
+
+        private final long size;
+        private final long checksum;
+
+        private DatabaseFingerprint(long size, long checksum) {
+            this.size = size;
+            this.checksum = checksum;
+        }
+
+        /**
+         * @return the fingerprint of the file, or {@code null} if it could not be read
+         */
+        private static DatabaseFingerprint of(Path path) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                final CRC32C crc = new CRC32C();
+                final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                long size = 0;
+                int read;
+                while ((read = channel.read(buffer)) >= 0) {
+                    size += read;
+                    buffer.flip();
+                    crc.update(buffer);
+                    buffer.clear();
+                }
+                return new DatabaseFingerprint(size, crc.getValue());
+            } catch (IOException e) {
+                LOG.debug("Unable to compute the checksum of {}", path, e);
+                return null;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof DatabaseFingerprint)) {
+                return false;
+            }
+            final DatabaseFingerprint that = (DatabaseFingerprint) o;
+            return size == that.size && checksum == that.checksum;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(size) * 31 + Long.hashCode(checksum);
+        }
+    }
+
+    private void closeQuietly(DatabaseReader reader) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            LOG.debug("Unable to close the database reader", e);
+        }
+    }
+
+    private Runnable loadEmbeddedDefaultReader(String dbType, String databaseClasspathName) {
         return () -> {
             // We load only once the embedded data
             // we don't want to override if the previous databaseReader worked
-            if (isNull(databaseReaderService.get(cityDbType))) {
-                var optionalDefaultReader = loadReader(databaseClasspathName, true);
+            if (isNull(databaseReaderService.get(dbType))) {
+                if (isNull(databaseClasspathName)) {
+                    LOG.warn("No {} database could be loaded, and there is no embedded one to fall back to", dbType);
+                    return;
+                }
+                final File mappedFile = mappedFile(databaseClasspathName, true);
+                var optionalDefaultReader = loadReader(databaseClasspathName, true, mappedFile);
                 if (optionalDefaultReader.isPresent()) {
-                    LOG.info("Fallback to {} embedded database", CITY_DB_TYPE);
-                    databaseReaderService.put(cityDbType, optionalDefaultReader.get());
-                    LOG.info("{} embedded database loaded", cityDbType);
+                    LOG.info("Fallback to {} embedded database", dbType);
+                    final DatabaseGeneration generation = newGeneration(dbType, optionalDefaultReader.get(), mappedFile);
+                    // The embedded database is extracted once for good, it is not tracked as a snapshot
+                    if (!putIfAbsent(dbType, generation, Load.EMBEDDED)) {
+                        // The configured database has been loaded in the meantime
+                        generation.retire();
+                        return;
+                    }
+                    LOG.info("{} embedded database loaded", dbType);
+                    restoreCacheSnapshot(generation);
                 }
             }
         };
     }
 
-    private Optional<DatabaseReader> loadReader(String filename, boolean isClasspath) {
+    /**
+     * In mmap mode, every reader of a load maps the same file, which is handed over to each of them rather than read
+     * back from a field: a concurrent load (a reload racing the initial load, for instance) maps another file. In heap
+     * mode, the range index, the country table and the City record reader map the file the database reader is loaded
+     * from, rather than another heap copy of the database.
+     *
+     * @return the file to map, or {@code null} if nothing maps it or if the database could not be copied
+     */
+    private File mappedFile(String filename, boolean isClasspath) {
+        if (loadMode != DatabaseLoadMode.MMAP && !CITY_DB_TYPE.equals(databaseType) && !hasCountryTable()) {
+            return null;
+        }
+        try {
+            return isClasspath ? extractEmbeddedDatabase(filename) : snapshotDatabase(filename);
+        } catch (IOException e) {
+            LOG.error("An unexpected error has occurred", e);
+        }
+        return null;
+    }
+
+    private Optional<DatabaseReader> loadReader(String filename, boolean isClasspath, File mappedFile) {
         try {
-            var inputStream = isClasspath ? this.getClass().getResourceAsStream(filename) : new FileInputStream(filename);
-            return Optional.of(new Builder(inputStream).build());
+            if (nonNull(mappedFile)) {
+                final FileMode fileMode = loadMode == DatabaseLoadMode.MMAP ? FileMode.MEMORY_MAPPED : FileMode.MEMORY;
+                return Optional.of(new Builder(mappedFile).fileMode(fileMode).build());
+            }
+            if (loadMode == DatabaseLoadMode.MMAP) {
+                return Optional.empty();
+            }
+            try (var inputStream = isClasspath ? this.getClass().getResourceAsStream(filename) : new FileInputStream(filename)) {
+                return Optional.of(new Builder(inputStream).build());
+            }
         } catch (IOException e) {
             LOG.error("An unexpected error has occurred", e);
         }
         return Optional.empty();
     }
 
+    /**
+     * The embedded and the configured databases can be loaded concurrently, only the first one loaded is put without
+     * being compared with the current one.
+     *
+     * @return whether the given generation has been put, there being no database loaded yet
+     */
+    private synchronized boolean putIfAbsent(String dbType, DatabaseGeneration generation, Load load) {
+        if (nonNull(databaseReaderService.get(dbType))) {
+            return false;
+        }
+        cache.bind(generation);
+        databaseReaderService.put(dbType, generation);
+        published(load);
+        return true;
+    }
+
+    /**
+     * Replaces the cache by the entries re-warmed against the new generation before publishing the generation, both
+     * bound together: once lookups see the new reader the cache only holds entries of the new database, and data
+     * resolved from the previous one by lookups still running is not cached anymore.
+     *
+     * <p>Loads may complete out of order, a reload of an updated file completing before a slow initial load for
+     * instance: a load started before the published one is not swapped in.
+     *
+     * @return whether the given generation has been put
+     */
+    private synchronized boolean swap(String dbType, DatabaseGeneration generation, Rewarm rewarm, Load load) {
+        if (load.sequence < publishedSequence) {
+            return false;
+        }
+        cache.replaceAll(generation, rewarm.highs, rewarm.lows, rewarm.prefixLengths, rewarm.values, rewarm.count);
+        databaseReaderService.put(dbType, generation);
+        published(load);
+        return true;
+    }
+
+    private void published(Load load) {
+        publishedSequence = load.sequence;
+        if (nonNull(load.fingerprint)) {
+            loadedFingerprint = load.fingerprint;
+        }
+        replaceSnapshot(load.mappedFile);
+    }
+
+    /**
+     * Deletes the copy mapped by the replaced generation, once the new generation has been put: the readers of the
+     * replaced one have opened it already, and their mappings stay valid once the file is unlinked.
+     */
+    private void replaceSnapshot(File snapshot) {
+        if (isNull(snapshot)) {
+            return;
+        }
+        final File previous = databaseSnapshotFile;
+        databaseSnapshotFile = snapshot;
+        deleteQuietly(previous);
+    }
+
+    private boolean isRangeIndexed() {
+        return rangeIndexEnabled && CITY_DB_TYPE.equals(databaseType);
+    }
+
+    private boolean hasCountryTable() {
+        return countryTableEnabled && (CITY_DB_TYPE.equals(databaseType) || COUNTRY_DB_TYPE.equals(databaseType));
+    }
+
+    /**
+     * Builds the range index and the country table, if enabled, once the reader has been loaded and validated. Both
+     * are built in turn on the loading thread from a single mapping of the database, its decoder cache ensuring records
+     * shared by many networks are decoded once.
+     */
+    private DatabaseGeneration newGeneration(String dbType, DatabaseReader reader, File mappedFile) {
+        GeoIpRangeIndex rangeIndex = null;
+        CountryTable countryTable = null;
+        if (nonNull(mappedFile) && (isRangeIndexed() || hasCountryTable())) {
+            try (Reader source = new Reader(mappedFile, FileMode.MEMORY_MAPPED, new CHMCache(RANGE_INDEX_DECODER_CACHE_SIZE))) {
+                rangeIndex = buildRangeIndex(dbType, source);
+                countryTable = buildCountryTable(dbType, source);
+            } catch (IOException e) {
+                LOG.error("Unable to open the {} database to index it, lookups will use the database reader", dbType, e);
+            }
+        }
+        return new DatabaseGeneration(reader, rangeIndex, openRecordReader(dbType, mappedFile), countryTable);
+    }
+
+    private GeoIpRangeIndex buildRangeIndex(String dbType, Reader source) {
+        if (!isRangeIndexed()) {
+            return null;
+        }
+        final long start = System.currentTimeMillis();
+        try {
+            final GeoIpRangeIndex rangeIndex = GeoIpRangeIndex.build(source, geoIpFinderService::render);
+            LOG.info(
+                "{} range index built in {} ms ({} IPv4 ranges, {} IPv6 ranges, {} records)",
+                dbType,
+                System.currentTimeMillis() - start,
+                rangeIndex.ipv4RangeCount(),
+                rangeIndex.ipv6RangeCount(),
+                rangeIndex.recordCount()
+            );
+            return rangeIndex;
+        } catch (Exception e) {
+            LOG.error("Unable to build the {} range index, lookups will use the database reader", dbType, e);
+        }
+        return null;
+    }
+
+    private CountryTable buildCountryTable(String dbType, Reader source) {
+        if (!hasCountryTable()) {
+            return null;
+        }
+        final long start = System.currentTimeMillis();
+        try {
+            final CountryTable countryTable = CountryTable.build(source);
+            LOG.info(
+                "{} country table built in {} ms ({} countries, {} split /24 blocks)",
+                dbType,
+                System.currentTimeMillis() - start,
+                countryTable.countryCount(),
+                countryTable.splitBlockCount()
+            );
+            return countryTable;
+        } catch (Exception e) {
+            LOG.error("Unable to build the {} country table, country lookups will use the database reader", dbType, e);
+        }
+        return null;
+    }
+
+    /**
+     * Opens a raw reader decoding only the parts of the records lookups ask for. It always maps the database, in heap
+     * mode as well: a second heap copy would double the memory used by the database, while the mapping only costs the
+     * pages projected lookups actually read.
+     */
+    private Reader openRecordReader(String dbType, File mappedFile) {
+        if (isNull(mappedFile) || !CITY_DB_TYPE.equals(dbType)) {
+            return null;
+        }
+        try {
+            return new Reader(mappedFile, FileMode.MEMORY_MAPPED, new CHMCache());
+        } catch (IOException e) {
+            LOG.error("Unable to open the {} record reader, lookups will decode full records", dbType, e);
+        }
+        return null;
+    }
+
+    /**
+     * The embedded database can not be mapped from within the plugin archive, so it is extracted once to a temporary
+     * file which is then reused by every subsequent fallback.
+     */
+    private synchronized File extractEmbeddedDatabase(String databaseClasspathName) throws IOException {
+        if (isNull(embeddedDatabaseFile) || !embeddedDatabaseFile.exists()) {
+            try (InputStream inputStream = this.getClass().getResourceAsStream(databaseClasspathName)) {
+                if (isNull(inputStream)) {
+                    throw new IOException("Embedded database " + databaseClasspathName + " not found");
+                }
+                embeddedDatabaseFile = copyToTempFile(inputStream);
+            }
+        }
+        return embeddedDatabaseFile;
+    }
+
+    /**
+     * A watched database is modified in place, and a mapping of a file being rewritten would read a half-written
+     * database (or fault when the file shrinks). Each load therefore maps a private copy of the configured file, which
+     * is only deleted once replaced (see {@link #replaceSnapshot(File)}) or found invalid.
+     */
+    private File snapshotDatabase(String databaseName) throws IOException {
+        try (InputStream inputStream = new FileInputStream(databaseName)) {
+            return copyToTempFile(inputStream);
+        }
+    }
+
+    private File copyToTempFile(InputStream inputStream) throws IOException {
+        final Path tempFile = Files.createTempFile("gravitee-geoip-", ".mmdb");
+        tempFile.toFile().deleteOnExit();
+        Files.copy(inputStream, tempFile, StandardCopyOption.REPLACE_EXISTING);
+        return tempFile.toFile();
+    }
+
+    private void deleteQuietly(File file) {
+        if (nonNull(file)) {
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                LOG.debug("Unable to delete {}, it will be removed on exit", file, e);
+            }
+        }
+    }
+
     public void close() {
         LOG.info("Closing {} ", this.getClass().getName());
         started = false;
         executor.shutdown();
+        if (nonNull(watchService)) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                LOG.debug("Unable to close the {} database watcher", databaseType, e);
+            }
+        }
+        deleteQuietly(embeddedDatabaseFile);
+        deleteQuietly(databaseSnapshotFile);
         LOG.info("{} closed", this.getClass().getName());
     }
 }
@@ -0,0 +1,413 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.gravitee.service.geoip.service;
+
+import com.maxmind.db.Metadata;
+import io.gravitee.service.geoip.cache.GeoIpCache;
+import io.gravitee.service.geoip.model.GeoData;
+import io.gravitee.service.geoip.model.GeoProjection;
+import io.gravitee.service.geoip.model.GeoProperty;
+import io.gravitee.service.geoip.model.NetworkGeoData;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persists the cached addresses of a database on stop so that a restarted gateway starts with a warm cache.
+ *
+ * <p>A snapshot holds the type and build date of the database it has been taken from, followed by the cached
+ * addresses with the length of the prefix they were cached with, the properties they were cached with and, optionally,
+ * their data. The data is only restored when
+ * it comes from the very same database build, the addresses being re-resolved against the loaded database otherwise.
+ *
+ * <p>Snapshots are written and read through a small buffer, so they never need to fit in memory.
+ *
+ * @author GraviteeSource Team
+ */
+public class GeoIpCacheSnapshot {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GeoIpCacheSnapshot.class);
+    private static final int MAGIC = 0x47495043;
+    private static final short VERSION = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Upper bound of the length of a string or of the data of an entry, larger data is not persisted
+    private static final int MAX_BYTES_LENGTH = 1 << 20;
+    private static final byte NOT_FOUND = 0;
+    private static final byte KEY_ONLY = 1;
+    private static final byte WITH_DATA = 2;
+
+    private final Path directory;
+    private final boolean includeData;
+
+    /**
+     * @param includeData whether the data of the addresses is persisted along with them, which makes the snapshot
+     * larger but saves resolving them again on start when the database has not changed
+     */
+    public GeoIpCacheSnapshot(Path directory, boolean includeData) {
+        this.directory = directory;
+        this.includeData = includeData;
+    }
+
+    public Path getFile(String databaseType) {
+        return directory.resolve(databaseType + ".snapshot");
+    }
+
+    /**
+     * Writes the entries of the cache to a temporary file moved over the previous snapshot once complete, so that a
+     * crash never leaves a truncated snapshot behind.
+     *
+     * @return the number of entries written
+     */
+    public int save(String databaseType, Metadata metadata, GeoIpCache cache) throws IOException {
+        Files.createDirectories(directory);
+        final Path file = getFile(databaseType);
+        final Path tempFile = Files.createTempFile(directory, databaseType, ".tmp");
+        final Map<GeoProjection, Integer> masks = new IdentityHashMap<>();
+        final int[] count = new int[1];
+        try (SnapshotOutput output = new SnapshotOutput(FileChannel.open(tempFile, StandardOpenOption.WRITE))) {
+            output.putInt(MAGIC);
+            output.putShort(VERSION);
+            output.putString(metadata.getDatabaseType());
+            output.putLong(metadata.getBuildDate().getTime());
+            final GeoProperty[] properties = GeoProperty.values();
+            output.putByte((byte) properties.length);
+            for (GeoProperty property : properties) {
+                output.putString(property.name());
+            }
+            final IOException[] failure = new IOException[1];
+            cache.forEach((high, low, prefixLength, value) -> {
+                if (failure[0] != null) {
+                    return;
+                }
+                try {
+                    output.putLong(high);
+                    output.putLong(low);
+                    output.putByte((byte) prefixLength);
+                    output.putInt(masks.computeIfAbsent(value.getProjection(), GeoIpCacheSnapshot::mask));
+                    if (value.isNotFound()) {
+                        output.putByte(NOT_FOUND);
+                    } else if (includeData && value.encoded().length() <= MAX_BYTES_LENGTH) {
+                        output.putByte(WITH_DATA);
+                        output.putBytes(value.encoded().getBytes());
+                    } else {
+                        output.putByte(KEY_ONLY);
+                    }
+                    count[0]++;
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count[0];
+    }
+
+    /**
+     * Streams the entries of the snapshot of the given database, if any, to the consumer. Their data is only handed
+     * over when the snapshot has been taken from the given database build, interned by the finder so that it is shared
+     * with the data resolved from now on. A corrupted or truncated snapshot is deleted, the entries read up to that
+     * point having been handed over already.
+     *
+     * @return the number of entries read
+     */
+    public int restore(String databaseType, Metadata metadata, GeoIpFinderService finder, EntryConsumer consumer) throws IOException {
+        final Path file = getFile(databaseType);
+        if (!Files.isRegularFile(file)) {
+            return 0;
+        }
+        try (SnapshotInput input = new SnapshotInput(FileChannel.open(file, StandardOpenOption.READ))) {
+            if (input.getInt() != MAGIC || input.getShort() != VERSION) {
+                LOG.warn("Ignoring {}, it is not a cache snapshot of this version", file);
+                return 0;
+            }
+            final String snapshotDatabaseType = input.getString();
+            final long buildDate = input.getLong();
+            if (!snapshotDatabaseType.equals(metadata.getDatabaseType())) {
+                LOG.warn("Ignoring {}, it has been taken from a {} database", file, snapshotDatabaseType);
+                return 0;
+            }
+            final boolean sameBuild = buildDate == metadata.getBuildDate().getTime();
+            final int propertyCount = input.getByte();
+            if (propertyCount < 0 || propertyCount > Short.SIZE) {
+                throw new CorruptedSnapshotException();
+            }
+            final List<String> properties = new ArrayList<>();
+            for (int i = propertyCount; i > 0; i--) {
+                properties.add(input.getString());
+            }
+            final GeoProjection[] projections = new GeoProjection[1 << properties.size()];
+            int count = 0;
+            while (input.hasRemaining()) {
+                final long high = input.getLong();
+                final long low = input.getLong();
+                final int prefixLength = input.getByte() & 0xFF;
+                final int mask = input.getInt();
+                if (prefixLength > NetworkGeoData.ADDRESS_PREFIX_LENGTH || mask < 0 || mask >= projections.length) {
+                    throw new CorruptedSnapshotException();
+                }
+                final GeoProjection projection = projection(projections, properties, mask);
+                final byte kind = input.getByte();
+                GeoData data = null;
+                if (kind == WITH_DATA) {
+                    final byte[] encoded = input.getBytes();
+                    if (sameBuild) {
+                        data = finder.intern(databaseType, new JsonObject(Buffer.buffer(encoded)), projection);
+                    }
+                } else if (kind == NOT_FOUND && sameBuild) {
+                    data = GeoData.NOT_FOUND;
+                }
+                consumer.accept(high, low, prefixLength, projection, data);
+                count++;
+            }
+            return count;
+        } catch (CorruptedSnapshotException | EOFException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    private static int mask(GeoProjection projection) {
+        int mask = 0;
+        for (GeoProperty property : projection.properties()) {
+            mask |= 1 << property.ordinal();
+        }
+        return mask;
+    }
+
+    /**
+     * Maps the mask of a snapshot, written against its own property list, to a projection, properties which no longer
+     * exist being ignored.
+     */
+    private static GeoProjection projection(GeoProjection[] projections, List<String> properties, int mask) {
+        if (projections[mask] == null) {
+            final List<GeoProperty> included = new ArrayList<>();
+            for (int i = 0; i < properties.size(); i++) {
+                final GeoProperty property = GeoProperty.fromValue(properties.get(i));
+                if ((mask & (1 << i)) != 0 && property != null) {
+                    included.add(property);
+                }
+            }
+            projections[mask] = GeoProjection.of(included);
+        }
+        return projections[mask];
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        /**
+         * @param prefixLength the length of the prefix of the network the address has been cached for
+         * @param data the data of the address, {@link GeoData#NOT_FOUND} if it is not in the database, or
+         * <code>null</code> if it must be resolved again
+         */
+        void accept(long high, long low, int prefixLength, GeoProjection projection, GeoData data);
+    }
+
+    /**
+     * Thrown when a snapshot does not hold what its format describes, it is then discarded.
+     */
+    private static final class CorruptedSnapshotException extends IOException {
+
+        private CorruptedSnapshotException() {
+            super("Corrupted cache snapshot");
+        }
+    }
+
+    private static final class SnapshotOutput implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        private SnapshotOutput(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void ensure(int length) throws IOException {
+            if (buffer.remaining() < length) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void putByte(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        private void putShort(short value) throws IOException {
+            ensure(2);
+            buffer.putShort(value);
+        }
+
+        private void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        private void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        private void putBytes(byte[] bytes) throws IOException {
+            putInt(bytes.length);
+            if (bytes.length > buffer.capacity()) {
+                flush();
+                final ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+                while (wrapped.hasRemaining()) {
+                    channel.write(wrapped);
+                }
+                return;
+            }
+            ensure(bytes.length);
+            buffer.put(bytes);
+        }
+
+        private void putString(String value) throws IOException {
+            putBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static final class SnapshotInput implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        private SnapshotInput(FileChannel channel) {
+            this.channel = channel;
+            buffer.flip();
+        }
+
+        /**
+         * @return whether there is anything left to read
+         */
+        private boolean hasRemaining() throws IOException {
+            return buffer.hasRemaining() || fill(1);
+        }
+
+        private boolean fill(int length) throws IOException {
+            buffer.compact();
+            try {
+                while (buffer.position() < length) {
+                    if (channel.read(buffer) < 0) {
+                        return false;
+                    }
+                }
+                return true;
+            } finally {
+                buffer.flip();
+            }
+        }
+
+        private void ensure(int length) throws IOException {
+            if (buffer.remaining() < length && !fill(length)) {
+                throw new EOFException("Truncated cache snapshot");
+            }
+        }
+
+        private byte getByte() throws IOException {
+            ensure(1);
+            return buffer.get();
+        }
+
+        private short getShort() throws IOException {
+            ensure(2);
+            return buffer.getShort();
+        }
+
+        private int getInt() throws IOException {
+            ensure(4);
+            return buffer.getInt();
+        }
+
+        private long getLong() throws IOException {
+            ensure(8);
+            return buffer.getLong();
+        }
+
+        /**
+         * @return the number of bytes left to read
+         */
+        private long remaining() throws IOException {
+            return buffer.remaining() + channel.size() - channel.position();
+        }
+
+        private byte[] getBytes() throws IOException {
+            final int length = getInt();
+            if (length < 0 || length > MAX_BYTES_LENGTH || length > remaining()) {
+                throw new CorruptedSnapshotException();
+            }
+            final byte[] bytes = new byte[length];
+            int offset = Math.min(length, buffer.remaining());
+            buffer.get(bytes, 0, offset);
+            if (offset < length) {
+                final ByteBuffer wrapped = ByteBuffer.wrap(bytes, offset, length - offset);
+                while (wrapped.hasRemaining()) {
+                    if (channel.read(wrapped) < 0) {
+                        throw new EOFException("Truncated cache snapshot");
+                    }
+                }
+            }
+            return bytes;
+        }
+
+        private String getString() throws IOException {
+            return new String(getBytes(), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
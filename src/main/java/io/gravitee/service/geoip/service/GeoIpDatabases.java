@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The optional databases (Country, ASN) served next to the city one. Each of them comes with its own cache, resolver
+ * and watcher, so that a busy database never evicts the entries of another one.
+ *
+ * @author GraviteeSource Team
+ */
+public class GeoIpDatabases {
+
+    private final Map<String, GeoIpResolver> resolvers = new LinkedHashMap<>();
+    private final Map<String, DatabaseReaderWatcherService> watchers = new LinkedHashMap<>();
+
+    public GeoIpDatabases register(GeoIpResolver resolver, DatabaseReaderWatcherService watcher) {
+        resolvers.put(resolver.getDatabaseType(), resolver);
+        watchers.put(resolver.getDatabaseType(), watcher);
+        return this;
+    }
+
+    public boolean contains(String databaseType) {
+        return resolvers.containsKey(databaseType);
+    }
+
+    public GeoIpResolver getResolver(String databaseType) {
+        return resolvers.get(databaseType);
+    }
+
+    public Set<String> getDatabaseTypes() {
+        return Collections.unmodifiableSet(resolvers.keySet());
+    }
+
+    public void saveCacheSnapshots() {
+        watchers.values().forEach(DatabaseReaderWatcherService::saveCacheSnapshot);
+    }
+
+    public void close() {
+        watchers.values().forEach(DatabaseReaderWatcherService::close);
+    }
+}
@@ -15,14 +15,33 @@
  */
 package io.gravitee.service.geoip.service;
 
+import static io.gravitee.service.geoip.service.DatabaseReaderService.CITY_DB_TYPE;
+
+import com.maxmind.db.DatabaseRecord;
+import com.maxmind.db.Network;
 import com.maxmind.geoip2.DatabaseReader;
+import com.maxmind.geoip2.exception.AddressNotFoundException;
 import com.maxmind.geoip2.exception.GeoIp2Exception;
+import com.maxmind.geoip2.model.AsnResponse;
 import com.maxmind.geoip2.model.CityResponse;
+import com.maxmind.geoip2.model.CountryResponse;
 import com.maxmind.geoip2.record.*;
+import io.gravitee.service.geoip.index.GeoIpRangeIndex;
+import io.gravitee.service.geoip.model.CityRecord;
+import io.gravitee.service.geoip.model.GeoData;
+import io.gravitee.service.geoip.model.GeoProjection;
+import io.gravitee.service.geoip.model.GeoProperty;
+import io.gravitee.service.geoip.model.NetworkGeoData;
+import io.gravitee.service.geoip.utils.IpAddressKeys;
 import io.vertx.core.json.JsonObject;
 import java.io.IOException;
+import java.net.Inet4Address;
 import java.net.InetAddress;
-import java.util.EnumSet;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Rémi SULTAN (remi.sultan at graviteesource.com)
@@ -30,10 +49,256 @@ import java.util.EnumSet;
  */
 public class GeoIpFinderService {
 
-    public JsonObject retrieveCityGeoData(InetAddress ipAddress, DatabaseReader databaseReader) throws IOException, GeoIp2Exception {
-        JsonObject geo = new JsonObject();
+    // Upper bound of the interned records of a database, a city database holds far fewer distinct records
+    private static final int MAX_INTERNED_RECORDS = 1 << 20;
+
+    private static final GeoProperty[] PROPERTIES = GeoProperty.values();
+    private static final GeoProjection COUNTRY_ISO_CODE_ONLY = GeoProjection.of(GeoProperty.COUNTRY_ISO_CODE);
+
+    // Rendered records by database type, keyed by the values they are rendered from, so that all the addresses resolving
+    // to the same record share the same GeoData and a record is only rendered the first time it is resolved
+    private final Map<String, Map<RecordKey, GeoData>> internedRecords = new ConcurrentHashMap<>();
+
+    /**
+     * Resolves the address against a database of the given type, along with the network it has been found in.
+     * Country records have the same properties as city ones, the properties a country database does not hold being
+     * <code>null</code>. ASN records have their own properties, and can not be projected.
+     */
+    public NetworkGeoData findNetworkGeoData(
+        String databaseType,
+        long high,
+        long low,
+        DatabaseGeneration generation,
+        GeoProjection projection
+    ) throws IOException {
+        try {
+            final InetAddress ipAddress;
+            switch (databaseType) {
+                case DatabaseReaderService.COUNTRY_DB_TYPE:
+                    ipAddress = IpAddressKeys.toInetAddress(high, low);
+                    final Optional<CountryResponse> country = generation.getReader().tryCountry(ipAddress);
+                    return country.isEmpty()
+                        ? new NetworkGeoData(GeoData.NOT_FOUND, NetworkGeoData.ADDRESS_PREFIX_LENGTH)
+                        : new NetworkGeoData(
+                            intern(databaseType, country.get()).project(projection),
+                            prefixLength(ipAddress, country.get().getTraits().getNetwork())
+                        );
+                case DatabaseReaderService.ASN_DB_TYPE:
+                    ipAddress = IpAddressKeys.toInetAddress(high, low);
+                    final Optional<AsnResponse> asn = generation.getReader().tryAsn(ipAddress);
+                    return asn.isEmpty()
+                        ? new NetworkGeoData(GeoData.NOT_FOUND, NetworkGeoData.ADDRESS_PREFIX_LENGTH)
+                        : new NetworkGeoData(intern(databaseType, asn.get()), prefixLength(ipAddress, asn.get().getNetwork()));
+                default:
+                    return findCityNetworkGeoData(high, low, generation, projection);
+            }
+        } catch (GeoIp2Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Resolves the address along with the network it has been found in. Addresses resolved from the range index, and
+     * the ones not found by the database reader, are reported with a prefix covering the address only.
+     */
+    private NetworkGeoData findCityNetworkGeoData(long high, long low, DatabaseReader databaseReader, GeoIpRangeIndex rangeIndex)
+        throws IOException {
+        final GeoData indexed = findIndexed(high, low, rangeIndex);
+        if (indexed != null) {
+            return new NetworkGeoData(indexed, NetworkGeoData.ADDRESS_PREFIX_LENGTH);
+        }
+        try {
+            final InetAddress ipAddress = IpAddressKeys.toInetAddress(high, low);
+            final Optional<CityResponse> response = databaseReader.tryCity(ipAddress);
+            if (response.isEmpty()) {
+                return new NetworkGeoData(GeoData.NOT_FOUND, NetworkGeoData.ADDRESS_PREFIX_LENGTH);
+            }
+            return new NetworkGeoData(
+                intern(CITY_DB_TYPE, response.get()),
+                prefixLength(ipAddress, response.get().getTraits().getNetwork())
+            );
+        } catch (GeoIp2Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Resolves only the given properties of the address. Unless they can be picked from the range index, they are
+     * decoded through the lightweight {@link CityRecord} mapping when the generation has a record reader, and from the
+     * full city response otherwise. The record reader also reports the network of the addresses it does not find.
+     */
+    private NetworkGeoData findCityNetworkGeoData(long high, long low, DatabaseGeneration generation, GeoProjection projection)
+        throws IOException {
+        if (projection == GeoProjection.ALL || generation.getRecordReader() == null) {
+            final NetworkGeoData found = findCityNetworkGeoData(high, low, generation.getReader(), generation.getRangeIndex());
+            return new NetworkGeoData(found.getGeoData().project(projection), found.getPrefixLength());
+        }
+        final GeoData indexed = findIndexed(high, low, generation.getRangeIndex());
+        if (indexed != null) {
+            return new NetworkGeoData(indexed.project(projection), NetworkGeoData.ADDRESS_PREFIX_LENGTH);
+        }
+
+        final InetAddress ipAddress = IpAddressKeys.toInetAddress(high, low);
+        final CityRecord record;
+        final Network network;
+        if (projection == COUNTRY_ISO_CODE_ONLY) {
+            final DatabaseRecord<CityRecord.CountryIsoCode> countryIsoCode = generation
+                .getRecordReader()
+                .getRecord(ipAddress, CityRecord.CountryIsoCode.class);
+            network = countryIsoCode.getNetwork();
+            record = countryIsoCode.getData() == null ? null : new CityRecord(countryIsoCode.getData().country, null, null, null, null);
+        } else {
+            final DatabaseRecord<CityRecord> cityRecord = generation.getRecordReader().getRecord(ipAddress, CityRecord.class);
+            network = cityRecord.getNetwork();
+            record = cityRecord.getData();
+        }
+        if (record == null) {
+            return new NetworkGeoData(GeoData.NOT_FOUND, prefixLength(ipAddress, network));
+        }
+        return new NetworkGeoData(intern(CITY_DB_TYPE, record, projection), prefixLength(ipAddress, network));
+    }
+
+    /**
+     * IPv4 networks are reported with IPv4 prefixes, which are converted to the IPv4-mapped form of the cache keys.
+     */
+    private static int prefixLength(InetAddress ipAddress, Network network) {
+        if (network == null) {
+            return NetworkGeoData.ADDRESS_PREFIX_LENGTH;
+        }
+        return ipAddress instanceof Inet4Address ? 96 + network.getPrefixLength() : network.getPrefixLength();
+    }
+
+    /**
+     * @return <code>null</code> if the address is not covered by the index (or if there is no index)
+     */
+    private GeoData findIndexed(long high, long low, GeoIpRangeIndex rangeIndex) {
+        if (rangeIndex != null) {
+            final GeoData geo = rangeIndex.find(high, low);
+            if (geo == null) {
+                return GeoData.NOT_FOUND;
+            } else if (geo != GeoIpRangeIndex.NOT_INDEXED) {
+                return geo;
+            }
+        }
+        return null;
+    }
+
+    public static AddressNotFoundException addressNotFound(long high, long low) {
+        return new AddressNotFoundException(notFoundMessage(high, low));
+    }
+
+    public static String notFoundMessage(long high, long low) {
+        return "The address " + IpAddressKeys.toInetAddress(high, low).getHostAddress() + " is not in the database.";
+    }
+
+    /**
+     * Forgets the interned records of the given database type, to be called once a new database of this type is
+     * loaded. The records of the other databases are kept.
+     */
+    public void clearInternedRecords(String databaseType) {
+        internedRecords.remove(databaseType);
+    }
+
+    private GeoData intern(String databaseType, CityResponse response) {
+        final Country country = response.getCountry();
+        final Location location = response.getLocation();
+        final RecordKey key = RecordKey.of(
+            GeoProjection.ALL,
+            country.getIsoCode(),
+            country.getName(),
+            response.getContinent().getName(),
+            response.getMostSpecificSubdivision().getName(),
+            response.getCity().getName(),
+            location.getTimeZone(),
+            location.getLatitude(),
+            location.getLongitude()
+        );
+        final GeoData geoData = interned(databaseType, key);
+        return geoData != null ? geoData : intern(databaseType, key, render(response));
+    }
+
+    private GeoData intern(String databaseType, CityRecord record, GeoProjection projection) {
+        final CityRecord.Location location = record.location;
+        final List<CityRecord.Named> subdivisions = record.subdivisions;
+        final RecordKey key = RecordKey.of(
+            projection,
+            record.country == null ? null : record.country.isoCode,
+            nameOf(record.country),
+            nameOf(record.continent),
+            subdivisions == null || subdivisions.isEmpty() ? null : nameOf(subdivisions.get(subdivisions.size() - 1)),
+            nameOf(record.city),
+            location == null ? null : location.timeZone,
+            location == null ? null : location.latitude,
+            location == null ? null : location.longitude
+        );
+        final GeoData geoData = interned(databaseType, key);
+        return geoData != null ? geoData : intern(databaseType, key, render(record, projection));
+    }
+
+    private GeoData intern(String databaseType, CountryResponse response) {
+        final Country country = response.getCountry();
+        final RecordKey key = RecordKey.of(
+            GeoProjection.ALL,
+            country.getIsoCode(),
+            country.getName(),
+            response.getContinent().getName(),
+            null,
+            null,
+            null,
+            null,
+            null
+        );
+        final GeoData geoData = interned(databaseType, key);
+        return geoData != null ? geoData : intern(databaseType, key, render(response));
+    }
+
+    private GeoData intern(String databaseType, AsnResponse response) {
+        final RecordKey key = new RecordKey(
+            GeoProjection.ALL,
+            response.getAutonomousSystemNumber(),
+            response.getAutonomousSystemOrganization()
+        );
+        final GeoData geoData = interned(databaseType, key);
+        return geoData != null ? geoData : intern(databaseType, key, render(response));
+    }
+
+    /**
+     * @return the data shared by the addresses of the given database resolving to the given record, which is used as
+     * is from now on
+     */
+    public GeoData intern(String databaseType, JsonObject geo, GeoProjection projection) {
+        final RecordKey key = DatabaseReaderService.ASN_DB_TYPE.equals(databaseType)
+            ? new RecordKey(projection, geo.getLong("asn"), geo.getString("as_organization"))
+            : RecordKey.of(
+                projection,
+                geo.getString("country_iso_code"),
+                geo.getString("country_name"),
+                geo.getString("continent_name"),
+                geo.getString("region_name"),
+                geo.getString("city_name"),
+                geo.getString("timezone"),
+                geo.getDouble("lat"),
+                geo.getDouble("lon")
+            );
+        final GeoData geoData = interned(databaseType, key);
+        return geoData != null ? geoData : intern(databaseType, key, geo);
+    }
+
+    private GeoData interned(String databaseType, RecordKey key) {
+        final Map<RecordKey, GeoData> records = internedRecords.get(databaseType);
+        return records == null ? null : records.get(key);
+    }
+
+    private GeoData intern(String databaseType, RecordKey key, JsonObject geo) {
+        final Map<RecordKey, GeoData> records = internedRecords.computeIfAbsent(databaseType, type -> new ConcurrentHashMap<>());
+        if (records.size() >= MAX_INTERNED_RECORDS) {
+            return new GeoData(geo, key.projection);
+        }
+        return records.computeIfAbsent(key, k -> new GeoData(geo, k.projection));
+    }
 
-        CityResponse response = databaseReader.city(ipAddress);
+    public JsonObject render(CityResponse response) {
+        JsonObject geo = new JsonObject();
 
         Country country = response.getCountry();
         City city = response.getCity();
@@ -41,7 +306,7 @@ public class GeoIpFinderService {
         Continent continent = response.getContinent();
         Subdivision subdivision = response.getMostSpecificSubdivision();
 
-        for (Property property : Property.ALL_CITY_PROPERTIES) {
+        for (GeoProperty property : PROPERTIES) {
             switch (property) {
                 case COUNTRY_ISO_CODE:
                     geo.put("country_iso_code", country.getIsoCode());
@@ -70,16 +335,130 @@ public class GeoIpFinderService {
         return geo;
     }
 
-    enum Property {
-        IP,
-        COUNTRY_ISO_CODE,
-        COUNTRY_NAME,
-        CONTINENT_NAME,
-        REGION_NAME,
-        CITY_NAME,
-        TIMEZONE,
-        LOCATION;
+    public JsonObject render(CountryResponse response) {
+        JsonObject geo = new JsonObject();
+
+        for (GeoProperty property : PROPERTIES) {
+            for (String key : property.keys()) {
+                geo.putNull(key);
+            }
+        }
+        geo.put("country_iso_code", response.getCountry().getIsoCode());
+        geo.put("country_name", response.getCountry().getName());
+        geo.put("continent_name", response.getContinent().getName());
+        return geo;
+    }
+
+    public JsonObject render(AsnResponse response) {
+        JsonObject geo = new JsonObject();
+        geo.put("asn", response.getAutonomousSystemNumber());
+        geo.put("as_organization", response.getAutonomousSystemOrganization());
+        return geo;
+    }
+
+    private JsonObject render(CityRecord record, GeoProjection projection) {
+        JsonObject geo = new JsonObject();
+
+        CityRecord.Location location = record.location;
+        List<CityRecord.Named> subdivisions = record.subdivisions;
+        CityRecord.Named subdivision = subdivisions == null || subdivisions.isEmpty() ? null : subdivisions.get(subdivisions.size() - 1);
+
+        for (GeoProperty property : PROPERTIES) {
+            if (!projection.includes(property)) {
+                continue;
+            }
+            switch (property) {
+                case COUNTRY_ISO_CODE:
+                    geo.put("country_iso_code", record.country == null ? null : record.country.isoCode);
+                    break;
+                case COUNTRY_NAME:
+                    geo.put("country_name", nameOf(record.country));
+                    break;
+                case CONTINENT_NAME:
+                    geo.put("continent_name", nameOf(record.continent));
+                    break;
+                case REGION_NAME:
+                    geo.put("region_name", nameOf(subdivision));
+                    break;
+                case CITY_NAME:
+                    geo.put("city_name", nameOf(record.city));
+                    break;
+                case TIMEZONE:
+                    geo.put("timezone", location == null ? null : location.timeZone);
+                    break;
+                case LOCATION:
+                    geo.put("lat", location == null ? null : location.latitude);
+                    geo.put("lon", location == null ? null : location.longitude);
+                    break;
+            }
+        }
+        return geo;
+    }
+
+    private static String nameOf(CityRecord.Named named) {
+        return named == null ? null : named.name;
+    }
+
+    /**
+     * The values a record is rendered from, along with the projection it is rendered with. Looking a record up by its
+     * key only costs the decoding of these values, the record being rendered once, when it is first interned.
+     */
+    private static final class RecordKey {
+
+        private final GeoProjection projection;
+        private final Object[] values;
+        private final int hash;
+
+        private RecordKey(GeoProjection projection, Object... values) {
+            this.projection = projection;
+            this.values = values;
+            this.hash = 31 * projection.hashCode() + Arrays.hashCode(values);
+        }
+
+        /**
+         * The values of the properties left out by the projection are not part of the key, so that the addresses of
+         * records only differing by these properties share the same data.
+         */
+        private static RecordKey of(
+            GeoProjection projection,
+            String countryIsoCode,
+            String countryName,
+            String continentName,
+            String regionName,
+            String cityName,
+            String timeZone,
+            Double latitude,
+            Double longitude
+        ) {
+            final boolean location = projection.includes(GeoProperty.LOCATION);
+            return new RecordKey(
+                projection,
+                projection.includes(GeoProperty.COUNTRY_ISO_CODE) ? countryIsoCode : null,
+                projection.includes(GeoProperty.COUNTRY_NAME) ? countryName : null,
+                projection.includes(GeoProperty.CONTINENT_NAME) ? continentName : null,
+                projection.includes(GeoProperty.REGION_NAME) ? regionName : null,
+                projection.includes(GeoProperty.CITY_NAME) ? cityName : null,
+                projection.includes(GeoProperty.TIMEZONE) ? timeZone : null,
+                location ? latitude : null,
+                location ? longitude : null
+            );
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RecordKey)) {
+                return false;
+            }
+            final RecordKey other = (RecordKey) o;
+            return hash == other.hash && projection == other.projection && Arrays.equals(values, other.values);
+        }
 
-        static final EnumSet<Property> ALL_CITY_PROPERTIES = EnumSet.allOf(Property.class);
+        @Override
+        public int hashCode() {
+            return hash;
+        }
     }
 }
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the database lookups of cache misses, either inline or on a bounded pool of worker threads.
+ *
+ * <p>The pool has a bounded queue and does not block its callers: once the queue is full, {@link #execute(Runnable)}
+ * throws a {@link RejectedExecutionException} so the lookup can be failed right away instead of piling up behind slow
+ * ones.
+ *
+ * @author GraviteeSource Team
+ */
+public class GeoIpLookupExecutor {
+
+    private static final String THREAD_NAME_PREFIX = "gravitee-geoip-lookup-";
+
+    private final ThreadPoolExecutor executor;
+
+    public GeoIpLookupExecutor() {
+        this(LookupMode.EVENT_LOOP, 0, 0);
+    }
+
+    public GeoIpLookupExecutor(LookupMode mode, int poolSize, int queueSize) {
+        if (mode == LookupMode.WORKER) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            executor =
+                new ThreadPoolExecutor(
+                    poolSize,
+                    poolSize,
+                    60L,
+                    TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueSize),
+                    runnable -> {
+                        final Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    new ThreadPoolExecutor.AbortPolicy()
+                );
+            executor.allowCoreThreadTimeOut(true);
+        } else {
+            executor = null;
+        }
+    }
+
+    public boolean isInline() {
+        return executor == null;
+    }
+
+    /**
+     * Runs the given lookup, inline or on a worker thread.
+     *
+     * @throws RejectedExecutionException if the worker queue is full
+     */
+    public void execute(Runnable lookup) {
+        if (executor == null) {
+            lookup.run();
+        } else {
+            executor.execute(lookup);
+        }
+    }
+
+    public int getQueueDepth() {
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.service;
+
+import static io.gravitee.service.geoip.service.DatabaseReaderService.ASN_DB_TYPE;
+import static java.util.Objects.isNull;
+
+import com.maxmind.geoip2.exception.AddressNotFoundException;
+import com.maxmind.geoip2.exception.GeoIp2Exception;
+import io.gravitee.service.geoip.cache.GeoIpCache;
+import io.gravitee.service.geoip.index.CountryTable;
+import io.gravitee.service.geoip.metrics.GeoIpMetrics;
+import io.gravitee.service.geoip.model.GeoData;
+import io.gravitee.service.geoip.model.GeoProjection;
+import io.gravitee.service.geoip.model.GeoProperty;
+import io.gravitee.service.geoip.model.NetworkGeoData;
+import io.gravitee.service.geoip.utils.IpAddressParser;
+import io.gravitee.service.geoip.utils.ReservedAddresses;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * In-process API resolving IPs against one of the GeoIP databases (the city one by default), for callers living in the same JVM as the service.
+ *
+ * <p>Unlike the <code>service:geoip</code> event-bus address, it involves no message routing nor copy of the result:
+ * cache hits can be served synchronously with {@link #getCached(String)}, and {@link #resolve(String)} completes with
+ * the shared, read-only {@link GeoData} once the database has been looked up (inline or on a worker thread, depending
+ * on the {@link GeoIpLookupExecutor}). Both accept a {@link GeoProjection}, so that only the needed properties are
+ * decoded and cached. Concurrent misses of the same address share a single database lookup.
+ *
+ * @author GraviteeSource Team
+ */
+public class GeoIpResolver {
+
+    private static final GeoProjection COUNTRY_ISO_CODE = GeoProjection.of(GeoProperty.COUNTRY_ISO_CODE);
+    private static final String COUNTRY_ISO_CODE_KEY = "country_iso_code";
+
+    private final String databaseType;
+    private final DatabaseReaderService databaseReaderService;
+    private final GeoIpFinderService geoIpFinderService;
+    private final GeoIpCache cache;
+    private final GeoIpLookupExecutor lookupExecutor;
+    private final GeoIpMetrics metrics;
+
+    public GeoIpResolver(
+        String databaseType,
+        DatabaseReaderService databaseReaderService,
+        GeoIpFinderService geoIpFinderService,
+        GeoIpCache cache,
+        GeoIpLookupExecutor lookupExecutor
+    ) {
+        this.databaseType = databaseType;
+        this.databaseReaderService = databaseReaderService;
+        this.geoIpFinderService = geoIpFinderService;
+        this.cache = cache;
+        this.lookupExecutor = lookupExecutor;
+        this.metrics = cache.getMetrics();
+    }
+
+    /**
+     * @return the cached data of the given IP, {@link GeoData#NOT_FOUND} if it is known not to be in the database, or
+     * <code>null</code> if it has not been resolved yet
+     * @throws IllegalArgumentException if the given value is not an IP string literal
+     */
+    public GeoData getCached(String ip) {
+        return getCached(ip, GeoProjection.ALL);
+    }
+
+    /**
+     * @return the given properties of the IP if they are all cached, or <code>null</code>
+     * @throws IllegalArgumentException if the given value is not an IP string literal
+     */
+    public GeoData getCached(String ip, GeoProjection projection) {
+        final long[] key = parse(ip);
+        return getCached(key[0], key[1], projection);
+    }
+
+    public GeoData getCached(long high, long low) {
+        return getCached(high, low, GeoProjection.ALL);
+    }
+
+    public GeoData getCached(long high, long low, GeoProjection projection) {
+        if (ReservedAddresses.isReserved(high, low)) {
+            metrics.reserved();
+            return GeoData.NOT_FOUND;
+        }
+        return cache.get(high, low, effective(projection));
+    }
+
+    /**
+     * Resolves the given IP, from the cache when possible. The returned future fails with an
+     * {@link AddressNotFoundException} if the IP is not in the database, and with a
+     * {@link RejectedExecutionException} if the lookup could not be queued.
+     *
+     * @throws IllegalArgumentException if the given value is not an IP string literal
+     */
+    public Future<GeoData> resolve(String ip) {
+        return resolve(ip, GeoProjection.ALL);
+    }
+
+    /**
+     * Resolves only the given properties of the IP, see {@link #resolve(String)}.
+     */
+    public Future<GeoData> resolve(String ip, GeoProjection projection) {
+        final long[] key = parse(ip);
+        return resolve(key[0], key[1], projection);
+    }
+
+    public Future<GeoData> resolve(long high, long low) {
+        return resolve(high, low, GeoProjection.ALL);
+    }
+
+    public String getDatabaseType() {
+        return databaseType;
+    }
+
+    public GeoIpCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return <code>true</code> once a database of the resolved type has been loaded.
+     */
+    public boolean isLoaded() {
+        return databaseReaderService.get(databaseType) != null;
+    }
+
+    public Future<GeoData> resolve(long high, long low, GeoProjection requestedProjection) {
+        final GeoProjection projection = effective(requestedProjection);
+        if (!isLoaded()) {
+            return notLoaded();
+        }
+        if (ReservedAddresses.isReserved(high, low)) {
+            metrics.reserved();
+            return Future.failedFuture(GeoIpFinderService.addressNotFound(high, low));
+        }
+
+        final GeoData cached = cache.get(high, low);
+        if (cached != null && cached.getProjection().covers(projection)) {
+            return cached.isNotFound()
+                ? Future.failedFuture(GeoIpFinderService.addressNotFound(high, low))
+                : Future.succeededFuture(cached.project(projection));
+        }
+        // The cached entry is widened rather than replaced by a narrower one
+        final GeoProjection resolvedProjection = cached == null ? projection : projection.union(cached.getProjection());
+
+        final DatabaseGeneration generation = databaseReaderService.acquire(databaseType);
+        if (isNull(generation)) {
+            return notLoaded();
+        }
+        final Promise<GeoData> lookup = Promise.promise();
+        final Future<GeoData> inFlight = cache.joinInFlight(high, low, resolvedProjection, lookup.future());
+        if (inFlight != null) {
+            // The same address is already being looked up, its result is shared rather than decoded again
+            generation.release();
+            metrics.coalesced();
+            return answer(inFlight, high, low, projection);
+        }
+        try {
+            lookupExecutor.execute(() -> {
+                final long start = System.nanoTime();
+                try {
+                    final NetworkGeoData found = geoIpFinderService.findNetworkGeoData(
+                        databaseType,
+                        high,
+                        low,
+                        generation,
+                        resolvedProjection
+                    );
+                    metrics.recordDecode(System.nanoTime() - start);
+                    final GeoData resolved = found.getGeoData();
+                    // Results of a replaced database must not pollute the cache of the new one
+                    if (generation.isCurrent()) {
+                        cache.put(generation, high, low, found.getPrefixLength(), resolved);
+                    }
+                    lookup.complete(resolved);
+                } catch (Exception ex) {
+                    metrics.error();
+                    lookup.fail(ex);
+                } finally {
+                    cache.leaveInFlight(high, low, lookup.future());
+                    generation.release();
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            cache.leaveInFlight(high, low, lookup.future());
+            lookup.fail(ree);
+            generation.release();
+            metrics.rejected();
+            return Future.failedFuture(ree);
+        }
+        return answer(lookup.future(), high, low, projection);
+    }
+
+    /**
+     * Resolves only the ISO code of the country of the given IP. When the database has a {@link CountryTable}, IPv4
+     * addresses are resolved with a single read of it, the others being resolved as by
+     * {@link #resolve(String, GeoProjection)}.
+     *
+     * @throws IllegalArgumentException if the given value is not an IP string literal
+     */
+    public Future<String> resolveCountryIsoCode(String ip) {
+        final long[] key = parse(ip);
+        return resolveCountryIsoCode(key[0], key[1]);
+    }
+
+    public Future<String> resolveCountryIsoCode(long high, long low) {
+        final CountryTable countryTable = databaseReaderService.getCountryTable(databaseType);
+        if (countryTable != null) {
+            if (ReservedAddresses.isReserved(high, low)) {
+                metrics.reserved();
+                return Future.failedFuture(GeoIpFinderService.addressNotFound(high, low));
+            }
+            final int country = countryTable.find(high, low);
+            if (country == CountryTable.NOT_FOUND) {
+                metrics.addressNotFound();
+                return Future.failedFuture(GeoIpFinderService.addressNotFound(high, low));
+            }
+            if (country != CountryTable.NOT_INDEXED) {
+                return Future.succeededFuture(countryTable.isoCode(country));
+            }
+        }
+        return resolve(high, low, COUNTRY_ISO_CODE)
+            .compose(geoData -> {
+                final Object isoCode = geoData.getValue(COUNTRY_ISO_CODE_KEY);
+                // Located no finer than a continent
+                return isoCode == null
+                    ? Future.failedFuture(GeoIpFinderService.addressNotFound(high, low))
+                    : Future.succeededFuture(isoCode.toString());
+            });
+    }
+
+    private Future<GeoData> answer(Future<GeoData> lookup, long high, long low, GeoProjection projection) {
+        return lookup.compose(resolved -> {
+            if (resolved.isNotFound()) {
+                metrics.addressNotFound();
+                return Future.failedFuture(GeoIpFinderService.addressNotFound(high, low));
+            }
+            return Future.succeededFuture(resolved.project(projection));
+        });
+    }
+
+    private GeoProjection effective(GeoProjection projection) {
+        // ASN records are not made of geo properties, there is nothing to project
+        return ASN_DB_TYPE.equals(databaseType) ? GeoProjection.ALL : projection;
+    }
+
+    private Future<GeoData> notLoaded() {
+        return Future.failedFuture(new GeoIp2Exception("Database " + databaseType + " not loaded"));
+    }
+
+    private static long[] parse(String ip) {
+        final long[] key = new long[2];
+        if (!IpAddressParser.parse(ip, key)) {
+            throw new IllegalArgumentException("'" + ip + "' is not an IP string literal.");
+        }
+        return key;
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.service;
+
+/**
+ * Where cache misses are resolved against the database.
+ *
+ * <ul>
+ *     <li>{@link #EVENT_LOOP}: inline, on the event-loop thread that received the message (default)</li>
+ *     <li>{@link #WORKER}: on a bounded pool of worker threads, cache hits still being answered inline</li>
+ * </ul>
+ *
+ * @author GraviteeSource Team
+ */
+public enum LookupMode {
+    EVENT_LOOP,
+    WORKER;
+
+    public static LookupMode fromValue(String value) {
+        if (value != null) {
+            final String normalized = value.trim().replace('-', '_');
+            for (LookupMode mode : values()) {
+                if (mode.name().equalsIgnoreCase(normalized)) {
+                    return mode;
+                }
+            }
+        }
+        return EVENT_LOOP;
+    }
+}
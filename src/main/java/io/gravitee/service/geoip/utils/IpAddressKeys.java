@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.utils;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Represents an IP address as two primitive longs (the high and low 64 bits of its IPv6 form).
+ *
+ * <p>IPv4 addresses are stored as IPv4-mapped IPv6 addresses ({@code ::ffff:a.b.c.d}), which is also how
+ * {@link InetAddress#getByAddress(byte[])} interprets them, so both notations of the same address share the same key.
+ *
+ * @author GraviteeSource Team
+ */
+public final class IpAddressKeys {
+
+    public static final long IPV4_MAPPED_PREFIX = 0x0000FFFF00000000L;
+    private static final long IPV4_MASK = 0xFFFFFFFFL;
+
+    private IpAddressKeys() {}
+
+    public static long high(InetAddress ip) {
+        if (ip instanceof Inet4Address) {
+            return 0L;
+        }
+        return toLong(ip.getAddress(), 0);
+    }
+
+    public static long low(InetAddress ip) {
+        final byte[] bytes = ip.getAddress();
+        if (bytes.length == 4) {
+            return ipv4(((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF));
+        }
+        return toLong(bytes, 8);
+    }
+
+    public static long ipv4(int address) {
+        return IPV4_MAPPED_PREFIX | (address & IPV4_MASK);
+    }
+
+    public static boolean isIPv4(long high, long low) {
+        return high == 0L && (low & ~IPV4_MASK) == IPV4_MAPPED_PREFIX;
+    }
+
+    public static InetAddress toInetAddress(long high, long low) {
+        try {
+            if (isIPv4(high, low)) {
+                return InetAddress.getByAddress(toBytes((int) low));
+            }
+            final byte[] bytes = new byte[16];
+            for (int i = 0; i < 8; i++) {
+                bytes[i] = (byte) (high >>> (56 - 8 * i));
+                bytes[i + 8] = (byte) (low >>> (56 - 8 * i));
+            }
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] toBytes(int address) {
+        return new byte[] { (byte) (address >>> 24), (byte) (address >>> 16), (byte) (address >>> 8), (byte) address };
+    }
+
+    private static long toLong(byte[] bytes, int offset) {
+        long value = 0L;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.utils;
+
+import static io.gravitee.service.geoip.utils.IpAddressKeys.IPV4_MAPPED_PREFIX;
+
+/**
+ * Allocation-free parser turning an IP string literal into its {@link IpAddressKeys} representation.
+ *
+ * <p>It accepts and rejects exactly the same inputs as {@link InetAddresses#forString(String)}, but works on the
+ * characters of the {@link CharSequence} in place instead of splitting it into substrings and byte arrays.
+ *
+ * @author GraviteeSource Team
+ */
+public final class IpAddressParser {
+
+    private static final int IPV4_PART_COUNT = 4;
+    private static final int IPV6_PART_COUNT = 8;
+
+    private IpAddressParser() {}
+
+    /**
+     * Parses an IPv4 or IPv6 string literal.
+     *
+     * @param ip the IP string literal
+     * @param key a two-slot array receiving the high and low bits of the address
+     * @return {@code false} if the argument is not a valid IP string literal, in which case {@code key} is left untouched
+     */
+    public static boolean parse(CharSequence ip, long[] key) {
+        if (ip == null) {
+            return false;
+        }
+        final int length = ip.length();
+        boolean hasDot = false;
+        int colons = 0;
+        int lastColon = -1;
+        for (int i = 0; i < length; i++) {
+            char c = ip.charAt(i);
+            if (c == '.') {
+                hasDot = true;
+            } else if (c == ':') {
+                if (hasDot) {
+                    return false; // Colons must not appear after dots.
+                }
+                colons++;
+                lastColon = i;
+            } else if (Character.digit(c, 16) == -1) {
+                return false; // Everything else must be a decimal or hex digit.
+            }
+        }
+
+        if (colons > 0) {
+            return parseIPv6(ip, length, colons, hasDot ? lastColon : -1, key);
+        } else if (hasDot) {
+            final long address = parseIPv4(ip, 0, length);
+            if (address < 0) {
+                return false;
+            }
+            key[0] = 0L;
+            key[1] = IPV4_MAPPED_PREFIX | address;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Parses an IPv4 string literal.
+     *
+     * @param ip the IP string literal
+     * @return the address as an unsigned 32 bits value, or {@code -1} if the argument is not a valid IPv4 string literal
+     */
+    public static long parseIPv4(CharSequence ip) {
+        if (ip == null) {
+            return -1;
+        }
+        final int length = ip.length();
+        for (int i = 0; i < length; i++) {
+            char c = ip.charAt(i);
+            if (c != '.' && Character.digit(c, 16) == -1) {
+                return -1;
+            }
+        }
+        return parseIPv4(ip, 0, length);
+    }
+
+    private static long parseIPv4(CharSequence ip, int start, int end) {
+        long address = 0;
+        int parts = 0;
+        int partStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || ip.charAt(i) == '.') {
+                if (++parts > IPV4_PART_COUNT) {
+                    return -1;
+                }
+                final int octet = parseOctet(ip, partStart, i);
+                if (octet < 0) {
+                    return -1;
+                }
+                address = (address << 8) | octet;
+                partStart = i + 1;
+            }
+        }
+        return parts == IPV4_PART_COUNT ? address : -1;
+    }
+
+    private static int parseOctet(CharSequence ip, int start, int end) {
+        if (start == end) {
+            return -1;
+        }
+        // Disallow leading zeroes, because no clear standard exists on
+        // whether these should be interpreted as decimal or octal.
+        if (ip.charAt(start) == '0' && end - start > 1) {
+            return -1;
+        }
+        int octet = 0;
+        for (int i = start; i < end; i++) {
+            final int digit = Character.digit(ip.charAt(i), 10);
+            if (digit < 0) {
+                return -1;
+            }
+            octet = octet * 10 + digit;
+            if (octet > 255) {
+                return -1;
+            }
+        }
+        return octet;
+    }
+
+    /**
+     * @param dottedQuadColon index of the colon preceding a trailing dotted quad, or {@code -1} if there is none
+     */
+    private static boolean parseIPv6(CharSequence ip, int length, int colons, int dottedQuadColon, long[] key) {
+        long dottedQuad = -1;
+        int textParts = colons + 1;
+        int partCount = textParts;
+        if (dottedQuadColon >= 0) {
+            dottedQuad = parseIPv4(ip, dottedQuadColon + 1, length);
+            if (dottedQuad < 0) {
+                return false;
+            }
+            // The dotted quad stands for the last two hextets
+            textParts = colons;
+            partCount = colons + 2;
+        }
+
+        // An address can have [2..8] colons, and N colons make N+1 parts.
+        if (partCount < 3 || partCount > IPV6_PART_COUNT + 1) {
+            return false;
+        }
+
+        // Disregarding the endpoints, find "::" with nothing in between.
+        // This indicates that a run of zeroes has been skipped.
+        int skipIndex = -1;
+        int partStart = 0;
+        for (int part = 0; part < textParts; part++) {
+            final int partEnd = partEnd(ip, partStart, length);
+            if (partEnd == partStart && part > 0 && part < partCount - 1) {
+                if (skipIndex >= 0) {
+                    return false; // Can't have more than one ::
+                }
+                skipIndex = part;
+            }
+            partStart = partEnd + 1;
+        }
+
+        int partsHi; // Number of parts to copy from above/before the "::"
+        int partsLo; // Number of parts to copy from below/after the "::"
+        if (skipIndex >= 0) {
+            // If we found a "::", then check if it also covers the endpoints.
+            partsHi = skipIndex;
+            partsLo = partCount - skipIndex - 1;
+            if (ip.charAt(0) == ':' && --partsHi != 0) {
+                return false; // ^: requires ^::
+            }
+            if (dottedQuad < 0 && ip.charAt(length - 1) == ':' && --partsLo != 0) {
+                return false; // :$ requires ::$
+            }
+        } else {
+            partsHi = partCount;
+            partsLo = 0;
+        }
+
+        // If we found a ::, then we must have skipped at least one part.
+        // Otherwise, we must have exactly the right number of parts.
+        int partsSkipped = IPV6_PART_COUNT - (partsHi + partsLo);
+        if (!(skipIndex >= 0 ? partsSkipped >= 1 : partsSkipped == 0)) {
+            return false;
+        }
+
+        long high = 0L;
+        long low = 0L;
+        partStart = 0;
+        for (int part = 0; part < partCount; part++) {
+            final int hextet;
+            if (part < textParts) {
+                final int partEnd = partEnd(ip, partStart, length);
+                hextet = part < partsHi || part >= partCount - partsLo ? parseHextet(ip, partStart, partEnd) : 0;
+                partStart = partEnd + 1;
+            } else {
+                hextet = (int) (part == partCount - 2 ? dottedQuad >>> 16 : dottedQuad & 0xFFFF);
+            }
+            if (hextet < 0) {
+                return false;
+            }
+            final int position = part < partsHi ? part : IPV6_PART_COUNT - (partCount - part);
+            if (position < 4) {
+                high |= (long) hextet << (16 * (3 - position));
+            } else {
+                low |= (long) hextet << (16 * (7 - position));
+            }
+        }
+        key[0] = high;
+        key[1] = low;
+        return true;
+    }
+
+    private static int partEnd(CharSequence ip, int start, int length) {
+        int i = start;
+        while (i < length && ip.charAt(i) != ':') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int parseHextet(CharSequence ip, int start, int end) {
+        if (start == end) {
+            return -1;
+        }
+        int hextet = 0;
+        for (int i = start; i < end; i++) {
+            hextet = (hextet << 4) | Character.digit(ip.charAt(i), 16);
+            if (hextet > 0xFFFF) {
+                return -1;
+            }
+        }
+        return hextet;
+    }
+}
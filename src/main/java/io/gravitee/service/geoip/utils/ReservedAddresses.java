@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.utils;
+
+/**
+ * Address ranges which are never routed on the public internet, and are therefore never part of a GeoIP database:
+ * loopback, private, link-local, carrier-grade NAT, documentation, benchmarking, multicast and reserved ranges.
+ *
+ * <p>Lookups of such addresses (health checks, internal load balancers, clients of a private network) can be answered
+ * as not found without walking the database.
+ *
+ * @author GraviteeSource Team
+ */
+public final class ReservedAddresses {
+
+    // Network and prefix length of the reserved IPv4 ranges
+    private static final int[][] IPV4_RANGES = {
+        { 0x00000000, 8 }, // 0.0.0.0/8 "this" network
+        { 0x0A000000, 8 }, // 10.0.0.0/8 private
+        { 0x64400000, 10 }, // 100.64.0.0/10 carrier-grade NAT
+        { 0x7F000000, 8 }, // 127.0.0.0/8 loopback
+        { 0xA9FE0000, 16 }, // 169.254.0.0/16 link-local
+        { 0xAC100000, 12 }, // 172.16.0.0/12 private
+        { 0xC0000000, 24 }, // 192.0.0.0/24 protocol assignments
+        { 0xC0000200, 24 }, // 192.0.2.0/24 documentation
+        { 0xC0A80000, 16 }, // 192.168.0.0/16 private
+        { 0xC6120000, 15 }, // 198.18.0.0/15 benchmarking
+        { 0xC6336400, 24 }, // 198.51.100.0/24 documentation
+        { 0xCB007100, 24 }, // 203.0.113.0/24 documentation
+        { 0xE0000000, 4 }, // 224.0.0.0/4 multicast
+        { 0xF0000000, 4 }, // 240.0.0.0/4 reserved and broadcast
+    };
+
+    private ReservedAddresses() {}
+
+    /**
+     * @return whether the address, given as {@link IpAddressKeys}, belongs to a reserved range
+     */
+    public static boolean isReserved(long high, long low) {
+        if (IpAddressKeys.isIPv4(high, low)) {
+            final int address = (int) low;
+            for (int[] range : IPV4_RANGES) {
+                if ((address & (-1 << (32 - range[1]))) == range[0]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (high == 0L && (low == 0L || low == 1L)) {
+            // :: unspecified and ::1 loopback, the deprecated IPv4-compatible addresses of ::/96 are left to the database
+            return true;
+        }
+        final long prefix = high >>> 48;
+        return (
+            (prefix & 0xFE00L) == 0xFC00L || // fc00::/7 unique local
+            (prefix & 0xFFC0L) == 0xFE80L || // fe80::/10 link-local
+            (prefix & 0xFF00L) == 0xFF00L || // ff00::/8 multicast
+            (high >>> 32) == 0x20010DB8L // 2001:db8::/32 documentation
+        );
+    }
+}
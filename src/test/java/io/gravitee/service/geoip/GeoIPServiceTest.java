@@ -23,15 +23,25 @@ import static org.mockito.Mockito.mock;
 
 import com.maxmind.geoip2.DatabaseReader;
 import io.gravitee.service.geoip.cache.GeoIpCache;
+import io.gravitee.service.geoip.service.DatabaseGeneration;
+import io.gravitee.service.geoip.service.DatabaseLoadingMode;
+import io.gravitee.service.geoip.service.DatabaseLoadingPolicy;
 import io.gravitee.service.geoip.service.DatabaseReaderServiceImpl;
 import io.gravitee.service.geoip.service.DatabaseReaderWatcherService;
+import io.gravitee.service.geoip.service.GeoIpDatabases;
 import io.gravitee.service.geoip.service.GeoIpFinderService;
+import io.gravitee.service.geoip.service.GeoIpLookupExecutor;
+import io.gravitee.service.geoip.service.GeoIpResolver;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -50,13 +60,25 @@ public class GeoIPServiceTest {
     public static void beforeClass() throws Exception {
         vertx = Vertx.vertx();
         final DatabaseReaderServiceImpl databaseReaderService = new DatabaseReaderServiceImpl();
-        databaseReaderService.put(CITY_DB_TYPE, getDatasourceReader());
+        databaseReaderService.put(CITY_DB_TYPE, new DatabaseGeneration(getDatasourceReader(), null, null, null));
 
         var databaseReaderWatcherService = mock(DatabaseReaderWatcherService.class);
         doNothing().when(databaseReaderWatcherService).close();
 
+        final GeoIpFinderService finderService = new GeoIpFinderService();
+        final GeoIpLookupExecutor lookupExecutor = new GeoIpLookupExecutor();
         processor =
-            new GeoIPService(vertx, databaseReaderService, new GeoIpFinderService(), new GeoIpCache(5), databaseReaderWatcherService);
+            new GeoIPService(
+                vertx,
+                databaseReaderService,
+                finderService,
+                new GeoIpResolver(CITY_DB_TYPE, databaseReaderService, finderService, new GeoIpCache(5), lookupExecutor),
+                databaseReaderWatcherService,
+                lookupExecutor,
+                new GeoIpDatabases(),
+                DatabaseLoadingPolicy.defaults(),
+                1
+            );
         processor.start();
     }
 
@@ -130,6 +152,251 @@ public class GeoIPServiceTest {
         assertEquals(body, body2);
     }
 
+    @Test
+    public void shouldReplyCountryCode() {
+        var messageFuture = vertx.eventBus().<String>request(GeoIPService.GEOIP_COUNTRY_CODE_SERVICE, GRAVITEE_IO_WEBSITE_IP);
+        while (!messageFuture.isComplete());
+
+        assertTrue(messageFuture.succeeded());
+        assertEquals("US", messageFuture.result().body());
+
+        var notAnIp = vertx.eventBus().<String>request(GeoIPService.GEOIP_COUNTRY_CODE_SERVICE, "not an ip");
+        while (!notAnIp.isComplete());
+
+        assertTrue(notAnIp.failed());
+    }
+
+    @Test
+    public void shouldProcessEvent_withProjectionHeader() {
+        var messageFuture = vertx
+            .eventBus()
+            .<JsonObject>request(
+                GeoIPService.GEOIP_SERVICE,
+                GRAVITEE_IO_WEBSITE_IP,
+                new DeliveryOptions().addHeader(GeoIPService.PROPERTIES_HEADER, "country_iso_code")
+            );
+        while (!messageFuture.isComplete());
+
+        assertTrue(messageFuture.succeeded());
+        assertEquals(new JsonObject().put("country_iso_code", "US"), messageFuture.result().body());
+    }
+
+    @Test
+    public void shouldProcessEvent_withProjectionBody() {
+        final JsonObject request = new JsonObject()
+            .put("ip", GRAVITEE_IO_WEBSITE_IP)
+            .put("properties", new JsonArray().add("country_name").add("lat"));
+        var messageFuture = vertx.eventBus().<JsonObject>request(GeoIPService.GEOIP_SERVICE, request);
+        while (!messageFuture.isComplete());
+
+        assertTrue(messageFuture.succeeded());
+        assertEquals(
+            new JsonObject().put("country_name", "United States").put("lat", 37.751).put("lon", -97.822),
+            messageFuture.result().body()
+        );
+    }
+
+    @Test
+    public void shouldProcessEvent_withUnknownProperty() {
+        var messageFuture = vertx
+            .eventBus()
+            .<JsonObject>request(
+                GeoIPService.GEOIP_SERVICE,
+                GRAVITEE_IO_WEBSITE_IP,
+                new DeliveryOptions().addHeader(GeoIPService.PROPERTIES_HEADER, "postal_code")
+            );
+        while (!messageFuture.isComplete());
+
+        assertTrue(messageFuture.failed());
+        assertEquals("Unknown GeoIP property 'postal_code'", messageFuture.cause().getMessage());
+    }
+
+    @Test
+    public void shouldProcessBatch() {
+        final JsonArray ips = new JsonArray()
+            .add(GRAVITEE_IO_WEBSITE_IP)
+            .add("127.0.0.1")
+            .add("gravitee.io")
+            .add("::ffff:" + GRAVITEE_IO_WEBSITE_IP)
+            .add(GRAVITEE_IO_WEBSITE_IP)
+            .add(42);
+        var messageFuture = vertx.eventBus().<JsonArray>request(GeoIPService.GEOIP_BATCH_SERVICE, ips);
+        while (!messageFuture.isComplete());
+
+        assertTrue(messageFuture.succeeded());
+        final JsonArray body = messageFuture.result().body();
+        assertEquals(ips.size(), body.size());
+
+        assertEquals(GRAVITEE_IO_WEBSITE_IP, body.getJsonObject(0).getString("ip"));
+        assertEquals("US", body.getJsonObject(0).getJsonObject("geo").getString("country_iso_code"));
+        assertEquals("The address 127.0.0.1 is not in the database.", body.getJsonObject(1).getString("error"));
+        assertEquals("'gravitee.io' is not an IP string literal.", body.getJsonObject(2).getString("error"));
+        assertEquals(body.getJsonObject(0).getJsonObject("geo"), body.getJsonObject(3).getJsonObject("geo"));
+        assertEquals(body.getJsonObject(0), body.getJsonObject(4));
+        assertEquals("'42' is not an IP string literal.", body.getJsonObject(5).getString("error"));
+    }
+
+    @Test
+    public void shouldProcessBatch_noBody() {
+        var messageFuture = vertx.eventBus().<JsonArray>request(GeoIPService.GEOIP_BATCH_SERVICE, null);
+        while (!messageFuture.isComplete());
+
+        assertTrue(messageFuture.failed());
+        assertEquals("Unexpected error while resolving IP batch", messageFuture.cause().getMessage());
+    }
+
+    @Test
+    public void shouldProcessBatch_notAnArray() {
+        var messageFuture = vertx.eventBus().<JsonArray>request(GeoIPService.GEOIP_BATCH_SERVICE, GRAVITEE_IO_WEBSITE_IP);
+        while (!messageFuture.isComplete());
+
+        assertTrue(messageFuture.failed());
+        assertEquals("Unexpected error while resolving IP batch", messageFuture.cause().getMessage());
+    }
+
+    @Test
+    public void shouldReplyStats() {
+        getMessageFuture(GRAVITEE_IO_WEBSITE_IP);
+        getMessageFuture(GRAVITEE_IO_WEBSITE_IP);
+        getMessageFuture("127.0.0.1");
+
+        var messageFuture = vertx.eventBus().<JsonObject>request(GeoIPService.GEOIP_STATS_SERVICE, null);
+        while (!messageFuture.isComplete());
+
+        assertTrue(messageFuture.succeeded());
+        final JsonObject city = messageFuture.result().body().getJsonObject(CITY_DB_TYPE);
+        assertTrue(city.getJsonObject("cache").getLong("hits") >= 1);
+        assertTrue(city.getJsonObject("cache").getLong("misses") >= 1);
+        assertEquals(5, (int) city.getJsonObject("cache").getInteger("capacity"));
+        assertTrue(city.getJsonObject("lookup").getLong("reserved") >= 1);
+        assertTrue(city.getJsonObject("lookup").getJsonObject("parse").getLong("count") >= 3);
+        assertTrue(city.getJsonObject("lookup").getJsonObject("decode").getLong("count") >= 1);
+    }
+
+    @Test
+    public void shouldReplyReadiness() {
+        assertTrue(processor.whenReady().succeeded());
+
+        var messageFuture = vertx.eventBus().<JsonObject>request(GeoIPService.GEOIP_READINESS_SERVICE, null);
+        while (!messageFuture.isComplete());
+
+        assertTrue(messageFuture.succeeded());
+        assertTrue(messageFuture.result().body().getBoolean("ready"));
+        assertTrue(messageFuture.result().body().getJsonObject("databases").getBoolean(CITY_DB_TYPE));
+    }
+
+    @Test
+    public void shouldFailWhileLoading() throws Exception {
+        final Vertx loadingVertx = Vertx.vertx();
+        final GeoIPService loadingProcessor = newLoadingProcessor(
+            loadingVertx,
+            new DatabaseReaderServiceImpl(),
+            DatabaseLoadingPolicy.defaults()
+        );
+        try {
+            var messageFuture = loadingVertx.eventBus().<JsonObject>request(GeoIPService.GEOIP_SERVICE, GRAVITEE_IO_WEBSITE_IP);
+            while (!messageFuture.isComplete());
+
+            assertTrue(messageFuture.failed());
+            assertEquals("Database " + CITY_DB_TYPE + " not loaded", messageFuture.cause().getMessage());
+            assertFalse(loadingProcessor.whenReady().isComplete());
+        } finally {
+            loadingProcessor.stop();
+            loadingVertx.close();
+        }
+    }
+
+    @Test
+    public void shouldWaitForDatabaseWhileLoading() throws Exception {
+        final Vertx loadingVertx = Vertx.vertx();
+        final DatabaseReaderServiceImpl databaseReaderService = new DatabaseReaderServiceImpl();
+        final GeoIPService loadingProcessor = newLoadingProcessor(
+            loadingVertx,
+            databaseReaderService,
+            new DatabaseLoadingPolicy(DatabaseLoadingMode.WAIT, 10_000)
+        );
+        try {
+            var readiness = loadingVertx.eventBus().<JsonObject>request(GeoIPService.GEOIP_READINESS_SERVICE, null);
+            while (!readiness.isComplete());
+            assertFalse(readiness.result().body().getBoolean("ready"));
+
+            var messageFuture = loadingVertx.eventBus().<JsonObject>request(GeoIPService.GEOIP_SERVICE, GRAVITEE_IO_WEBSITE_IP);
+            Thread.sleep(100);
+            assertFalse(messageFuture.isComplete());
+
+            databaseReaderService.put(CITY_DB_TYPE, new DatabaseGeneration(getDatasourceReader(), null, null, null));
+            while (!messageFuture.isComplete());
+
+            assertTrue(messageFuture.succeeded());
+            assertEquals("US", messageFuture.result().body().getString("country_iso_code"));
+            assertTrue(loadingProcessor.whenReady().succeeded());
+        } finally {
+            loadingProcessor.stop();
+            loadingVertx.close();
+        }
+    }
+
+    @Test
+    public void shouldServeLookupsFromEveryInstance() throws Exception {
+        final Vertx shardedVertx = Vertx.vertx();
+        final DatabaseReaderServiceImpl databaseReaderService = new DatabaseReaderServiceImpl();
+        databaseReaderService.put(CITY_DB_TYPE, new DatabaseGeneration(getDatasourceReader(), null, null, null));
+        final GeoIpFinderService finderService = new GeoIpFinderService();
+        final GeoIpLookupExecutor lookupExecutor = new GeoIpLookupExecutor();
+        final GeoIPService shardedProcessor = new GeoIPService(
+            shardedVertx,
+            databaseReaderService,
+            finderService,
+            new GeoIpResolver(CITY_DB_TYPE, databaseReaderService, finderService, new GeoIpCache(5), lookupExecutor),
+            mock(DatabaseReaderWatcherService.class),
+            lookupExecutor,
+            new GeoIpDatabases(),
+            DatabaseLoadingPolicy.defaults(),
+            4
+        );
+        shardedProcessor.start();
+        try {
+            final List<Future<Message<JsonObject>>> replies = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                replies.add(shardedVertx.eventBus().request(GeoIPService.GEOIP_SERVICE, GRAVITEE_IO_WEBSITE_IP));
+            }
+            for (Future<Message<JsonObject>> reply : replies) {
+                while (!reply.isComplete());
+                assertTrue(reply.succeeded());
+                assertEquals("US", reply.result().body().getString("country_iso_code"));
+            }
+        } finally {
+            shardedProcessor.stop();
+        }
+        // The consumers of every instance have been unregistered
+        var messageFuture = shardedVertx.eventBus().request(GeoIPService.GEOIP_SERVICE, GRAVITEE_IO_WEBSITE_IP);
+        while (!messageFuture.isComplete());
+        assertTrue(messageFuture.failed());
+        shardedVertx.close();
+    }
+
+    private static GeoIPService newLoadingProcessor(
+        Vertx loadingVertx,
+        DatabaseReaderServiceImpl databaseReaderService,
+        DatabaseLoadingPolicy loadingPolicy
+    ) throws Exception {
+        final GeoIpFinderService finderService = new GeoIpFinderService();
+        final GeoIpLookupExecutor lookupExecutor = new GeoIpLookupExecutor();
+        final GeoIPService loadingProcessor = new GeoIPService(
+            loadingVertx,
+            databaseReaderService,
+            finderService,
+            new GeoIpResolver(CITY_DB_TYPE, databaseReaderService, finderService, new GeoIpCache(5), lookupExecutor),
+            mock(DatabaseReaderWatcherService.class),
+            lookupExecutor,
+            new GeoIpDatabases(),
+            loadingPolicy,
+            1
+        );
+        loadingProcessor.start();
+        return loadingProcessor;
+    }
+
     private Future<Message<JsonObject>> getMessageFuture(String ipMessage) {
         var messageFuture = vertx.eventBus().<JsonObject>request(GeoIPService.GEOIP_SERVICE, ipMessage);
         while (!messageFuture.isComplete());
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.benchmark;
+
+import io.gravitee.service.geoip.utils.InetAddresses;
+import io.gravitee.service.geoip.utils.IpAddressKeys;
+import java.net.InetAddress;
+import java.util.Random;
+
+/**
+ * Pre-computed, reproducible sequences of addresses fed to the benchmarks.
+ *
+ * <ul>
+ *     <li><code>uniform</code>: IPv4 addresses drawn uniformly from the public space, so nearly every lookup is distinct</li>
+ *     <li><code>zipfian</code>: IPv4 addresses drawn from a fixed population with a Zipf law, the few most frequent
+ *     addresses making most of the traffic as on a real gateway</li>
+ *     <li><code>mixed</code>: like <code>uniform</code>, with a third of global unicast IPv6 addresses</li>
+ * </ul>
+ *
+ * @author GraviteeSource Team
+ */
+final class AddressSamples {
+
+    static final int SIZE = 1 << 16;
+    private static final int ZIPF_POPULATION = 50_000;
+    private static final double ZIPF_EXPONENT = 1.1;
+
+    final String[] literals = new String[SIZE];
+    final InetAddress[] addresses = new InetAddress[SIZE];
+    final long[] highs = new long[SIZE];
+    final long[] lows = new long[SIZE];
+
+    private AddressSamples() {}
+
+    static AddressSamples generate(String distribution) {
+        final Random random = new Random(42);
+        final AddressSamples samples = new AddressSamples();
+        switch (distribution) {
+            case "uniform":
+                for (int i = 0; i < SIZE; i++) {
+                    samples.set(i, randomIPv4(random));
+                }
+                break;
+            case "zipfian":
+                final String[] population = new String[ZIPF_POPULATION];
+                for (int i = 0; i < ZIPF_POPULATION; i++) {
+                    population[i] = randomIPv4(random);
+                }
+                final double[] cumulative = zipfCumulative();
+                for (int i = 0; i < SIZE; i++) {
+                    samples.set(i, population[rank(cumulative, random.nextDouble())]);
+                }
+                break;
+            case "mixed":
+                for (int i = 0; i < SIZE; i++) {
+                    samples.set(i, random.nextInt(3) == 0 ? randomIPv6(random) : randomIPv4(random));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown distribution " + distribution);
+        }
+        return samples;
+    }
+
+    private void set(int i, String literal) {
+        final InetAddress address = InetAddresses.forString(literal);
+        literals[i] = literal;
+        addresses[i] = address;
+        highs[i] = IpAddressKeys.high(address);
+        lows[i] = IpAddressKeys.low(address);
+    }
+
+    private static String randomIPv4(Random random) {
+        // 1.0.0.0 - 223.255.255.255, skipping 10/8 and 127/8
+        int first;
+        do {
+            first = 1 + random.nextInt(223);
+        } while (first == 10 || first == 127);
+        return first + "." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256);
+    }
+
+    private static String randomIPv6(Random random) {
+        final StringBuilder builder = new StringBuilder(Integer.toHexString(0x2000 | random.nextInt(0x2000)));
+        for (int i = 1; i < 8; i++) {
+            builder.append(':').append(Integer.toHexString(random.nextInt(0x10000)));
+        }
+        return builder.toString();
+    }
+
+    private static double[] zipfCumulative() {
+        final double[] cumulative = new double[ZIPF_POPULATION];
+        double sum = 0;
+        for (int i = 0; i < ZIPF_POPULATION; i++) {
+            sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < ZIPF_POPULATION; i++) {
+            cumulative[i] /= sum;
+        }
+        return cumulative;
+    }
+
+    private static int rank(double[] cumulative, double value) {
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (cumulative[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.benchmark;
+
+import static io.gravitee.service.geoip.service.DatabaseReaderService.CITY_DB_TYPE;
+import static io.gravitee.service.geoip.service.DatabaseReaderService.DATABASES_GEO_LITE_2_CITY_MMDB;
+
+import com.maxmind.geoip2.DatabaseReader;
+import io.gravitee.service.geoip.GeoIPService;
+import io.gravitee.service.geoip.cache.CacheType;
+import io.gravitee.service.geoip.cache.GeoIpCache;
+import io.gravitee.service.geoip.service.DatabaseGeneration;
+import io.gravitee.service.geoip.service.DatabaseLoadingPolicy;
+import io.gravitee.service.geoip.service.DatabaseReaderServiceImpl;
+import io.gravitee.service.geoip.service.DatabaseReaderWatcherService;
+import io.gravitee.service.geoip.service.GeoIpDatabases;
+import io.gravitee.service.geoip.service.GeoIpFinderService;
+import io.gravitee.service.geoip.service.GeoIpLookupExecutor;
+import io.gravitee.service.geoip.service.GeoIpResolver;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.EventBus;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the end-to-end <code>service:geoip</code> request/reply round trip, as performed by the gateway policies.
+ * Failed lookups (addresses missing from the database) are part of the measure, as they are in production.
+ *
+ * <p>Run it with {@code mvn test -Pbenchmark -Dbenchmark=EventBusRoundTripBenchmark}.
+ *
+ * @author GraviteeSource Team
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventBusRoundTripBenchmark {
+
+    @Param({ "uniform", "zipfian", "mixed" })
+    public String distribution;
+
+    private Vertx vertx;
+    private EventBus eventBus;
+    private GeoIPService service;
+    private AddressSamples samples;
+    private int index;
+
+    @Setup
+    public void setUp() throws Exception {
+        samples = AddressSamples.generate(distribution);
+        vertx = Vertx.vertx();
+        eventBus = vertx.eventBus();
+
+        final DatabaseReaderServiceImpl databaseReaderService = new DatabaseReaderServiceImpl();
+        try (InputStream database = EventBusRoundTripBenchmark.class.getResourceAsStream(DATABASES_GEO_LITE_2_CITY_MMDB)) {
+            databaseReaderService.put(CITY_DB_TYPE, new DatabaseGeneration(new DatabaseReader.Builder(database).build(), null, null, null));
+        }
+        final GeoIpFinderService finderService = new GeoIpFinderService();
+        final GeoIpCache cache = new GeoIpCache(4096, CacheType.PRIMITIVE, 0, 0L, 0L);
+        final GeoIpLookupExecutor lookupExecutor = new GeoIpLookupExecutor();
+        service =
+            new GeoIPService(
+                vertx,
+                databaseReaderService,
+                finderService,
+                new GeoIpResolver(CITY_DB_TYPE, databaseReaderService, finderService, cache, lookupExecutor),
+                new DatabaseReaderWatcherService(databaseReaderService, finderService, cache, null),
+                lookupExecutor,
+                new GeoIpDatabases(),
+                DatabaseLoadingPolicy.defaults(),
+                1
+            );
+        service.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        service.stop();
+        vertx.close().toCompletionStage().toCompletableFuture().get();
+    }
+
+    @Benchmark
+    public Object request() {
+        index = (index + 1) & (AddressSamples.SIZE - 1);
+        final CompletableFuture<Object> reply = new CompletableFuture<>();
+        eventBus
+            .request(GeoIPService.GEOIP_SERVICE, samples.literals[index])
+            .onComplete(result -> reply.complete(result.succeeded() ? result.result().body() : result.cause()));
+        return reply.join();
+    }
+}
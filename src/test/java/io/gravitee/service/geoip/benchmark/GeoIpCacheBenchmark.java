@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.benchmark;
+
+import io.gravitee.service.geoip.cache.CacheType;
+import io.gravitee.service.geoip.cache.GeoIpCache;
+import io.gravitee.service.geoip.model.GeoData;
+import io.vertx.core.json.JsonObject;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures {@link GeoIpCache} lookups, populating the cache on misses, with 4 threads sharing the same cache.
+ *
+ * <p>Run it with {@code mvn test -Pbenchmark -Dbenchmark=GeoIpCacheBenchmark}.
+ *
+ * @author GraviteeSource Team
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class GeoIpCacheBenchmark {
+
+    @Param({ "GUAVA", "PRIMITIVE", "TINYLFU" })
+    public CacheType type;
+
+    @Param({ "uniform", "zipfian", "mixed" })
+    public String distribution;
+
+    private GeoIpCache cache;
+    private AddressSamples samples;
+    private final GeoData geoData = new GeoData(new JsonObject().put("country_iso_code", "FR"));
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int index;
+
+        @Setup
+        public void setUp() {
+            index = (int) Thread.currentThread().getId() * 7919;
+        }
+
+        int next() {
+            index = (index + 1) & (AddressSamples.SIZE - 1);
+            return index;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        cache = new GeoIpCache(4096, type, 0, 0L, 0L);
+        samples = AddressSamples.generate(distribution);
+    }
+
+    @Benchmark
+    public GeoData getOrPut(Cursor cursor) {
+        final int i = cursor.next();
+        GeoData cached = cache.get(samples.highs[i], samples.lows[i]);
+        if (cached == null) {
+            cached = geoData;
+            cache.put(samples.highs[i], samples.lows[i], cached);
+        }
+        return cached;
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.benchmark;
+
+import static io.gravitee.service.geoip.service.DatabaseReaderService.CITY_DB_TYPE;
+import static io.gravitee.service.geoip.service.DatabaseReaderService.DATABASES_GEO_LITE_2_CITY_MMDB;
+
+import com.maxmind.db.CHMCache;
+import com.maxmind.db.Reader;
+import com.maxmind.geoip2.DatabaseReader;
+import io.gravitee.service.geoip.index.GeoIpRangeIndex;
+import io.gravitee.service.geoip.model.GeoProjection;
+import io.gravitee.service.geoip.model.GeoProperty;
+import io.gravitee.service.geoip.service.DatabaseGeneration;
+import io.gravitee.service.geoip.service.GeoIpFinderService;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures {@link GeoIpFinderService#findNetworkGeoData} against the bundled city database, that is the cost of a
+ * cache miss, with and without the range index, and when only the country ISO code is decoded.
+ *
+ * <p>Run it with {@code mvn test -Pbenchmark -Dbenchmark=GeoIpFinderServiceBenchmark}.
+ *
+ * @author GraviteeSource Team
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GeoIpFinderServiceBenchmark {
+
+    @Param({ "uniform", "zipfian", "mixed" })
+    public String distribution;
+
+    private DatabaseGeneration readerGeneration;
+    private DatabaseGeneration indexedGeneration;
+    private DatabaseGeneration recordGeneration;
+    private File databaseFile;
+    private static final GeoProjection COUNTRY_ISO_CODE = GeoProjection.of(GeoProperty.COUNTRY_ISO_CODE);
+
+    private final GeoIpFinderService finderService = new GeoIpFinderService();
+    private AddressSamples samples;
+    private int index;
+
+    @Setup
+    public void setUp() throws IOException {
+        samples = AddressSamples.generate(distribution);
+        final DatabaseReader databaseReader;
+        try (InputStream database = GeoIpFinderServiceBenchmark.class.getResourceAsStream(DATABASES_GEO_LITE_2_CITY_MMDB)) {
+            databaseReader = new DatabaseReader.Builder(database).build();
+        }
+        try (
+            InputStream database = GeoIpFinderServiceBenchmark.class.getResourceAsStream(DATABASES_GEO_LITE_2_CITY_MMDB);
+            Reader reader = new Reader(database, new CHMCache(1 << 18))
+        ) {
+            readerGeneration = new DatabaseGeneration(databaseReader, null, null, null);
+            indexedGeneration = new DatabaseGeneration(databaseReader, GeoIpRangeIndex.build(reader, finderService::render), null, null);
+        }
+        databaseFile = File.createTempFile("gravitee-geoip-benchmark-", ".mmdb");
+        try (InputStream database = GeoIpFinderServiceBenchmark.class.getResourceAsStream(DATABASES_GEO_LITE_2_CITY_MMDB)) {
+            Files.copy(database, databaseFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        recordGeneration =
+            new DatabaseGeneration(
+                new DatabaseReader.Builder(databaseFile).fileMode(Reader.FileMode.MEMORY_MAPPED).build(),
+                null,
+                new Reader(databaseFile, Reader.FileMode.MEMORY_MAPPED, new CHMCache()),
+                null
+            );
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        readerGeneration.release();
+        recordGeneration.release();
+        Files.deleteIfExists(databaseFile.toPath());
+    }
+
+    private int next() {
+        index = (index + 1) & (AddressSamples.SIZE - 1);
+        return index;
+    }
+
+    @Benchmark
+    public Object reader() throws Exception {
+        final int i = next();
+        return finderService.findNetworkGeoData(CITY_DB_TYPE, samples.highs[i], samples.lows[i], readerGeneration, GeoProjection.ALL);
+    }
+
+    @Benchmark
+    public Object countryIsoCode() throws Exception {
+        final int i = next();
+        return finderService.findNetworkGeoData(CITY_DB_TYPE, samples.highs[i], samples.lows[i], recordGeneration, COUNTRY_ISO_CODE);
+    }
+
+    @Benchmark
+    public Object rangeIndex() throws Exception {
+        final int i = next();
+        return finderService.findNetworkGeoData(CITY_DB_TYPE, samples.highs[i], samples.lows[i], indexedGeneration, GeoProjection.ALL);
+    }
+}
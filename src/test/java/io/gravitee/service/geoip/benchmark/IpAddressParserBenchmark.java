@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.benchmark;
+
+import io.gravitee.service.geoip.utils.InetAddresses;
+import io.gravitee.service.geoip.utils.IpAddressParser;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the allocation-free {@link IpAddressParser} with {@link InetAddresses#forString(String)}.
+ *
+ * <p>Run it with {@code mvn test -Pbenchmark -Dbenchmark=IpAddressParserBenchmark}, adding {@code -prof gc} to the JMH
+ * arguments shows the allocation rate of each method.
+ *
+ * @author GraviteeSource Team
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IpAddressParserBenchmark {
+
+    @Param({ "ipv4", "ipv6" })
+    public String family;
+
+    private String[] addresses;
+    private final long[] key = new long[2];
+    private int index;
+
+    @Setup
+    public void setUp() {
+        addresses =
+            "ipv4".equals(family)
+                ? new String[] { "75.2.70.75", "192.168.1.254", "8.8.8.8", "203.0.113.17" }
+                : new String[] { "2001:db8::1", "2a01:e0a:1d5:c2c0:8d1c:3c9b:f4e1:a6b2", "::ffff:75.2.70.75", "fe80::1" };
+    }
+
+    private String next() {
+        index = (index + 1) & (addresses.length - 1);
+        return addresses[index];
+    }
+
+    @Benchmark
+    public void forString(Blackhole blackhole) {
+        blackhole.consume(InetAddresses.forString(next()));
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        blackhole.consume(IpAddressParser.parse(next(), key));
+        blackhole.consume(key[1]);
+    }
+}
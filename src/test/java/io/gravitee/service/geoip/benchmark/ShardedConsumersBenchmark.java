@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.benchmark;
+
+import static io.gravitee.service.geoip.service.DatabaseReaderService.CITY_DB_TYPE;
+import static io.gravitee.service.geoip.service.DatabaseReaderService.DATABASES_GEO_LITE_2_CITY_MMDB;
+
+import com.maxmind.geoip2.DatabaseReader;
+import io.gravitee.service.geoip.GeoIPService;
+import io.gravitee.service.geoip.cache.CacheType;
+import io.gravitee.service.geoip.cache.GeoIpCache;
+import io.gravitee.service.geoip.service.DatabaseGeneration;
+import io.gravitee.service.geoip.service.DatabaseLoadingPolicy;
+import io.gravitee.service.geoip.service.DatabaseReaderServiceImpl;
+import io.gravitee.service.geoip.service.DatabaseReaderWatcherService;
+import io.gravitee.service.geoip.service.GeoIpDatabases;
+import io.gravitee.service.geoip.service.GeoIpFinderService;
+import io.gravitee.service.geoip.service.GeoIpLookupExecutor;
+import io.gravitee.service.geoip.service.GeoIpResolver;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.EventBus;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the throughput of <code>service:geoip</code> under concurrent senders, depending on the number of
+ * instances of the lookup consumers. With a single instance every lookup is handled by the same event loop, the
+ * throughput should grow with the number of instances until the cores are busy.
+ *
+ * <p>Run it with {@code mvn test -Pbenchmark -Dbenchmark=ShardedConsumersBenchmark}.
+ *
+ * @author GraviteeSource Team
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class ShardedConsumersBenchmark {
+
+    @Param({ "1", "4", "16" })
+    public int instances;
+
+    private Vertx vertx;
+    private EventBus eventBus;
+    private GeoIPService service;
+    private AddressSamples samples;
+
+    @Setup
+    public void setUp() throws Exception {
+        samples = AddressSamples.generate("zipfian");
+        vertx = Vertx.vertx();
+        eventBus = vertx.eventBus();
+
+        final DatabaseReaderServiceImpl databaseReaderService = new DatabaseReaderServiceImpl();
+        try (InputStream database = ShardedConsumersBenchmark.class.getResourceAsStream(DATABASES_GEO_LITE_2_CITY_MMDB)) {
+            databaseReaderService.put(CITY_DB_TYPE, new DatabaseGeneration(new DatabaseReader.Builder(database).build(), null, null, null));
+        }
+        final GeoIpFinderService finderService = new GeoIpFinderService();
+        final GeoIpCache cache = new GeoIpCache(4096, CacheType.PRIMITIVE, 0, 0L, 0L);
+        final GeoIpLookupExecutor lookupExecutor = new GeoIpLookupExecutor();
+        service =
+            new GeoIPService(
+                vertx,
+                databaseReaderService,
+                finderService,
+                new GeoIpResolver(CITY_DB_TYPE, databaseReaderService, finderService, cache, lookupExecutor),
+                new DatabaseReaderWatcherService(databaseReaderService, finderService, cache, null),
+                lookupExecutor,
+                new GeoIpDatabases(),
+                DatabaseLoadingPolicy.defaults(),
+                instances
+            );
+        service.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        service.stop();
+        vertx.close().toCompletionStage().toCompletableFuture().get();
+    }
+
+    @Benchmark
+    public Object request() {
+        final String ip = samples.literals[ThreadLocalRandom.current().nextInt(AddressSamples.SIZE)];
+        final CompletableFuture<Object> reply = new CompletableFuture<>();
+        eventBus
+            .request(GeoIPService.GEOIP_SERVICE, ip)
+            .onComplete(result -> reply.complete(result.succeeded() ? result.result().body() : result.cause()));
+        return reply.join();
+    }
+}
@@ -20,9 +20,14 @@ import static java.lang.String.format;
 import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertFalse;
 
+import io.gravitee.service.geoip.model.GeoData;
 import io.gravitee.service.geoip.utils.InetAddresses;
+import io.gravitee.service.geoip.utils.IpAddressKeys;
 import io.vertx.core.json.JsonObject;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -56,4 +61,17 @@ public class ConcurrentLinkedHashMapCacheTest {
             previousValue = i;
         }
     }
+
+    @Test
+    public void mustIterateOverTheMostRecentlyUsedEntriesFirst() {
+        for (int i = 0; i < capacity; i++) {
+            cache.put(0L, IpAddressKeys.ipv4(i), new GeoData(new JsonObject()));
+        }
+        cache.get(0L, IpAddressKeys.ipv4(2));
+
+        final List<Long> lows = new ArrayList<>();
+        cache.forEach((high, low, prefixLength, value) -> lows.add(low));
+
+        assertEquals(List.of(2, 4, 3, 1, 0).stream().map(IpAddressKeys::ipv4).collect(Collectors.toList()), lows);
+    }
 }
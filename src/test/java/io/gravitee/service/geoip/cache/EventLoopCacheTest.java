@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.cache;
+
+import static org.junit.Assert.*;
+
+import io.gravitee.service.geoip.model.GeoData;
+import io.gravitee.service.geoip.model.GeoProjection;
+import io.gravitee.service.geoip.utils.IpAddressKeys;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class EventLoopCacheTest {
+
+    private static final long HIGH = 0L;
+    private static final long LOW = IpAddressKeys.ipv4(0x4B02464B);
+
+    private Vertx vertx;
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+    }
+
+    @After
+    public void tearDown() {
+        vertx.close();
+    }
+
+    @Test
+    public void shouldOnlyBeUsedOnEventLoops() {
+        assertNull(new EventLoopCache(16).table());
+        assertNotNull(onEventLoop(() -> new EventLoopCache(16).table()));
+    }
+
+    @Test
+    public void shouldServeTheEntriesOfTheGenerationItHasBeenFilledFrom() {
+        final EventLoopCache.Table table = onEventLoop(() -> new EventLoopCache(16).table());
+        final GeoData geoData = new GeoData(new JsonObject().put("country_iso_code", "US"));
+
+        assertNull(table.get(0L, HIGH, LOW));
+        table.put(0L, HIGH, LOW, geoData);
+
+        assertSame(geoData, table.get(0L, HIGH, LOW));
+        assertNull(table.get(0L, HIGH, LOW + 1));
+        // Once another generation is current, the table is cleared
+        assertNull(table.get(1L, HIGH, LOW));
+        assertNull(table.get(0L, HIGH, LOW));
+    }
+
+    @Test
+    public void shouldNotServeEntriesOfAReplacedDatabase() {
+        final GeoIpCache cache = new GeoIpCache(16, CacheType.PRIMITIVE, 16, 0L, 0L);
+        cache.put(HIGH, LOW, new GeoData(new JsonObject().put("country_iso_code", "US")));
+
+        assertNotNull(onEventLoop(() -> cache.get(HIGH, LOW, GeoProjection.ALL)));
+        assertNotNull(onEventLoop(() -> cache.get(HIGH, LOW, GeoProjection.ALL)));
+        assertEquals(2, cache.getHits());
+
+        cache.replaceAll(new long[0], new long[0], new GeoData[0], 0);
+
+        assertNull(onEventLoop(() -> cache.get(HIGH, LOW, GeoProjection.ALL)));
+        assertEquals(1, cache.getMisses());
+    }
+
+    private <T> T onEventLoop(Supplier<T> supplier) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        vertx.runOnContext(v -> result.complete(supplier.get()));
+        try {
+            return result.get(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
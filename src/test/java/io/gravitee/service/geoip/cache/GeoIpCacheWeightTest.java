@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.cache;
+
+import static org.junit.Assert.*;
+
+import io.gravitee.service.geoip.model.GeoData;
+import io.gravitee.service.geoip.utils.IpAddressKeys;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class GeoIpCacheWeightTest {
+
+    private static final GeoData COUNTRY = new GeoData(new JsonObject().put("country_iso_code", "FR"));
+    private static final GeoData CITY = new GeoData(
+        new JsonObject()
+            .put("country_iso_code", "FR")
+            .put("country_name", "France")
+            .put("continent_name", "Europe")
+            .put("region_name", "Provence-Alpes-Côte d'Azur")
+            .put("city_name", "Saint-Martin-d'Entraunes")
+            .put("timezone", "Europe/Paris")
+            .put("lat", 44.1432)
+            .put("lon", 6.7574)
+    );
+
+    @Test
+    public void shouldWeighEntriesByTheirData() {
+        assertTrue(GeoIpCache.weigh(CITY) > GeoIpCache.weigh(COUNTRY));
+        assertTrue(GeoIpCache.weigh(COUNTRY) > GeoIpCache.weigh(GeoData.NOT_FOUND));
+        assertTrue(CITY.getEstimatedSize() > CITY.encoded().length());
+    }
+
+    @Test
+    public void shouldBoundCachesByTheirWeight() {
+        for (CacheType type : new CacheType[] { CacheType.GUAVA, CacheType.TINYLFU }) {
+            final long maxBytes = 20L * GeoIpCache.weigh(CITY);
+            final GeoIpCache cache = new GeoIpCache(4096, type, 0, 0L, maxBytes);
+            for (int i = 0; i < 200; i++) {
+                cache.put(0L, IpAddressKeys.ipv4(i), CITY);
+            }
+
+            assertTrue(type + " weighs " + cache.weight(), cache.weight() <= maxBytes);
+            assertTrue(type + " holds " + cache.size(), cache.size() > 0 && cache.size() <= 20);
+            assertEquals(cache.size() * GeoIpCache.weigh(CITY), cache.weight());
+            assertEquals(200 - cache.size(), cache.getEvictions());
+            // Lighter entries take less room
+            for (int i = 0; i < 200; i++) {
+                cache.put(0L, IpAddressKeys.ipv4(1000 + i), COUNTRY);
+            }
+            assertTrue(type + " holds " + cache.size(), cache.size() > 20);
+            assertTrue(type + " weighs " + cache.weight(), cache.weight() <= maxBytes);
+        }
+    }
+
+    @Test
+    public void shouldTrackTheWeightOfEveryCacheType() {
+        for (CacheType type : CacheType.values()) {
+            final GeoIpCache cache = new GeoIpCache(10, type, 0, 0L, 0L);
+            for (int i = 0; i < 50; i++) {
+                cache.put(0L, IpAddressKeys.ipv4(i), i % 2 == 0 ? CITY : COUNTRY);
+            }
+            // Replaced by a heavier entry
+            cache.put(0L, IpAddressKeys.ipv4(49), CITY);
+
+            final long expected = cache.getCache().values().stream().mapToLong(GeoIpCache::weigh).sum();
+            assertEquals(type.name(), expected, cache.weight());
+            assertEquals(type.name(), expected, cache.getStats().getLong("weight").longValue());
+
+            cache.replaceAll(new long[0], new long[0], new GeoData[0], 0);
+            assertEquals(type.name(), 0, cache.weight());
+        }
+    }
+}
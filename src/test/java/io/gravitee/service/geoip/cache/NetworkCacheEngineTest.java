@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.cache;
+
+import static org.junit.Assert.*;
+
+import io.gravitee.service.geoip.model.GeoData;
+import io.gravitee.service.geoip.utils.InetAddresses;
+import io.gravitee.service.geoip.utils.IpAddressKeys;
+import io.vertx.core.json.JsonObject;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import org.junit.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class NetworkCacheEngineTest {
+
+    private final LongAdder evictions = new LongAdder();
+
+    @Test
+    public void mustAnswerForWholeNetwork() {
+        final NetworkCacheEngine engine = new NetworkCacheEngine(16, evictions);
+        final GeoData us = geo("US");
+        put(engine, "8.8.8.0", 96 + 24, us);
+
+        assertSame(us, get(engine, "8.8.8.8"));
+        assertSame(us, get(engine, "8.8.8.255"));
+        assertSame(us, get(engine, "::ffff:8.8.8.1"));
+        assertNull(get(engine, "8.8.9.1"));
+        assertNull(get(engine, "2001:4860::1"));
+        assertEquals(1, engine.size());
+    }
+
+    @Test
+    public void mustReturnLongestMatch() {
+        final NetworkCacheEngine engine = new NetworkCacheEngine(16, evictions);
+        final GeoData network = geo("network");
+        final GeoData address = geo("address");
+        put(engine, "2a01:e00::", 26, network);
+        put(engine, "2a01:e00::42", 128, address);
+
+        assertSame(address, get(engine, "2a01:e00::42"));
+        assertSame(network, get(engine, "2a01:e00::43"));
+        assertSame(network, get(engine, "2a01:e3f:ffff::1"));
+        assertNull(get(engine, "2a01:e40::1"));
+    }
+
+    @Test
+    public void mustReplaceValueOfSameNetwork() {
+        final NetworkCacheEngine engine = new NetworkCacheEngine(16, evictions);
+        put(engine, "81.0.0.0", 96 + 8, geo("first"));
+        put(engine, "81.2.3.4", 96 + 8, geo("second"));
+
+        assertEquals(1, engine.size());
+        assertEquals("second", get(engine, "81.255.0.1").getValue("value"));
+    }
+
+    @Test
+    public void mustEvictOnceFull() {
+        final NetworkCacheEngine engine = new NetworkCacheEngine(5, evictions);
+        for (int i = 0; i < 100; i++) {
+            put(engine, i + ".0.0.0", 96 + 16, geo(i));
+            assertEquals(i, get(engine, i + ".0.1.2").getValue("value"));
+            assertEquals(Math.min(i + 1, 5), engine.size());
+        }
+        assertEquals(95, evictions.sum());
+
+        final List<GeoData> remaining = new ArrayList<>();
+        engine.forEach((high, low, prefixLength, value) -> {
+            assertSame(value, engine.get(high, low));
+            remaining.add(value);
+        });
+        assertEquals(5, remaining.size());
+    }
+
+    @Test
+    public void mustMatchBruteForceLookups() {
+        final Random random = new Random(42);
+        final NetworkCacheEngine engine = new NetworkCacheEngine(64, evictions);
+        final long[] highs = new long[200];
+        final long[] lows = new long[200];
+        final int[] prefixes = new int[200];
+        for (int round = 0; round < 200; round++) {
+            // Disjoint networks, as in a database, some of them nested /128 entries
+            highs[round] = random.nextInt(4) == 0 ? random.nextLong() : 0x20010DB800000000L | (random.nextInt(8) << 16);
+            lows[round] = random.nextLong();
+            prefixes[round] = random.nextInt(3) == 0 ? 128 : 48 + random.nextInt(80);
+            engine.put(highs[round], lows[round], prefixes[round], geo(round));
+
+            final boolean[] present = new boolean[round + 1];
+            engine.forEach((high, low, prefixLength, value) -> present[(int) value.getValue("value")] = true);
+
+            for (int probe = 0; probe < 50; probe++) {
+                final int target = random.nextInt(round + 1);
+                final long high = highs[target];
+                final long low = prefixes[target] == 128 ? lows[target] : lows[target] ^ (random.nextLong() >>> prefixes[target]);
+                final GeoData cached = engine.get(high, low);
+                assertEquals(longestMatch(highs, lows, prefixes, present, high, low), cached == null ? -1 : cached.getValue("value"));
+            }
+        }
+        assertEquals(64, engine.size());
+    }
+
+    private static int longestMatch(long[] highs, long[] lows, int[] prefixes, boolean[] present, long high, long low) {
+        int longest = -1;
+        int match = -1;
+        for (int i = 0; i < present.length; i++) {
+            if (present[i] && prefixes[i] > longest && contains(highs[i], lows[i], prefixes[i], high, low)) {
+                longest = prefixes[i];
+                match = i;
+            }
+        }
+        return match;
+    }
+
+    private static boolean contains(long networkHigh, long networkLow, int prefix, long high, long low) {
+        final long highMask = prefix >= 64 ? -1L : -1L << (64 - prefix);
+        final long lowMask = prefix <= 64 ? 0L : prefix == 128 ? -1L : -1L << (128 - prefix);
+        return (networkHigh & highMask) == (high & highMask) && (networkLow & lowMask) == (low & lowMask);
+    }
+
+    private static void put(NetworkCacheEngine engine, String address, int prefix, GeoData value) {
+        final InetAddress ip = InetAddresses.forString(address);
+        engine.put(IpAddressKeys.high(ip), IpAddressKeys.low(ip), prefix, value);
+    }
+
+    private static GeoData get(NetworkCacheEngine engine, String address) {
+        final InetAddress ip = InetAddresses.forString(address);
+        return engine.get(IpAddressKeys.high(ip), IpAddressKeys.low(ip));
+    }
+
+    private static GeoData geo(Object value) {
+        return new GeoData(new JsonObject().put("value", value));
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.cache;
+
+import static java.lang.String.format;
+import static org.junit.Assert.*;
+
+import io.gravitee.service.geoip.utils.InetAddresses;
+import io.vertx.core.json.JsonObject;
+import java.net.InetAddress;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class PrimitiveCacheEngineTest {
+
+    private GeoIpCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new GeoIpCache(5, CacheType.PRIMITIVE, 0, 0L, 0L);
+    }
+
+    @Test
+    public void mustLimitCache_with_5_capacity() {
+        for (int i = 0; i < 100; i++) {
+            final InetAddress ip = InetAddresses.forString(format("%d.%d.%d.%d", i, i, i, i));
+            cache.put(ip, new JsonObject().put("i", i));
+            assertEquals(i, cache.get(ip).getValue("i"));
+            assertEquals(Math.min(i + 1, 5), cache.getCache().size());
+        }
+        assertEquals(95, cache.getEvictions());
+    }
+
+    @Test
+    public void mustReplaceExistingEntry() {
+        final InetAddress ip = InetAddresses.forString("2001:db8::1");
+        cache.put(ip, new JsonObject().put("value", 1));
+        cache.put(ip, new JsonObject().put("value", 2));
+
+        assertEquals(1, cache.getCache().size());
+        assertEquals(2, cache.get(ip).getValue("value"));
+    }
+
+    @Test
+    public void mustShareKeyBetweenIPv4AndMappedNotation() {
+        cache.put(InetAddresses.forString("75.2.70.75"), new JsonObject().put("value", 1));
+
+        assertNotNull(cache.get(InetAddresses.forString("::ffff:75.2.70.75")));
+        assertNull(cache.get(InetAddresses.forString("::75.2.70.75")));
+    }
+
+    @Test
+    public void mustEvictUnreferencedEntriesFirst() {
+        final InetAddress hot = InetAddresses.forString("10.0.0.1");
+        cache.put(hot, new JsonObject());
+        for (int i = 0; i < 50; i++) {
+            cache.get(hot);
+            cache.put(InetAddresses.forString(format("192.168.0.%d", i)), new JsonObject());
+        }
+
+        assertNotNull(cache.get(hot));
+        assertEquals(5, cache.getCache().size());
+    }
+}
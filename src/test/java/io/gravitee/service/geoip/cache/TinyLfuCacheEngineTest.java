@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.cache;
+
+import static java.lang.String.format;
+import static org.junit.Assert.*;
+
+import io.gravitee.service.geoip.model.GeoData;
+import io.gravitee.service.geoip.utils.InetAddresses;
+import io.gravitee.service.geoip.utils.IpAddressKeys;
+import io.vertx.core.json.JsonObject;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class TinyLfuCacheEngineTest {
+
+    private static final GeoData GEO_DATA = new GeoData(new JsonObject().put("country_iso_code", "FR"));
+
+    private GeoIpCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new GeoIpCache(100, CacheType.TINYLFU, 0, 0L, 0L);
+    }
+
+    @Test
+    public void mustLimitCache_with_100_capacity() {
+        for (int i = 0; i < 1000; i++) {
+            final InetAddress ip = InetAddresses.forString(format("10.0.%d.%d", i / 256, i % 256));
+            cache.put(ip, new JsonObject().put("i", i));
+            assertEquals(Math.min(i + 1, 100), cache.size());
+        }
+        assertEquals(900, cache.getEvictions());
+    }
+
+    @Test
+    public void mustReplaceExistingEntry() {
+        final InetAddress ip = InetAddresses.forString("2001:db8::1");
+        cache.put(ip, new JsonObject().put("value", 1));
+        cache.put(ip, new JsonObject().put("value", 2));
+
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.get(ip).getValue("value"));
+    }
+
+    @Test
+    public void mustKeepFrequentlyHitEntriesThroughAScan() {
+        final List<InetAddress> hot = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            final InetAddress ip = InetAddresses.forString(format("192.168.0.%d", i));
+            hot.add(ip);
+            cache.put(ip, GEO_DATA);
+        }
+        for (int round = 0; round < 3; round++) {
+            hot.forEach(cache::get);
+        }
+
+        // The hot addresses keep being hit while a scanner sweeps 10000 addresses
+        for (int i = 0; i < 10_000; i++) {
+            getOrPut(InetAddresses.forString(format("10.%d.%d.%d", i >>> 16, (i >>> 8) & 0xFF, i & 0xFF)));
+            if (i % 500 == 0) {
+                hot.forEach(this::getOrPut);
+            }
+        }
+
+        for (InetAddress ip : hot) {
+            assertNotNull(ip.toString(), cache.get(ip));
+        }
+    }
+
+    @Test
+    public void mustKeepHitRatioUnderCrawlerTraffic() {
+        final double steady = hitRatio(new GeoIpCache(4096, CacheType.TINYLFU, 0, 0L, 0L), 0);
+        final double crawled = hitRatio(new GeoIpCache(4096, CacheType.TINYLFU, 0, 0L, 0L), 2);
+        final double crawledLru = hitRatio(new GeoIpCache(4096, CacheType.GUAVA, 0, 0L, 0L), 2);
+
+        // About 0.73 and 0.67, the LRU cache falling to 0.47
+        assertTrue(format("steady %.3f, crawled %.3f", steady, crawled), crawled > 0.9 * steady);
+        assertTrue(format("tinylfu %.3f, lru %.3f", crawled, crawledLru), crawled > crawledLru + 0.1);
+    }
+
+    @Test
+    public void mustExpireEntries() {
+        final AtomicLong now = new AtomicLong();
+        final TinyLfuCacheEngine engine = new TinyLfuCacheEngine(10, 0L, 1000, new LongAdder(), now::get);
+        engine.put(0L, IpAddressKeys.ipv4(1), GEO_DATA);
+
+        now.set(999_000_000L);
+        assertNotNull(engine.get(0L, IpAddressKeys.ipv4(1)));
+
+        now.set(1_000_000_000L);
+        assertNull(engine.get(0L, IpAddressKeys.ipv4(1)));
+        assertEquals(0, engine.size());
+    }
+
+    @Test
+    public void mustIterateOverHotEntriesFirst() {
+        for (int i = 0; i < 100; i++) {
+            cache.put(0L, IpAddressKeys.ipv4(i), GEO_DATA);
+        }
+        cache.get(0L, IpAddressKeys.ipv4(42));
+
+        final List<Long> lows = new ArrayList<>();
+        cache.forEach((high, low, prefixLength, value) -> lows.add(low));
+
+        assertEquals(100, lows.size());
+        assertEquals(IpAddressKeys.ipv4(42), (long) lows.get(0));
+    }
+
+    private void getOrPut(InetAddress ip) {
+        if (cache.get(ip) == null) {
+            cache.put(ip, GEO_DATA);
+        }
+    }
+
+    /**
+     * Replays zipfian client traffic, interleaved with <code>crawlersPerClient</code> requests of never seen addresses
+     * for each client request, and returns the hit ratio of the client requests.
+     */
+    private static double hitRatio(GeoIpCache cache, int crawlersPerClient) {
+        final Random random = new Random(42);
+        final int population = 20_000;
+        final double[] cumulative = new double[population];
+        double sum = 0;
+        for (int i = 0; i < population; i++) {
+            sum += 1 / Math.pow(i + 1, 0.9);
+            cumulative[i] = sum;
+        }
+        int crawler = 0;
+        long hits = 0;
+        final int requests = 200_000;
+        for (int request = 0; request < requests; request++) {
+            final double value = random.nextDouble() * sum;
+            int rank = Arrays.binarySearch(cumulative, value);
+            rank = rank < 0 ? -rank - 1 : rank;
+            final long low = IpAddressKeys.ipv4(rank);
+            if (cache.get(0L, low) != null) {
+                hits++;
+            } else {
+                cache.put(0L, low, GEO_DATA);
+            }
+            for (int i = 0; i < crawlersPerClient; i++) {
+                final long crawled = IpAddressKeys.ipv4(0x0A000000 + crawler++);
+                if (cache.get(0L, crawled) == null) {
+                    cache.put(0L, crawled, GEO_DATA);
+                }
+            }
+        }
+        return (double) hits / requests;
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.codec;
+
+import static org.junit.Assert.*;
+
+import io.gravitee.service.geoip.model.GeoData;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class GeoDataMessageCodecTest {
+
+    private final GeoDataMessageCodec codec = new GeoDataMessageCodec();
+    private final GeoData geoData = new GeoData(new JsonObject().put("country_iso_code", "FR").put("lat", 48.8582));
+
+    @Test
+    public void shouldRoundTripOnTheWire() {
+        final Buffer buffer = Buffer.buffer().appendString("header");
+        codec.encodeToWire(buffer, geoData);
+
+        final JsonObject decoded = codec.decodeFromWire(6, buffer);
+
+        assertEquals("FR", decoded.getString("country_iso_code"));
+        assertEquals(48.8582, decoded.getDouble("lat"), 0);
+    }
+
+    @Test
+    public void shouldTransformIntoAReadOnlyView() {
+        final JsonObject transformed = codec.transform(geoData);
+
+        assertSame(transformed, codec.transform(geoData));
+        assertEquals("FR", transformed.getString("country_iso_code"));
+        assertThrows(UnsupportedOperationException.class, () -> transformed.put("country_iso_code", "US"));
+        assertEquals("FR", geoData.getValue("country_iso_code"));
+    }
+
+    @Test
+    public void shouldCopyIntoAModifiableObject() {
+        final JsonObject copy = geoData.toJson();
+        copy.put("country_iso_code", "US");
+
+        assertEquals("FR", geoData.getValue("country_iso_code"));
+    }
+}
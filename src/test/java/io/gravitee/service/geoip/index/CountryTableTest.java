@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.index;
+
+import static io.gravitee.service.geoip.service.DatabaseReaderService.DATABASES_GEO_LITE_2_CITY_MMDB;
+import static org.junit.Assert.*;
+
+import com.maxmind.db.CHMCache;
+import com.maxmind.db.Reader;
+import com.maxmind.geoip2.DatabaseReader;
+import io.gravitee.service.geoip.utils.InetAddresses;
+import io.gravitee.service.geoip.utils.IpAddressKeys;
+import java.net.InetAddress;
+import java.util.Random;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class CountryTableTest {
+
+    private static DatabaseReader databaseReader;
+    private static CountryTable countryTable;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        databaseReader = new DatabaseReader.Builder(CountryTableTest.class.getResourceAsStream(DATABASES_GEO_LITE_2_CITY_MMDB)).build();
+        try (Reader reader = new Reader(CountryTableTest.class.getResourceAsStream(DATABASES_GEO_LITE_2_CITY_MMDB), new CHMCache())) {
+            countryTable = CountryTable.build(reader);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws Exception {
+        databaseReader.close();
+    }
+
+    @Test
+    public void shouldResolveTheCountryOfIndexedBlocks() {
+        final int id = countryTable.find(0L, IpAddressKeys.ipv4(0x4B02464B));
+
+        assertTrue(id > CountryTable.NOT_FOUND);
+        assertEquals("US", countryTable.isoCode(id));
+    }
+
+    @Test
+    public void shouldIndexBlocksMadeOfSmallerNetworksOfTheSameCountry() {
+        // 1.2.3.0/25 and 1.2.3.128/25 are two cities of the same country
+        final int first = countryTable.find(0L, IpAddressKeys.ipv4(0x01020301));
+        final int second = countryTable.find(0L, IpAddressKeys.ipv4(0x010203F0));
+
+        assertEquals("FR", countryTable.isoCode(first));
+        assertEquals(first, second);
+        assertEquals(0, countryTable.splitBlockCount());
+    }
+
+    @Test
+    public void shouldResolveAddressesOutsideOfTheDatabaseAsNotFound() {
+        assertEquals(CountryTable.NOT_FOUND, countryTable.find(0L, IpAddressKeys.ipv4(0x0A000001)));
+    }
+
+    @Test
+    public void shouldNotIndexIPv6() {
+        final InetAddress ip = InetAddresses.forString("2001:4860:4860::8888");
+
+        assertEquals(CountryTable.NOT_INDEXED, countryTable.find(IpAddressKeys.high(ip), IpAddressKeys.low(ip)));
+    }
+
+    @Test
+    public void shouldResolveLikeTheDatabaseReader() throws Exception {
+        final Random random = new Random(42);
+        int indexed = 0;
+        for (int i = 0; i < 20_000; i++) {
+            final byte[] bytes = new byte[4];
+            random.nextBytes(bytes);
+            final InetAddress ip = InetAddress.getByAddress(bytes);
+            final int id = countryTable.find(IpAddressKeys.high(ip), IpAddressKeys.low(ip));
+            if (id == CountryTable.NOT_INDEXED) {
+                continue;
+            }
+            indexed++;
+            final String expected = databaseReader.tryCountry(ip).map(response -> response.getCountry().getIsoCode()).orElse(null);
+            assertEquals(ip.toString(), expected, id == CountryTable.NOT_FOUND ? null : countryTable.isoCode(id));
+        }
+        // Split blocks are the exception
+        assertTrue(indexed > 19_000);
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.index;
+
+import static io.gravitee.service.geoip.service.DatabaseReaderService.CITY_DB_TYPE;
+import static io.gravitee.service.geoip.service.DatabaseReaderService.DATABASES_GEO_LITE_2_CITY_MMDB;
+import static org.junit.Assert.*;
+
+import com.maxmind.db.CHMCache;
+import com.maxmind.db.Reader;
+import com.maxmind.geoip2.DatabaseReader;
+import io.gravitee.service.geoip.model.GeoData;
+import io.gravitee.service.geoip.model.GeoProjection;
+import io.gravitee.service.geoip.service.DatabaseGeneration;
+import io.gravitee.service.geoip.service.GeoIpFinderService;
+import io.gravitee.service.geoip.utils.InetAddresses;
+import io.gravitee.service.geoip.utils.IpAddressKeys;
+import java.net.InetAddress;
+import java.util.Random;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class GeoIpRangeIndexTest {
+
+    private static final GeoIpFinderService FINDER = new GeoIpFinderService();
+
+    private static DatabaseGeneration readerGeneration;
+    private static GeoIpRangeIndex rangeIndex;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        readerGeneration =
+            new DatabaseGeneration(
+                new DatabaseReader.Builder(GeoIpRangeIndexTest.class.getResourceAsStream(DATABASES_GEO_LITE_2_CITY_MMDB)).build(),
+                null,
+                null,
+                null
+            );
+        try (Reader reader = new Reader(GeoIpRangeIndexTest.class.getResourceAsStream(DATABASES_GEO_LITE_2_CITY_MMDB), new CHMCache())) {
+            rangeIndex = GeoIpRangeIndex.build(reader, FINDER::render);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws Exception {
+        readerGeneration.release();
+    }
+
+    @Test
+    public void shouldResolveLikeTheDatabaseReader() throws Exception {
+        assertSameAsDatabaseReader(InetAddresses.forString("75.2.70.75"));
+        assertSameAsDatabaseReader(InetAddresses.forString("127.0.0.1"));
+        assertSameAsDatabaseReader(InetAddresses.forString("::75.2.70.75"));
+        assertSameAsDatabaseReader(InetAddresses.forString("2001:4860:4860::8888"));
+        assertSameAsDatabaseReader(InetAddresses.forString("::1"));
+
+        final Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            final byte[] bytes = new byte[i % 4 == 0 ? 16 : 4];
+            random.nextBytes(bytes);
+            assertSameAsDatabaseReader(InetAddress.getByAddress(bytes));
+        }
+    }
+
+    @Test
+    public void shouldShareRecords() {
+        final GeoData first = rangeIndex.find(0L, IpAddressKeys.ipv4(0x4B020001));
+        final GeoData second = rangeIndex.find(0L, IpAddressKeys.ipv4(0x4B0246FF));
+
+        assertNotNull(first);
+        assertSame(first, second);
+        assertTrue(rangeIndex.recordCount() < rangeIndex.ipv4RangeCount() + rangeIndex.ipv6RangeCount());
+    }
+
+    @Test
+    public void shouldLeave6to4ToTheDatabaseReader() {
+        assertSame(GeoIpRangeIndex.NOT_INDEXED, rangeIndex.find(0x2002_4B02_464B_0000L, 1L));
+    }
+
+    private void assertSameAsDatabaseReader(InetAddress address) throws Exception {
+        final long high = IpAddressKeys.high(address);
+        final long low = IpAddressKeys.low(address);
+
+        final GeoData found = FINDER.findNetworkGeoData(CITY_DB_TYPE, high, low, readerGeneration, GeoProjection.ALL).getGeoData();
+        // The range index has no entry for the addresses which are not in the database
+        final GeoData expected = found.isNotFound() ? null : found;
+
+        final GeoData actual = rangeIndex.find(high, low);
+        if (actual != GeoIpRangeIndex.NOT_INDEXED) {
+            assertEquals(address.toString(), expected, actual);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.metrics;
+
+import static org.junit.Assert.*;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void mustBucketValuesContiguously() {
+        long expectedLowest = 0;
+        for (int bucket = 0; bucket < 960; bucket++) {
+            assertEquals(bucket, LatencyHistogram.bucket(expectedLowest));
+            final long highest = LatencyHistogram.highestValue(bucket);
+            assertEquals(bucket, LatencyHistogram.bucket(highest));
+            expectedLowest = highest + 1;
+        }
+        assertEquals(959, LatencyHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void mustReportPercentilesWithinBucketPrecision() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value * 1_000);
+        }
+
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(5_000_000, histogram.percentile(50), 5_000_000 * 0.07);
+        assertEquals(9_900_000, histogram.percentile(99), 9_900_000 * 0.07);
+        assertEquals(10_000_000, histogram.percentile(100));
+    }
+
+    @Test
+    public void mustReportEmptyHistogram() {
+        final JsonObject json = new LatencyHistogram().toJson();
+
+        assertEquals(0L, (long) json.getLong("count"));
+        assertEquals(0L, (long) json.getLong("p99_ns"));
+        assertEquals(0L, (long) json.getLong("max_ns"));
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.model;
+
+import static org.junit.Assert.*;
+
+import io.vertx.core.json.JsonObject;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class GeoProjectionTest {
+
+    @Test
+    public void shouldParseKeysAndNames() {
+        final GeoProjection projection = GeoProjection.parse("country_iso_code, CITY_NAME,lat");
+
+        assertEquals(Set.of(GeoProperty.COUNTRY_ISO_CODE, GeoProperty.CITY_NAME, GeoProperty.LOCATION), projection.properties());
+        assertSame(projection, GeoProjection.of(GeoProperty.CITY_NAME, GeoProperty.LOCATION, GeoProperty.COUNTRY_ISO_CODE));
+        assertSame(projection, GeoProjection.of(List.of("lon", "city_name", "country_iso_code")));
+    }
+
+    @Test
+    public void shouldDefaultToAllProperties() {
+        assertSame(GeoProjection.ALL, GeoProjection.parse(null));
+        assertSame(GeoProjection.ALL, GeoProjection.parse(" "));
+        assertSame(GeoProjection.ALL, GeoProjection.of(List.of()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnknownProperty() {
+        GeoProjection.parse("country_iso_code,postal_code");
+    }
+
+    @Test
+    public void shouldCompareProjections() {
+        final GeoProjection country = GeoProjection.of(GeoProperty.COUNTRY_ISO_CODE);
+        final GeoProjection city = GeoProjection.of(GeoProperty.CITY_NAME);
+
+        assertTrue(GeoProjection.ALL.covers(country));
+        assertFalse(country.covers(city));
+        assertTrue(country.union(city).covers(city));
+        assertSame(GeoProjection.of(GeoProperty.COUNTRY_ISO_CODE, GeoProperty.CITY_NAME), country.union(city));
+    }
+
+    @Test
+    public void shouldProjectGeoData() {
+        final GeoData geoData = new GeoData(
+            new JsonObject()
+                .put("country_iso_code", "FR")
+                .put("country_name", "France")
+                .put("continent_name", "Europe")
+                .put("region_name", null)
+                .put("city_name", "Paris")
+                .put("timezone", "Europe/Paris")
+                .put("lat", 48.8582)
+                .put("lon", 2.3387)
+        );
+        final GeoProjection projection = GeoProjection.of(GeoProperty.COUNTRY_ISO_CODE, GeoProperty.LOCATION);
+
+        final GeoData projected = geoData.project(projection);
+
+        assertEquals(new JsonObject().put("country_iso_code", "FR").put("lat", 48.8582).put("lon", 2.3387), projected.asJson());
+        assertSame(projection, projected.getProjection());
+        assertSame(projected, geoData.project(projection));
+        assertSame(geoData, geoData.project(GeoProjection.ALL));
+        assertThrows(IllegalArgumentException.class, () -> projected.project(GeoProjection.ALL));
+    }
+}
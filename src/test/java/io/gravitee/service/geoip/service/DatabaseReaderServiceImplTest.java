@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.service;
+
+import static io.gravitee.service.geoip.service.DatabaseReaderService.CITY_DB_TYPE;
+import static io.gravitee.service.geoip.service.DatabaseReaderService.DATABASES_GEO_LITE_2_CITY_MMDB;
+import static org.junit.Assert.*;
+
+import com.maxmind.db.ClosedDatabaseException;
+import com.maxmind.geoip2.DatabaseReader;
+import io.vertx.core.Future;
+import java.io.IOException;
+import java.net.InetAddress;
+import org.junit.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class DatabaseReaderServiceImplTest {
+
+    private final DatabaseReaderServiceImpl databaseReaderService = new DatabaseReaderServiceImpl();
+
+    @Test
+    public void shouldCloseReplacedReaderOnceReleased() throws Exception {
+        final DatabaseReader oldReader = newReader();
+        databaseReaderService.put(CITY_DB_TYPE, new DatabaseGeneration(oldReader, null, null, null));
+
+        final DatabaseGeneration inFlight = databaseReaderService.acquire(CITY_DB_TYPE);
+        final DatabaseReader newReader = newReader();
+        databaseReaderService.put(CITY_DB_TYPE, new DatabaseGeneration(newReader, null, null, null));
+
+        assertSame(newReader, databaseReaderService.get(CITY_DB_TYPE));
+        assertFalse(inFlight.isCurrent());
+        // Still usable by the lookup started before the swap
+        assertTrue(oldReader.tryCity(InetAddress.getByName("75.2.70.75")).isPresent());
+
+        inFlight.release();
+
+        assertThrows(ClosedDatabaseException.class, () -> oldReader.tryCity(InetAddress.getByName("75.2.70.75")));
+        assertTrue(newReader.tryCity(InetAddress.getByName("75.2.70.75")).isPresent());
+    }
+
+    @Test
+    public void shouldCloseReplacedReaderRightAwayWithoutLookups() throws Exception {
+        final DatabaseReader oldReader = newReader();
+        databaseReaderService.put(CITY_DB_TYPE, new DatabaseGeneration(oldReader, null, null, null));
+
+        databaseReaderService.put(CITY_DB_TYPE, new DatabaseGeneration(newReader(), null, null, null));
+
+        assertThrows(ClosedDatabaseException.class, () -> oldReader.tryCity(InetAddress.getByName("75.2.70.75")));
+    }
+
+    @Test
+    public void shouldNotAcquireOnceClosed() throws Exception {
+        databaseReaderService.put(CITY_DB_TYPE, new DatabaseGeneration(newReader(), null, null, null));
+        databaseReaderService.close();
+
+        assertNull(databaseReaderService.acquire(CITY_DB_TYPE));
+        assertNull(databaseReaderService.get(CITY_DB_TYPE));
+    }
+
+    @Test
+    public void shouldCompleteOnceLoaded() throws Exception {
+        final Future<Void> loaded = databaseReaderService.whenLoaded(CITY_DB_TYPE);
+        assertFalse(loaded.isComplete());
+
+        databaseReaderService.put(CITY_DB_TYPE, new DatabaseGeneration(newReader(), null, null, null));
+
+        assertTrue(loaded.succeeded());
+        assertTrue(databaseReaderService.whenLoaded(CITY_DB_TYPE).succeeded());
+    }
+
+    private static DatabaseReader newReader() throws IOException {
+        return new DatabaseReader.Builder(DatabaseReaderServiceImplTest.class.getResourceAsStream(DATABASES_GEO_LITE_2_CITY_MMDB)).build();
+    }
+}
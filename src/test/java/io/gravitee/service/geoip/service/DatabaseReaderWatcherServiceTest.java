@@ -0,0 +1,319 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.service;
+
+import static io.gravitee.service.geoip.service.DatabaseReaderService.ASN_DB_TYPE;
+import static io.gravitee.service.geoip.service.DatabaseReaderService.CITY_DB_TYPE;
+import static io.gravitee.service.geoip.service.DatabaseReaderService.DATABASES_GEO_LITE_2_CITY_MMDB;
+import static org.junit.Assert.*;
+
+import com.maxmind.geoip2.DatabaseReader;
+import io.gravitee.service.geoip.cache.CacheType;
+import io.gravitee.service.geoip.cache.GeoIpCache;
+import io.gravitee.service.geoip.model.GeoData;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class DatabaseReaderWatcherServiceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static final long WATCH_DEBOUNCE = 200;
+    private static final int LOOKED_UP_ADDRESSES = 8;
+    private static final String PREVIOUS_NAME = "United States";
+    private static final String NEW_NAME = "United Statez";
+
+    private final DatabaseReaderServiceImpl databaseReaderService = new DatabaseReaderServiceImpl();
+    private final GeoIpCache cache = new GeoIpCache(16);
+    private DatabaseReaderWatcherService watcherService;
+    private Path database;
+    private byte[] databaseContent;
+
+    @Before
+    public void setUp() throws Exception {
+        try (InputStream inputStream = getClass().getResourceAsStream(DATABASES_GEO_LITE_2_CITY_MMDB)) {
+            databaseContent = inputStream.readAllBytes();
+        }
+        database = temporaryFolder.getRoot().toPath().resolve("GeoLite2-City.mmdb");
+        Files.write(database, databaseContent);
+
+        watcherService =
+            new DatabaseReaderWatcherService(databaseReaderService, new GeoIpFinderService(), cache, database.toString())
+                .watchDebounce(WATCH_DEBOUNCE)
+                .start(true);
+        await(() -> databaseReaderService.get(CITY_DB_TYPE) != null);
+    }
+
+    @After
+    public void tearDown() {
+        watcherService.close();
+        databaseReaderService.close();
+    }
+
+    @Test
+    public void shouldSwapDatabaseAndRewarmCache() throws Exception {
+        final DatabaseReader previousReader = databaseReaderService.get(CITY_DB_TYPE);
+        final InetAddress known = InetAddress.getByName("75.2.70.75");
+        final InetAddress unknown = InetAddress.getByName("127.0.0.1");
+        final GeoData stale = new GeoData(new JsonObject().put("country_iso_code", "stale"));
+        cache.put(known, stale);
+        cache.put(unknown, stale);
+
+        Files.write(database, rebuilt(databaseContent));
+
+        await(() -> cache.get(unknown) == GeoData.NOT_FOUND);
+        assertNotSame(previousReader, databaseReaderService.get(CITY_DB_TYPE));
+        assertEquals("US", cache.get(known).getValue("country_iso_code"));
+    }
+
+    @Test
+    public void shouldReloadOnceDatabaseIsFullyWritten() throws Exception {
+        final byte[] rebuilt = rebuilt(databaseContent);
+        try (FileChannel channel = FileChannel.open(database, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final int chunk = rebuilt.length / 4 + 1;
+            for (int offset = 0; offset < rebuilt.length; offset += chunk) {
+                channel.write(ByteBuffer.wrap(rebuilt, offset, Math.min(chunk, rebuilt.length - offset)));
+                Thread.sleep(WATCH_DEBOUNCE / 4);
+            }
+        }
+
+        await(() -> cache.getMetrics().getReload().getCount() == 2);
+        Thread.sleep(WATCH_DEBOUNCE * 3);
+        assertEquals(2, cache.getMetrics().getReload().getCount());
+        assertEquals(0, cache.getMetrics().getReloadFailures());
+    }
+
+    @Test
+    public void shouldReloadDatabaseRenamedOverTheWatchedOne() throws Exception {
+        final DatabaseReader previousReader = databaseReaderService.get(CITY_DB_TYPE);
+        final Path temporary = database.resolveSibling("GeoLite2-City.mmdb.download");
+        Files.write(temporary, rebuilt(databaseContent));
+
+        Files.move(temporary, database, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        await(() -> databaseReaderService.get(CITY_DB_TYPE) != previousReader);
+    }
+
+    @Test
+    public void shouldNotReloadUnchangedDatabase() throws Exception {
+        final DatabaseReader currentReader = databaseReaderService.get(CITY_DB_TYPE);
+
+        Files.write(database, databaseContent);
+        Thread.sleep(WATCH_DEBOUNCE * 5);
+
+        assertSame(currentReader, databaseReaderService.get(CITY_DB_TYPE));
+        assertEquals(1, cache.getMetrics().getReload().getCount());
+    }
+
+    @Test
+    public void shouldKeepCurrentDatabaseWhenNewOneIsInvalid() throws Exception {
+        final DatabaseReader currentReader = databaseReaderService.get(CITY_DB_TYPE);
+
+        Files.write(database, new byte[] { 1, 2, 3 });
+        Thread.sleep(1000);
+
+        assertSame(currentReader, databaseReaderService.get(CITY_DB_TYPE));
+        assertTrue(currentReader.tryCity(InetAddress.getByName("75.2.70.75")).isPresent());
+    }
+
+    @Test
+    public void shouldRejectDatabaseOfAnotherType() throws Exception {
+        final DatabaseReaderWatcherService asnWatcherService = new DatabaseReaderWatcherService(
+            databaseReaderService,
+            new GeoIpFinderService(),
+            new GeoIpCache(16),
+            database.toString()
+        )
+            .database(ASN_DB_TYPE, null)
+            .start(false);
+        try {
+            Thread.sleep(500);
+            assertNull(databaseReaderService.get(ASN_DB_TYPE));
+            assertNotNull(databaseReaderService.get(CITY_DB_TYPE));
+        } finally {
+            asnWatcherService.close();
+        }
+    }
+
+    @Test
+    public void shouldRewarmHottestEntriesUpToTheCap() throws Exception {
+        final GeoIpCache primitiveCache = new GeoIpCache(16, CacheType.PRIMITIVE, 0, 0L, 0L);
+        final InetAddress cold = InetAddress.getByName("8.8.8.8");
+        final InetAddress hot = InetAddress.getByName("75.2.70.75");
+        final GeoData stale = new GeoData(new JsonObject().put("country_iso_code", "stale"));
+        primitiveCache.put(cold, stale);
+        primitiveCache.put(hot, stale);
+        primitiveCache.get(hot);
+
+        // A database is already loaded, so the one loaded on start is re-warmed
+        final DatabaseReaderWatcherService otherWatcherService = new DatabaseReaderWatcherService(
+            databaseReaderService,
+            new GeoIpFinderService(),
+            primitiveCache,
+            database.toString()
+        )
+            .rewarmPolicy(new CacheRewarmPolicy(1, 1, 1))
+            .start(false);
+        try {
+            await(() -> primitiveCache.getMetrics().getRewarmed() == 1);
+            assertEquals(1, primitiveCache.getMetrics().getRewarmDropped());
+            assertEquals(0, primitiveCache.getMetrics().getRewarmPending());
+            assertEquals("US", primitiveCache.get(hot).getValue("country_iso_code"));
+            assertNull(primitiveCache.get(cold));
+        } finally {
+            otherWatcherService.close();
+        }
+    }
+
+    @Test
+    public void shouldRestoreCacheSnapshotOnceLoaded() throws Exception {
+        final GeoIpCacheSnapshot snapshot = new GeoIpCacheSnapshot(temporaryFolder.newFolder().toPath(), false);
+        final InetAddress known = InetAddress.getByName("75.2.70.75");
+        cache.put(known, new GeoData(new JsonObject().put("country_iso_code", "US")));
+        watcherService.cacheSnapshot(snapshot).saveCacheSnapshot();
+
+        final DatabaseReaderServiceImpl restartedReaderService = new DatabaseReaderServiceImpl();
+        final GeoIpCache restartedCache = new GeoIpCache(16);
+        final DatabaseReaderWatcherService restartedWatcherService = new DatabaseReaderWatcherService(
+            restartedReaderService,
+            new GeoIpFinderService(),
+            restartedCache,
+            database.toString()
+        )
+            .cacheSnapshot(snapshot)
+            .start(false);
+        try {
+            await(() -> restartedCache.get(known) != null);
+            assertEquals("US", restartedCache.get(known).getValue("country_iso_code"));
+        } finally {
+            restartedWatcherService.close();
+            restartedReaderService.close();
+        }
+    }
+
+    @Test
+    public void shouldNotServeEntriesOfThePreviousDatabaseOnceTheNewOneIsVisible() throws Exception {
+        final DatabaseReader previousReader = databaseReaderService.get(CITY_DB_TYPE);
+        final GeoIpResolver resolver = new GeoIpResolver(
+            CITY_DB_TYPE,
+            databaseReaderService,
+            new GeoIpFinderService(),
+            cache,
+            new GeoIpLookupExecutor()
+        );
+        for (int i = 0; i < LOOKED_UP_ADDRESSES; i++) {
+            assertEquals(PREVIOUS_NAME, resolver.resolve("75.2.70." + i).result().getValue("country_name"));
+        }
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<String> stale = new AtomicReference<>();
+        final ExecutorService lookups = Executors.newFixedThreadPool(4);
+        for (int thread = 0; thread < 4; thread++) {
+            lookups.submit(() -> {
+                for (int i = 0; running.get(); i++) {
+                    final String ip = "75.2.70." + (i % LOOKED_UP_ADDRESSES);
+                    final boolean reloaded = databaseReaderService.get(CITY_DB_TYPE) != previousReader;
+                    final Future<GeoData> result = resolver.resolve(ip);
+                    if (reloaded && result.succeeded() && PREVIOUS_NAME.equals(result.result().getValue("country_name"))) {
+                        stale.compareAndSet(null, ip);
+                    }
+                }
+            });
+        }
+
+        Files.write(database, renamed(databaseContent));
+        await(() -> databaseReaderService.get(CITY_DB_TYPE) != previousReader);
+        assertNoEntryOfThePreviousDatabase();
+
+        Thread.sleep(200);
+        running.set(false);
+        lookups.shutdown();
+        assertTrue(lookups.awaitTermination(10, TimeUnit.SECONDS));
+        assertNull("Served from the previous database once the new one was visible: " + stale.get(), stale.get());
+        assertNoEntryOfThePreviousDatabase();
+        assertEquals(NEW_NAME, resolver.resolve("75.2.70.0").result().getValue("country_name"));
+    }
+
+    private void assertNoEntryOfThePreviousDatabase() {
+        cache.forEach((high, low, prefixLength, value) -> assertNotEquals(PREVIOUS_NAME, value.getValue("country_name")));
+    }
+
+    /**
+     * @return the given database with its United States records renamed, which leaves every offset unchanged
+     */
+    private static byte[] renamed(byte[] content) {
+        final byte[] renamed = content.clone();
+        final byte[] previous = PREVIOUS_NAME.getBytes(StandardCharsets.US_ASCII);
+        final byte[] next = NEW_NAME.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i <= renamed.length - previous.length; i++) {
+            if (Arrays.equals(previous, 0, previous.length, renamed, i, i + previous.length)) {
+                System.arraycopy(next, 0, renamed, i, next.length);
+            }
+        }
+        return renamed;
+    }
+
+    /**
+     * @return the given database with another build date, which only changes the value of its build epoch
+     */
+    private static byte[] rebuilt(byte[] content) {
+        final byte[] rebuilt = content.clone();
+        final byte[] key = "build_epoch".getBytes(StandardCharsets.US_ASCII);
+        for (int i = rebuilt.length - key.length; i >= 0; i--) {
+            if (Arrays.equals(key, 0, key.length, rebuilt, i, i + key.length)) {
+                // Extended control byte of an uint64: the size then the type, followed by the big-endian value
+                final int size = rebuilt[i + key.length] & 0x1F;
+                final int last = i + key.length + 1 + size;
+                rebuilt[last] = (byte) (rebuilt[last] ^ 1);
+                return rebuilt;
+            }
+        }
+        throw new IllegalArgumentException("No build epoch found");
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+}
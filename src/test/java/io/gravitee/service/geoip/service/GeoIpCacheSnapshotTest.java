@@ -0,0 +1,211 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.service;
+
+import static org.junit.Assert.*;
+
+import com.maxmind.db.Metadata;
+import io.gravitee.service.geoip.cache.CacheType;
+import io.gravitee.service.geoip.cache.GeoIpCache;
+import io.gravitee.service.geoip.model.GeoData;
+import io.gravitee.service.geoip.model.GeoProjection;
+import io.gravitee.service.geoip.model.GeoProperty;
+import io.gravitee.service.geoip.utils.IpAddressKeys;
+import io.vertx.core.json.JsonObject;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class GeoIpCacheSnapshotTest {
+
+    private static final Metadata METADATA = metadata("GeoLite2-City", 1600000000L);
+    private static final GeoProjection COUNTRY = GeoProjection.of(GeoProperty.COUNTRY_ISO_CODE);
+    private static final long KNOWN = IpAddressKeys.ipv4(0x4B02464B);
+    private static final long UNKNOWN = IpAddressKeys.ipv4(0x01010101);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final GeoIpCache cache = new GeoIpCache(16, CacheType.PRIMITIVE, 0, 0L, 0L);
+    private final GeoData known = new GeoData(new JsonObject().put("country_iso_code", "US"), COUNTRY);
+
+    @Before
+    public void setUp() {
+        cache.put(0L, KNOWN, known);
+        cache.put(0L, UNKNOWN, GeoData.NOT_FOUND);
+    }
+
+    @Test
+    public void shouldRestoreDataOfTheSameBuild() throws Exception {
+        final GeoIpCacheSnapshot snapshot = new GeoIpCacheSnapshot(temporaryFolder.getRoot().toPath(), true);
+        assertEquals(2, snapshot.save("GeoLite2-City", METADATA, cache));
+
+        final Map<Long, Object[]> restored = restore(snapshot, METADATA);
+
+        assertEquals(2, restored.size());
+        assertEquals(known, restored.get(KNOWN)[1]);
+        assertSame(COUNTRY, restored.get(KNOWN)[0]);
+        assertSame(GeoData.NOT_FOUND, restored.get(UNKNOWN)[1]);
+    }
+
+    @Test
+    public void shouldOnlyRestoreAddressesOfAnotherBuild() throws Exception {
+        final GeoIpCacheSnapshot snapshot = new GeoIpCacheSnapshot(temporaryFolder.getRoot().toPath(), true);
+        snapshot.save("GeoLite2-City", METADATA, cache);
+
+        final Map<Long, Object[]> restored = restore(snapshot, metadata("GeoLite2-City", 1700000000L));
+
+        assertEquals(2, restored.size());
+        assertNull(restored.get(KNOWN)[1]);
+        assertSame(COUNTRY, restored.get(KNOWN)[0]);
+        assertNull(restored.get(UNKNOWN)[1]);
+    }
+
+    @Test
+    public void shouldOnlyPersistAddressesWithoutData() throws Exception {
+        final GeoIpCacheSnapshot snapshot = new GeoIpCacheSnapshot(temporaryFolder.getRoot().toPath(), false);
+        snapshot.save("GeoLite2-City", METADATA, cache);
+
+        final Map<Long, Object[]> restored = restore(snapshot, METADATA);
+
+        assertNull(restored.get(KNOWN)[1]);
+        assertSame(GeoData.NOT_FOUND, restored.get(UNKNOWN)[1]);
+    }
+
+    @Test
+    public void shouldIgnoreSnapshotOfAnotherDatabase() throws Exception {
+        final GeoIpCacheSnapshot snapshot = new GeoIpCacheSnapshot(temporaryFolder.getRoot().toPath(), true);
+        snapshot.save("GeoLite2-City", METADATA, cache);
+        Files.move(snapshot.getFile("GeoLite2-City"), snapshot.getFile("GeoLite2-Country"));
+
+        assertTrue(restore(snapshot, "GeoLite2-Country", metadata("GeoLite2-Country", 1600000000L)).isEmpty());
+        assertTrue(restore(snapshot, METADATA).isEmpty());
+    }
+
+    @Test
+    public void shouldStreamSnapshotsLargerThanTheBuffer() throws Exception {
+        final GeoIpCache largeCache = new GeoIpCache(10_000, CacheType.PRIMITIVE, 0, 0L, 0L);
+        final GeoData large = new GeoData(new JsonObject().put("city_name", String.join("", Collections.nCopies(100_000, "a"))));
+        largeCache.put(0L, KNOWN, large);
+        for (int i = 1; i < 10_000; i++) {
+            largeCache.put(1L, i, known);
+        }
+        final GeoIpCacheSnapshot snapshot = new GeoIpCacheSnapshot(temporaryFolder.getRoot().toPath(), true);
+        assertEquals(10_000, snapshot.save("GeoLite2-City", METADATA, largeCache));
+
+        final List<GeoData> restored = new ArrayList<>();
+        assertEquals(
+            10_000,
+            snapshot.restore(
+                "GeoLite2-City",
+                METADATA,
+                new GeoIpFinderService(),
+                (high, low, prefixLength, projection, data) -> restored.add(data)
+            )
+        );
+
+        assertTrue(restored.contains(large));
+        assertEquals(9_999, restored.stream().filter(known::equals).count());
+    }
+
+    @Test
+    public void shouldRestoreNetworksWithTheirPrefixLength() throws Exception {
+        final GeoIpCache networkCache = new GeoIpCache(16, CacheType.NETWORK, 0, 0L, 0L);
+        networkCache.put(0L, KNOWN, 120, known);
+        final GeoIpCacheSnapshot snapshot = new GeoIpCacheSnapshot(temporaryFolder.getRoot().toPath(), true);
+        snapshot.save("GeoLite2-City", METADATA, networkCache);
+
+        final GeoIpCache restoredCache = new GeoIpCache(16, CacheType.NETWORK, 0, 0L, 0L);
+        snapshot.restore(
+            "GeoLite2-City",
+            METADATA,
+            new GeoIpFinderService(),
+            (high, low, prefixLength, projection, data) -> restoredCache.put(high, low, prefixLength, data)
+        );
+
+        assertEquals(1, restoredCache.size());
+        assertEquals(known, restoredCache.get(0L, KNOWN | 0xFF));
+    }
+
+    @Test
+    public void shouldShareTheRestoredData() throws Exception {
+        cache.put(0L, KNOWN + 1, new GeoData(known.asJson().copy(), COUNTRY));
+        final GeoIpCacheSnapshot snapshot = new GeoIpCacheSnapshot(temporaryFolder.getRoot().toPath(), true);
+        snapshot.save("GeoLite2-City", METADATA, cache);
+
+        final Map<Long, Object[]> restored = restore(snapshot, METADATA);
+
+        assertEquals(known, restored.get(KNOWN)[1]);
+        assertSame(restored.get(KNOWN)[1], restored.get(KNOWN + 1)[1]);
+    }
+
+    @Test
+    public void shouldDiscardSnapshotWithAnOversizedData() throws Exception {
+        final GeoIpCacheSnapshot snapshot = new GeoIpCacheSnapshot(temporaryFolder.getRoot().toPath(), true);
+        snapshot.save("GeoLite2-City", METADATA, cache);
+        final Path file = snapshot.getFile("GeoLite2-City");
+        final byte[] content = Files.readAllBytes(file);
+        final int data = indexOf(content, known.encoded().getBytes());
+        ByteBuffer.wrap(content).putInt(data - Integer.BYTES, Integer.MAX_VALUE);
+        Files.write(file, content);
+
+        assertThrows(IOException.class, () -> restore(snapshot, METADATA));
+        assertFalse(Files.exists(file));
+    }
+
+    private static int indexOf(byte[] content, byte[] searched) {
+        for (int i = 0; i <= content.length - searched.length; i++) {
+            if (Arrays.equals(content, i, i + searched.length, searched, 0, searched.length)) {
+                return i;
+            }
+        }
+        throw new AssertionError("Not found");
+    }
+
+    private static Map<Long, Object[]> restore(GeoIpCacheSnapshot snapshot, Metadata metadata) throws Exception {
+        return restore(snapshot, "GeoLite2-City", metadata);
+    }
+
+    private static Map<Long, Object[]> restore(GeoIpCacheSnapshot snapshot, String databaseType, Metadata metadata) throws Exception {
+        final Map<Long, Object[]> restored = new HashMap<>();
+        snapshot.restore(
+            databaseType,
+            metadata,
+            new GeoIpFinderService(),
+            (high, low, prefixLength, projection, data) -> restored.put(low, new Object[] { projection, data })
+        );
+        return restored;
+    }
+
+    private static Metadata metadata(String databaseType, long buildEpoch) {
+        return new Metadata(2, 0, BigInteger.valueOf(buildEpoch), databaseType, List.of("en"), Map.of(), 6, 1, 24);
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.service;
+
+import static io.gravitee.service.geoip.service.DatabaseReaderService.DATABASES_GEO_LITE_2_CITY_MMDB;
+import static org.junit.Assert.*;
+
+import com.maxmind.db.CHMCache;
+import com.maxmind.db.Reader;
+import com.maxmind.geoip2.DatabaseReader;
+import io.gravitee.service.geoip.model.GeoData;
+import io.gravitee.service.geoip.model.GeoProjection;
+import io.gravitee.service.geoip.model.GeoProperty;
+import io.gravitee.service.geoip.utils.IpAddressKeys;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class GeoIpFinderServiceTest {
+
+    private static final String[] ADDRESSES = {
+        "75.2.70.75",
+        "8.8.8.8",
+        "1.2.3.4",
+        "1.2.3.200",
+        "81.2.69.160",
+        "2001:4860::1",
+        "2a01:e00::1",
+    };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final GeoIpFinderService finderService = new GeoIpFinderService();
+    private DatabaseGeneration fullGeneration;
+    private DatabaseGeneration recordGeneration;
+
+    @Before
+    public void setUp() throws Exception {
+        final File database = temporaryFolder.newFile("GeoLite2-City.mmdb");
+        try (InputStream inputStream = getClass().getResourceAsStream(DATABASES_GEO_LITE_2_CITY_MMDB)) {
+            Files.copy(inputStream, database.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        fullGeneration = new DatabaseGeneration(new DatabaseReader.Builder(database).build(), null, null, null);
+        recordGeneration =
+            new DatabaseGeneration(
+                new DatabaseReader.Builder(database).build(),
+                null,
+                new Reader(database, Reader.FileMode.MEMORY_MAPPED, new CHMCache()),
+                null
+            );
+    }
+
+    @After
+    public void tearDown() {
+        fullGeneration.release();
+        recordGeneration.release();
+    }
+
+    @Test
+    public void shouldDecodeProjectionsLikeFullRecords() throws Exception {
+        for (GeoProjection projection : allProjections()) {
+            for (String address : ADDRESSES) {
+                final InetAddress ip = InetAddress.getByName(address);
+                final long high = IpAddressKeys.high(ip);
+                final long low = IpAddressKeys.low(ip);
+
+                final GeoData full = find(high, low, fullGeneration, GeoProjection.ALL);
+                final GeoData projected = find(high, low, recordGeneration, projection);
+                if (full.isNotFound()) {
+                    assertTrue(projected.isNotFound());
+                    continue;
+                }
+                final GeoData expected = full.project(projection);
+
+                assertEquals(address + " " + projection, expected.asJson(), projected.asJson());
+                assertSame(projection, projected.getProjection());
+            }
+        }
+    }
+
+    @Test
+    public void shouldShareProjectedRecords() throws Exception {
+        final GeoProjection country = GeoProjection.of(GeoProperty.COUNTRY_ISO_CODE);
+        final InetAddress first = InetAddress.getByName("75.2.70.75");
+        final InetAddress second = InetAddress.getByName("75.2.1.1");
+
+        assertSame(
+            find(IpAddressKeys.high(first), IpAddressKeys.low(first), recordGeneration, country),
+            find(IpAddressKeys.high(second), IpAddressKeys.low(second), recordGeneration, country)
+        );
+    }
+
+    @Test
+    public void shouldShareRecordsInternedFromTheirRenderedForm() throws Exception {
+        final InetAddress ip = InetAddress.getByName("75.2.70.75");
+        final GeoProjection country = GeoProjection.of(GeoProperty.COUNTRY_ISO_CODE);
+        final GeoData full = find(IpAddressKeys.high(ip), IpAddressKeys.low(ip), fullGeneration, GeoProjection.ALL);
+        final GeoData projected = find(IpAddressKeys.high(ip), IpAddressKeys.low(ip), recordGeneration, country);
+
+        assertSame(full, finderService.intern(DatabaseReaderService.CITY_DB_TYPE, full.asJson().copy(), GeoProjection.ALL));
+        assertSame(projected, finderService.intern(DatabaseReaderService.CITY_DB_TYPE, projected.asJson().copy(), country));
+    }
+
+    @Test
+    public void shouldOnlyForgetTheInternedRecordsOfTheReloadedDatabase() throws Exception {
+        final InetAddress ip = InetAddress.getByName("75.2.70.75");
+        final long high = IpAddressKeys.high(ip);
+        final long low = IpAddressKeys.low(ip);
+        final GeoData interned = find(high, low, fullGeneration, GeoProjection.ALL);
+
+        finderService.clearInternedRecords(DatabaseReaderService.ASN_DB_TYPE);
+        assertSame(interned, find(high, low, fullGeneration, GeoProjection.ALL));
+
+        finderService.clearInternedRecords(DatabaseReaderService.CITY_DB_TYPE);
+        final GeoData reloaded = find(high, low, fullGeneration, GeoProjection.ALL);
+        assertNotSame(interned, reloaded);
+        assertEquals(interned.asJson(), reloaded.asJson());
+    }
+
+    private GeoData find(long high, long low, DatabaseGeneration generation, GeoProjection projection) throws IOException {
+        return finderService.findNetworkGeoData(DatabaseReaderService.CITY_DB_TYPE, high, low, generation, projection).getGeoData();
+    }
+
+    private static List<GeoProjection> allProjections() {
+        final GeoProperty[] properties = GeoProperty.values();
+        final List<GeoProjection> projections = new ArrayList<>();
+        for (int mask = 1; mask < 1 << properties.length; mask++) {
+            final List<GeoProperty> selected = new ArrayList<>();
+            for (int i = 0; i < properties.length; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    selected.add(properties[i]);
+                }
+            }
+            projections.add(GeoProjection.of(selected.toArray(new GeoProperty[0])));
+        }
+        return projections;
+    }
+}
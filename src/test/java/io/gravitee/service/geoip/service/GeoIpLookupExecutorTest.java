@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.service;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class GeoIpLookupExecutorTest {
+
+    @Test
+    public void shouldRunInline() {
+        final GeoIpLookupExecutor executor = new GeoIpLookupExecutor();
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+
+        executor.execute(() -> thread.set(Thread.currentThread()));
+
+        assertTrue(executor.isInline());
+        assertSame(Thread.currentThread(), thread.get());
+    }
+
+    @Test
+    public void shouldRunOnWorker() throws InterruptedException {
+        final GeoIpLookupExecutor executor = new GeoIpLookupExecutor(LookupMode.WORKER, 1, 1);
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        try {
+            executor.execute(() -> {
+                thread.set(Thread.currentThread());
+                done.countDown();
+            });
+
+            assertFalse(executor.isInline());
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertTrue(thread.get().getName().startsWith("gravitee-geoip-lookup-"));
+        } finally {
+            executor.close();
+        }
+    }
+
+    @Test
+    public void shouldRejectWhenQueueIsFull() throws InterruptedException {
+        final GeoIpLookupExecutor executor = new GeoIpLookupExecutor(LookupMode.WORKER, 1, 1);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        try {
+            executor.execute(() -> {
+                running.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertTrue(running.await(5, TimeUnit.SECONDS));
+            executor.execute(() -> {});
+            assertEquals(1, executor.getQueueDepth());
+
+            assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> {}));
+        } finally {
+            release.countDown();
+            executor.close();
+        }
+    }
+
+    @Test
+    public void shouldParseLookupMode() {
+        assertEquals(LookupMode.WORKER, LookupMode.fromValue("worker"));
+        assertEquals(LookupMode.EVENT_LOOP, LookupMode.fromValue("event-loop"));
+        assertEquals(LookupMode.EVENT_LOOP, LookupMode.fromValue(null));
+        assertEquals(LookupMode.EVENT_LOOP, LookupMode.fromValue("unknown"));
+    }
+}
@@ -0,0 +1,287 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.service;
+
+import static io.gravitee.service.geoip.service.DatabaseReaderService.CITY_DB_TYPE;
+import static io.gravitee.service.geoip.service.DatabaseReaderService.DATABASES_GEO_LITE_2_CITY_MMDB;
+import static org.junit.Assert.*;
+
+import com.maxmind.db.CHMCache;
+import com.maxmind.db.Reader;
+import com.maxmind.geoip2.DatabaseReader;
+import com.maxmind.geoip2.exception.AddressNotFoundException;
+import io.gravitee.service.geoip.cache.CacheType;
+import io.gravitee.service.geoip.cache.GeoIpCache;
+import io.gravitee.service.geoip.index.CountryTable;
+import io.gravitee.service.geoip.model.GeoData;
+import io.gravitee.service.geoip.model.GeoProjection;
+import io.gravitee.service.geoip.model.GeoProperty;
+import io.vertx.core.Future;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class GeoIpResolverTest {
+
+    private static final String GRAVITEE_IO_WEBSITE_IP = "75.2.70.75";
+
+    private DatabaseReaderServiceImpl databaseReaderService;
+    private GeoIpResolver resolver;
+
+    @Before
+    public void setUp() throws IOException {
+        databaseReaderService = new DatabaseReaderServiceImpl();
+        databaseReaderService.put(
+            CITY_DB_TYPE,
+            new DatabaseGeneration(
+                new DatabaseReader.Builder(GeoIpResolverTest.class.getResourceAsStream(DATABASES_GEO_LITE_2_CITY_MMDB)).build(),
+                null,
+                null,
+                null
+            )
+        );
+        resolver =
+            new GeoIpResolver(CITY_DB_TYPE, databaseReaderService, new GeoIpFinderService(), new GeoIpCache(16), new GeoIpLookupExecutor());
+    }
+
+    @Test
+    public void shouldResolveThenServeFromCache() {
+        assertNull(resolver.getCached(GRAVITEE_IO_WEBSITE_IP));
+
+        final Future<GeoData> future = resolver.resolve(GRAVITEE_IO_WEBSITE_IP);
+
+        assertTrue(future.succeeded());
+        assertEquals("US", future.result().getValue("country_iso_code"));
+        assertSame(future.result(), resolver.getCached(GRAVITEE_IO_WEBSITE_IP));
+        assertSame(future.result(), resolver.getCached("::ffff:" + GRAVITEE_IO_WEBSITE_IP));
+    }
+
+    @Test
+    public void shouldFailWhenNotInDatabase() {
+        final Future<GeoData> future = resolver.resolve("127.0.0.1");
+
+        assertTrue(future.failed());
+        assertTrue(future.cause() instanceof AddressNotFoundException);
+    }
+
+    @Test
+    public void shouldServeWholeNetworkFromNetworkCache() {
+        resolver =
+            new GeoIpResolver(
+                CITY_DB_TYPE,
+                databaseReaderService,
+                new GeoIpFinderService(),
+                new GeoIpCache(16, CacheType.NETWORK, 0, 0L, 0L),
+                new GeoIpLookupExecutor()
+            );
+
+        final Future<GeoData> future = resolver.resolve(GRAVITEE_IO_WEBSITE_IP);
+
+        assertTrue(future.succeeded());
+        assertSame(future.result(), resolver.getCached("75.2.70.76"));
+        assertEquals(1, resolver.getCache().size());
+    }
+
+    @Test
+    public void shouldCacheNotFoundAddresses() {
+        // Globally routable, but not allocated
+        final String unallocated = "3fff::1";
+
+        assertTrue(resolver.resolve(unallocated).cause() instanceof AddressNotFoundException);
+        assertSame(GeoData.NOT_FOUND, resolver.getCached(unallocated));
+
+        final Future<GeoData> future = resolver.resolve(unallocated);
+
+        assertTrue(future.cause() instanceof AddressNotFoundException);
+        assertEquals("The address 3fff:0:0:0:0:0:0:1 is not in the database.", future.cause().getMessage());
+        assertEquals(1, resolver.getCache().getMetrics().getDecode().getCount());
+        assertEquals(1, resolver.getCache().getMetrics().getNotFound());
+    }
+
+    @Test
+    public void shouldAnswerReservedAddressesWithoutLookup() {
+        assertSame(GeoData.NOT_FOUND, resolver.getCached("192.168.1.1"));
+        assertTrue(resolver.resolve("10.0.0.1").cause() instanceof AddressNotFoundException);
+
+        assertEquals(0, resolver.getCache().getMisses());
+        assertEquals(0, resolver.getCache().getMetrics().getDecode().getCount());
+    }
+
+    @Test
+    public void shouldNotCacheDataOfAnotherDatabaseThanTheBoundOne() {
+        // The cache has already been replaced by the entries of a database not visible yet
+        resolver.getCache().replaceAll(new Object(), new long[0], new long[0], new int[0], new GeoData[0], 0);
+
+        final Future<GeoData> future = resolver.resolve(GRAVITEE_IO_WEBSITE_IP);
+
+        assertEquals("US", future.result().getValue("country_iso_code"));
+        assertNull(resolver.getCached(GRAVITEE_IO_WEBSITE_IP));
+    }
+
+    @Test
+    public void shouldResolveCountryIsoCodeFromTheDatabase() {
+        final Future<String> future = resolver.resolveCountryIsoCode(GRAVITEE_IO_WEBSITE_IP);
+
+        assertTrue(future.succeeded());
+        assertEquals("US", future.result());
+        assertEquals(1, resolver.getCache().getMetrics().getDecode().getCount());
+        assertTrue(resolver.resolveCountryIsoCode("9.9.9.9").cause() instanceof AddressNotFoundException);
+    }
+
+    @Test
+    public void shouldResolveCountryIsoCodeFromTheCountryTable() throws IOException {
+        final CountryTable countryTable;
+        try (Reader reader = new Reader(GeoIpResolverTest.class.getResourceAsStream(DATABASES_GEO_LITE_2_CITY_MMDB), new CHMCache())) {
+            countryTable = CountryTable.build(reader);
+        }
+        databaseReaderService.put(
+            CITY_DB_TYPE,
+            new DatabaseGeneration(
+                new DatabaseReader.Builder(GeoIpResolverTest.class.getResourceAsStream(DATABASES_GEO_LITE_2_CITY_MMDB)).build(),
+                null,
+                null,
+                countryTable
+            )
+        );
+
+        assertEquals("US", resolver.resolveCountryIsoCode(GRAVITEE_IO_WEBSITE_IP).result());
+        assertEquals("FR", resolver.resolveCountryIsoCode("1.2.3.200").result());
+        assertTrue(resolver.resolveCountryIsoCode("9.9.9.9").cause() instanceof AddressNotFoundException);
+        assertTrue(resolver.resolveCountryIsoCode("10.0.0.1").cause() instanceof AddressNotFoundException);
+        assertEquals(0, resolver.getCache().size());
+        assertEquals(0, resolver.getCache().getMetrics().getDecode().getCount());
+
+        // IPv6 addresses are not in the table
+        assertEquals("US", resolver.resolveCountryIsoCode("2001:4860:4860::8888").result());
+        assertEquals(1, resolver.getCache().getMetrics().getDecode().getCount());
+    }
+
+    @Test
+    public void shouldFailWhenDatabaseNotLoaded() {
+        resolver =
+            new GeoIpResolver(
+                CITY_DB_TYPE,
+                new DatabaseReaderServiceImpl(),
+                new GeoIpFinderService(),
+                new GeoIpCache(16),
+                new GeoIpLookupExecutor()
+            );
+
+        final Future<GeoData> future = resolver.resolve(GRAVITEE_IO_WEBSITE_IP);
+
+        assertTrue(future.failed());
+        assertEquals("Database GeoLite2-City not loaded", future.cause().getMessage());
+    }
+
+    @Test
+    public void shouldOnlyResolveAgainstItsOwnDatabaseType() {
+        resolver =
+            new GeoIpResolver(
+                DatabaseReaderService.ASN_DB_TYPE,
+                databaseReaderService,
+                new GeoIpFinderService(),
+                new GeoIpCache(16),
+                new GeoIpLookupExecutor()
+            );
+
+        final Future<GeoData> future = resolver.resolve(GRAVITEE_IO_WEBSITE_IP);
+
+        assertFalse(resolver.isLoaded());
+        assertTrue(future.failed());
+        assertEquals("Database GeoLite2-ASN not loaded", future.cause().getMessage());
+    }
+
+    @Test
+    public void shouldFailFastWhenLookupIsRejected() {
+        final GeoIpLookupExecutor closed = new GeoIpLookupExecutor(LookupMode.WORKER, 1, 1);
+        closed.close();
+        resolver = new GeoIpResolver(CITY_DB_TYPE, databaseReaderService, new GeoIpFinderService(), new GeoIpCache(16), closed);
+
+        final Future<GeoData> future = resolver.resolve(GRAVITEE_IO_WEBSITE_IP);
+
+        assertTrue(future.failed());
+        assertTrue(future.cause() instanceof RejectedExecutionException);
+    }
+
+    @Test
+    public void shouldShareTheLookupOfConcurrentMisses() {
+        final DeferredLookupExecutor executor = new DeferredLookupExecutor();
+        final GeoIpCache cache = new GeoIpCache(16);
+        resolver = new GeoIpResolver(CITY_DB_TYPE, databaseReaderService, new GeoIpFinderService(), cache, executor);
+
+        final Future<GeoData> first = resolver.resolve(GRAVITEE_IO_WEBSITE_IP);
+        final Future<GeoData> second = resolver.resolve(GRAVITEE_IO_WEBSITE_IP);
+        final Future<GeoData> narrower = resolver.resolve(GRAVITEE_IO_WEBSITE_IP, GeoProjection.of(GeoProperty.COUNTRY_ISO_CODE));
+
+        assertEquals(1, executor.lookups.size());
+        assertFalse(first.isComplete());
+        executor.runAll();
+
+        assertTrue(first.succeeded());
+        assertSame(first.result(), second.result());
+        assertEquals("US", narrower.result().getValue("country_iso_code"));
+        assertEquals(2, cache.getMetrics().getCoalesced());
+
+        // Once completed, the lookup is no longer shared
+        assertNotNull(resolver.getCached(GRAVITEE_IO_WEBSITE_IP));
+        cache.replaceAll(new long[0], new long[0], new GeoData[0], 0);
+        resolver.resolve(GRAVITEE_IO_WEBSITE_IP);
+        assertEquals(1, executor.lookups.size());
+    }
+
+    @Test
+    public void shouldNotShareLookupResolvingLessProperties() {
+        final DeferredLookupExecutor executor = new DeferredLookupExecutor();
+        resolver = new GeoIpResolver(CITY_DB_TYPE, databaseReaderService, new GeoIpFinderService(), new GeoIpCache(16), executor);
+
+        final Future<GeoData> narrower = resolver.resolve(GRAVITEE_IO_WEBSITE_IP, GeoProjection.of(GeoProperty.COUNTRY_ISO_CODE));
+        final Future<GeoData> all = resolver.resolve(GRAVITEE_IO_WEBSITE_IP);
+
+        assertEquals(2, executor.lookups.size());
+        executor.runAll();
+
+        assertTrue(narrower.succeeded());
+        assertEquals("US", all.result().getValue("country_iso_code"));
+        assertSame(GeoProjection.ALL, all.result().getProjection());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidLiteral() {
+        resolver.resolve("gravitee.io");
+    }
+
+    private static class DeferredLookupExecutor extends GeoIpLookupExecutor {
+
+        private final List<Runnable> lookups = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable lookup) {
+            lookups.add(lookup);
+        }
+
+        private void runAll() {
+            final List<Runnable> pending = new ArrayList<>(lookups);
+            lookups.clear();
+            pending.forEach(Runnable::run);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.utils;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class IpAddressParserTest {
+
+    private static final String[] ADDRESSES = {
+        "75.2.70.75",
+        "0.0.0.0",
+        "255.255.255.255",
+        "256.1.1.1",
+        "01.2.3.4",
+        "1.2.3",
+        "1.2.3.4.",
+        "1.2.3.4.5",
+        "1..3.4",
+        "1.2.3.a",
+        "gravitee.io",
+        "",
+        "1234",
+        "::",
+        "::1",
+        "1::",
+        ":::",
+        "1:::2",
+        ":1::2",
+        "1::2:",
+        "2001:db8::1",
+        "2001:0db8:0000:0000:0000:0000:0000:0001",
+        "2001:db8:0:0:0:0:0:1:",
+        "1:2:3:4:5:6:7:8",
+        "1:2:3:4:5:6:7:8:9",
+        "1:2:3:4:5:6:7::",
+        "::2:3:4:5:6:7:8",
+        "1:2:3:4:5:6:7",
+        "00000001::",
+        "10000::",
+        "::ffff:75.2.70.75",
+        "::75.2.70.75",
+        "1:2:3:4:5:6:1.2.3.4",
+        "1:2:3:4:5:6:7:1.2.3.4",
+        "1:1.2.3.4",
+        "::1.2.3",
+        "::1.2.3.4:1",
+        "1.2.3.4::",
+        "::ffff:0:0",
+        "fe80::1%eth0",
+        "٣.2.3.4",
+        "１::",
+    };
+
+    @Test
+    public void shouldParseLikeInetAddresses() {
+        for (String address : ADDRESSES) {
+            assertSameAsInetAddresses(address);
+        }
+    }
+
+    @Test
+    public void shouldParseRandomInputsLikeInetAddresses() {
+        final Random random = new Random(42);
+        final char[] alphabet = "0123456789abcdefABCDEF::..g".toCharArray();
+        for (int i = 0; i < 200_000; i++) {
+            final char[] chars = new char[random.nextInt(24)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = alphabet[random.nextInt(alphabet.length)];
+            }
+            assertSameAsInetAddresses(new String(chars));
+        }
+    }
+
+    @Test
+    public void shouldParseRandomAddresses() throws Exception {
+        final Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            final byte[] bytes = new byte[random.nextBoolean() ? 4 : 16];
+            random.nextBytes(bytes);
+            if (bytes.length == 16 && random.nextBoolean()) {
+                // Favour zero runs so that "::" compression kicks in
+                for (int j = random.nextInt(16); j < 16 && random.nextInt(4) > 0; j++) {
+                    bytes[j] = 0;
+                }
+            }
+            final InetAddress address = InetAddress.getByAddress(bytes);
+            assertSameAsInetAddresses(InetAddresses.toAddrString(address));
+            assertSameAsInetAddresses(address.getHostAddress());
+        }
+    }
+
+    @Test
+    public void shouldParseIPv4() {
+        assertEquals(0x4B02464BL, IpAddressParser.parseIPv4("75.2.70.75"));
+        assertEquals(0xFFFFFFFFL, IpAddressParser.parseIPv4("255.255.255.255"));
+        assertEquals(-1, IpAddressParser.parseIPv4("::1"));
+        assertEquals(-1, IpAddressParser.parseIPv4("1.2.3.-4"));
+        assertEquals(-1, IpAddressParser.parseIPv4(null));
+    }
+
+    @Test
+    public void shouldRejectNull() {
+        assertFalse(IpAddressParser.parse(null, new long[2]));
+    }
+
+    private void assertSameAsInetAddresses(String address) {
+        InetAddress expected = null;
+        try {
+            expected = InetAddresses.forString(address);
+        } catch (IllegalArgumentException e) {
+            // Expected to be rejected by the parser too
+        }
+
+        final long[] key = new long[2];
+        final boolean parsed = IpAddressParser.parse(address, key);
+        assertEquals(address, expected != null, parsed);
+        if (parsed) {
+            assertEquals(address, IpAddressKeys.high(expected), key[0]);
+            assertEquals(address, IpAddressKeys.low(expected), key[1]);
+            assertEquals(address, expected, IpAddressKeys.toInetAddress(key[0], key[1]));
+        }
+    }
+}
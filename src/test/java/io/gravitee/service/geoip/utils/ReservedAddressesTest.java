@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.service.geoip.utils;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import org.junit.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class ReservedAddressesTest {
+
+    @Test
+    public void mustDetectReservedAddresses() {
+        for (String address : new String[] {
+            "0.0.0.0",
+            "10.1.2.3",
+            "100.64.0.1",
+            "100.127.255.255",
+            "127.0.0.1",
+            "169.254.169.254",
+            "172.16.0.1",
+            "172.31.255.255",
+            "192.0.0.8",
+            "192.0.2.1",
+            "192.168.0.1",
+            "198.18.0.1",
+            "198.19.255.255",
+            "198.51.100.7",
+            "203.0.113.9",
+            "224.0.0.251",
+            "255.255.255.255",
+            "::",
+            "::1",
+            "::ffff:10.0.0.1",
+            "fc00::1",
+            "fd12:3456::1",
+            "fe80::1",
+            "febf::1",
+            "2001:db8::1",
+            "ff02::1",
+        }) {
+            assertTrue(address, isReserved(address));
+        }
+    }
+
+    @Test
+    public void mustNotDetectPublicAddresses() {
+        for (String address : new String[] {
+            "75.2.70.75",
+            "8.8.8.8",
+            "1.2.3.4",
+            "100.63.255.255",
+            "100.128.0.0",
+            "172.15.255.255",
+            "172.32.0.0",
+            "192.0.1.1",
+            "198.17.255.255",
+            "198.20.0.0",
+            "223.255.255.255",
+            "::ffff:75.2.70.75",
+            "::75.2.70.75",
+            "2001:4860:4860::8888",
+            "2001:db9::1",
+            "2a01:e00::1",
+            "fec0::1",
+        }) {
+            assertFalse(address, isReserved(address));
+        }
+    }
+
+    private static boolean isReserved(String address) {
+        final InetAddress ip = InetAddresses.forString(address);
+        return ReservedAddresses.isReserved(IpAddressKeys.high(ip), IpAddressKeys.low(ip));
+    }
+}